@@ -0,0 +1,12 @@
+package file;
+
+import java.util.List;
+
+//Speicher-Attrappe für Sitzungs-Benchmarks: die Nachricht wird angenommen, aber nicht geschrieben,
+//damit nur Parser und Zustandsmaschine gemessen werden
+public class DiscardingMailStorageService extends MailStorageService {
+
+    @Override
+    protected void storeMessage(String client, String sender, List<String> recipients, MessageSpool messageBody, SyncBatch sync) {
+    }
+}
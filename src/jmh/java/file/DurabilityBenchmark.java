@@ -0,0 +1,96 @@
+package file;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/*Vergleicht die Durability-Modi über AsyncMailStorageService, wie ihn der Server benutzt: 16 Sitzungen
+ * (Benchmark-Threads) speichern gleichzeitig und warten jeweils auf ihr "250" (Abschluss des Futures).
+ * Throughput liefert Nachrichten pro Sekunde, SampleTime die Verteilung der Latenz bis zur Bestätigung.
+ * Die Ergebnisse hängen stark vom Speichermedium ab (fsync auf tmpfs ist fast kostenlos).
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Threads(16)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DurabilityBenchmark {
+
+    @Param({"none", "per-message", "group-commit"})
+    public String durability;
+
+    @Param({"files", "segmented"})
+    public String layout;
+
+    @Param({"4096"})
+    public int messageSize;
+
+    private static final List<String> RECIPIENTS = List.of("bench0@example.com", "bench1@example.com");
+
+    private final AtomicLong sequence = new AtomicLong();
+    private MailStorageService mailStorage;
+    private AsyncMailStorageService storage;
+    private byte[] bytes;
+
+    @Setup
+    public void setup() {
+        mailStorage = "segmented".equals(layout)
+                ? new SegmentedMailStorageService(64L * 1024 * 1024, 1024)
+                : new MailStorageService();
+        storage = new AsyncMailStorageService(mailStorage, 4, 1024, Durability.parse(durability));
+        bytes = new byte[messageSize];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (i % 78 == 77 ? '\n' : 'a' + i % 26);
+        }
+    }
+
+    @Benchmark
+    public void storeAndAcknowledge() throws IOException {
+        try (MessageSpool spool = storage.createSpool()) {
+            ByteBuffer body = ByteBuffer.wrap(bytes.clone());
+            body.putLong(0, sequence.incrementAndGet());
+            spool.write(body);
+            storage.storeMessage("bench.example.org", "sender@example.org", RECIPIENTS, spool).join();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        storage.shutdown();
+        if (mailStorage instanceof SegmentedMailStorageService segmented) {
+            segmented.close();
+        }
+        Path baseDir = Paths.get(MailStorageService.BASE_DIR);
+        if (!Files.exists(baseDir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(baseDir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
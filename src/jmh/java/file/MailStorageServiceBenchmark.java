@@ -0,0 +1,93 @@
+package file;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/*Misst storeMessage (Blob schreiben + Hardlink je Empfänger bzw. Anhängen an das Segment je Empfänger)
+ * abhängig von Ablage, Nachrichtengröße und Empfängerzahl. Jede Nachricht bekommt einen eigenen Zähler im Inhalt, sonst würde die
+ * inhaltsadressierte Ablage ab dem zweiten Aufruf nur noch Links anlegen. Geschrieben wird nach
+ * data/ im Arbeitsverzeichnis, das nach dem Lauf wieder gelöscht wird.
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class MailStorageServiceBenchmark {
+
+    @Param({"files", "segmented"})
+    public String layout;
+
+    @Param({"1024", "65536", "1048576"})
+    public int messageSize;
+
+    @Param({"1", "10", "50"})
+    public int recipients;
+
+    private MailStorageService storage;
+    private final List<String> recipientList = new ArrayList<>();
+    private ByteBuffer body;
+    private long sequence;
+
+    @Setup
+    public void setup() {
+        storage = "segmented".equals(layout)
+                ? new SegmentedMailStorageService(64L * 1024 * 1024, 1024)
+                : new MailStorageService();
+        for (int i = 0; i < recipients; i++) {
+            recipientList.add("bench" + i + "@example.com");
+        }
+        byte[] bytes = new byte[messageSize];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (i % 78 == 77 ? '\n' : 'a' + i % 26);
+        }
+        body = ByteBuffer.wrap(bytes);
+    }
+
+    @Benchmark
+    public void storeMessage() throws IOException {
+        try (MessageSpool spool = storage.createSpool()) {
+            body.clear().putLong(0, sequence++);
+            spool.write(body);
+            storage.storeMessage("bench.example.org", "sender@example.org", recipientList, spool);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (storage instanceof SegmentedMailStorageService segmented) {
+            segmented.close();
+        }
+        Path baseDir = Paths.get(MailStorageService.BASE_DIR);
+        if (!Files.exists(baseDir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(baseDir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package file;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/*Received-Kopfzeile pro Nachricht: bisherige Erzeugung (DateTimeFormatter.ofPattern und ZonedDateTime.now bei
+ * jedem Aufruf, String-Verkettung, getBytes) gegen receivedHeader mit dem CachedClock.
+ * Mit dem GC-Profiler des jmh-Tasks zeigt gc.alloc.rate.norm die Allokationen pro Nachricht.
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ReceivedHeaderBenchmark {
+
+    private final String client = "mail.example.org";
+
+    @Benchmark
+    public ByteBuffer formatPerMessage() {
+        ZonedDateTime now = ZonedDateTime.now();
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd MMM yy HH:mm:ss z", Locale.ENGLISH);
+        String line = "Received: FROM " + client + " BY SMTPServer ; " + now.format(formatter) + "\n";
+        return ByteBuffer.wrap(line.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Benchmark
+    public ByteBuffer cachedClock() {
+        return MailStorageService.receivedHeader(client);
+    }
+}
@@ -0,0 +1,118 @@
+package smtp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/*Verbindungen pro Sekunde in Abhängigkeit von der Anzahl der Worker-Selectors: startet einen echten SMTPServer
+ * auf Loopback und lässt 16 Client-Threads jeweils verbinden, die Begrüßung lesen, HELO und QUIT senden und bis
+ * zum Schließen durch den Server lesen. Die Clients laufen auf derselben Maschine; aussagekräftig ist daher nur
+ * ein Rechner mit deutlich mehr Kernen als Workern, sonst teilen sich Server und Clients die CPU.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Threads(16)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class WorkerScalingBenchmark {
+
+    private static final byte[] HELO_QUIT = "HELO bench.example.org\r\nQUIT\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    @Param({"1", "2", "4", "8"})
+    public int workers;
+
+    private SMTPServer server;
+    private Thread acceptorThread;
+    private InetSocketAddress address;
+
+    @State(Scope.Thread)
+    public static class Client {
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(4096);
+    }
+
+    @Setup
+    public void setup() throws IOException, InterruptedException {
+        final int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+        server = new SMTPServer(port, workers);
+        acceptorThread = new Thread(() -> {
+            try {
+                server.startServer();
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to start server", e);
+            }
+        }, "bench-acceptor");
+        acceptorThread.start();
+        awaitListening();
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        server.stopServer();
+        acceptorThread.join();
+    }
+
+    //eine vollständige Verbindung: Aufbau, 220, HELO, QUIT, Abbau durch den Server
+    @Benchmark
+    public int connectHeloQuit(Client client) throws IOException {
+        final ByteBuffer readBuffer = client.readBuffer;
+        int received = 0;
+        try (SocketChannel channel = SocketChannel.open(address)) {
+            readBuffer.clear();
+            //erst nach der Begrüßung senden, wie ein korrekter Client
+            while (readBuffer.position() == 0 || readBuffer.get(readBuffer.position() - 1) != '\n') {
+                if (channel.read(readBuffer) < 0) {
+                    throw new IOException("Connection closed before greeting");
+                }
+            }
+            received += readBuffer.position();
+            channel.write(ByteBuffer.wrap(HELO_QUIT));
+            int read;
+            do {
+                readBuffer.clear();
+                read = channel.read(readBuffer);
+                received += Math.max(read, 0);
+            } while (read >= 0);
+        }
+        return received;
+    }
+
+    private void awaitListening() throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (true) {
+            try {
+                SocketChannel.open(address).close();
+                return;
+            } catch (IOException e) {
+                if (System.nanoTime() > deadline || !acceptorThread.isAlive()) {
+                    throw new IllegalStateException("Server did not start on " + address, e);
+                }
+                Thread.sleep(10);
+            }
+        }
+    }
+}
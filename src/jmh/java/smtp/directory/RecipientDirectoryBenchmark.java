@@ -0,0 +1,80 @@
+package smtp.directory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+//Lookup-Kosten bei RCPT TO: kompakter Index (mit/ohne Bloom-Filter) im Vergleich zu einem HashSet
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RecipientDirectoryBenchmark {
+
+    private static final int QUERIES = 4096;
+
+    @Param({"1000", "1000000"})
+    public int entries;
+
+    @Param({"0", "0.01"})
+    public double bloomFpp;
+
+    private CompactAddressIndex index;
+    private Set<String> hashSet;
+    private final String[] hits = new String[QUERIES];
+    private final String[] misses = new String[QUERIES];
+    private int next;
+
+    @Setup
+    public void setup() {
+        List<String> addresses = new ArrayList<>(entries);
+        for (int i = 0; i < entries; i++) {
+            addresses.add("user" + i + "@domain" + (i % 1000) + ".example.com");
+        }
+        index = CompactAddressIndex.build(addresses, bloomFpp);
+        hashSet = new HashSet<>(addresses);
+        Random random = new Random(42);
+        for (int i = 0; i < QUERIES; i++) {
+            //neue String-Objekte wie bei einem frisch geparsten RCPT TO
+            hits[i] = new String(addresses.get(random.nextInt(entries)).toCharArray());
+            misses[i] = "nobody" + random.nextInt(entries) + "@domain" + random.nextInt(1000) + ".example.com";
+        }
+    }
+
+    @Benchmark
+    public boolean indexHit() {
+        return index.contains(hits[next++ & (QUERIES - 1)]);
+    }
+
+    @Benchmark
+    public boolean indexMiss() {
+        return index.contains(misses[next++ & (QUERIES - 1)]);
+    }
+
+    @Benchmark
+    public boolean hashSetHit() {
+        return hashSet.contains(hits[next++ & (QUERIES - 1)]);
+    }
+
+    @Benchmark
+    public boolean hashSetMiss() {
+        return hashSet.contains(misses[next++ & (QUERIES - 1)]);
+    }
+}
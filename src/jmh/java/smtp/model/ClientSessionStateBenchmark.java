@@ -0,0 +1,63 @@
+package smtp.model;
+
+import file.AsyncMailStorageService;
+import file.DiscardingMailStorageService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import smtp.util.BufferPool;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/*Misst komplette Sitzungen (EHLO, MAIL, RCPT, DATA, QUIT) durch processReadBuffer.
+ * fragmentSize steuert, in wie großen Stücken die Bytes ankommen: 1 entspricht einem Client,
+ * der jedes Byte einzeln sendet, 16384 einem vollständig gepipelinten Client.
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ClientSessionStateBenchmark {
+
+    @Param({"1", "7", "512", "16384"})
+    public int fragmentSize;
+
+    @Param({"1024", "65536"})
+    public int messageSize;
+
+    @Param({"1", "4"})
+    public int recipients;
+
+    private AsyncMailStorageService storage;
+    private SessionDriver driver;
+    private byte[] transcript;
+
+    @Setup
+    public void setup() {
+        storage = new AsyncMailStorageService(new DiscardingMailStorageService(), 1, 16);
+        driver = new SessionDriver(new BufferPool(), storage);
+        transcript = Transcripts.data(messageSize, recipients);
+    }
+
+    @TearDown
+    public void tearDown() {
+        storage.shutdown();
+    }
+
+    @Benchmark
+    public long transcript() throws IOException {
+        return driver.run(transcript, fragmentSize);
+    }
+}
@@ -0,0 +1,68 @@
+package smtp.model;
+
+import file.AsyncMailStorageService;
+import file.DiscardingMailStorageService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import smtp.util.BufferPool;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/*Vergleicht die Übertragung großer Nachrichten per DATA (zeilenweise, mit Dot-Unstuffing) und
+ * BDAT (Chunks ohne Zeilenscan). Die Bytes kommen in 64-KiB-Stücken, wie bei einem schnellen Client;
+ * Durchsatz in MB/s = messageSize / gemessene Zeit. Nachrichten über smtp.spool.threshold werden in
+ * data/.incoming unterhalb des Arbeitsverzeichnisses zwischengespeichert.
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DataVsBdatBenchmark {
+
+    private static final int FRAGMENT_SIZE = 64 * 1024;
+    private static final int BDAT_CHUNK_SIZE = 1024 * 1024;
+
+    public enum Transfer { DATA, BDAT }
+
+    @Param({"DATA", "BDAT"})
+    public Transfer transfer;
+
+    @Param({"1048576", "10485760", "52428800"})
+    public int messageSize;
+
+    private AsyncMailStorageService storage;
+    private SessionDriver driver;
+    private byte[] transcript;
+
+    @Setup
+    public void setup() {
+        storage = new AsyncMailStorageService(new DiscardingMailStorageService(), 1, 16);
+        driver = new SessionDriver(new BufferPool(), storage);
+        transcript = transfer == Transfer.DATA
+                ? Transcripts.data(messageSize, 1)
+                : Transcripts.bdat(messageSize, 1, BDAT_CHUNK_SIZE);
+    }
+
+    @TearDown
+    public void tearDown() {
+        storage.shutdown();
+    }
+
+    @Benchmark
+    public long transfer() throws IOException {
+        return driver.run(transcript, FRAGMENT_SIZE);
+    }
+}
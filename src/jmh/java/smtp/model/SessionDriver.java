@@ -0,0 +1,94 @@
+package smtp.model;
+
+import file.AsyncMailStorageService;
+import smtp.directory.StaticRecipientDirectory;
+import smtp.util.BufferPool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+//Spielt ein aufgezeichnetes Transkript in festen Fragmenten durch eine Sitzung, so wie es der
+//Worker mit den Bytes aus read() tun würde; Antworten landen in einem verwerfenden Kanal
+final class SessionDriver {
+
+    private final BufferPool bufferPool;
+    private final AsyncMailStorageService storage;
+    private final DiscardingChannel sink = new DiscardingChannel();
+
+    SessionDriver(BufferPool bufferPool, AsyncMailStorageService storage) {
+        this.bufferPool = bufferPool;
+        this.storage = storage;
+    }
+
+    //Liefert die Anzahl der geschriebenen Antwort-Bytes, damit JIT den Lauf nicht wegoptimiert
+    long run(byte[] transcript, int fragmentSize) throws IOException {
+        ClientSessionState session = new ClientSessionState(bufferPool, storage, StaticRecipientDirectory.defaults());
+        sink.written = 0;
+        try {
+            int offset = 0;
+            while (offset < transcript.length && !session.isQuitSent()) {
+                ByteBuffer readBuffer = session.acquireReadBuffer();
+                int length = Math.min(Math.min(fragmentSize, readBuffer.remaining()), transcript.length - offset);
+                readBuffer.put(transcript, offset, length);
+                offset += length;
+
+                session.processReadBuffer();
+                CompletableFuture<Void> store;
+                while ((store = session.takePendingStore()) != null) {
+                    Throwable failure = null;
+                    try {
+                        store.join();
+                    } catch (CompletionException e) {
+                        failure = e.getCause();
+                    }
+                    session.completeStore(failure);
+                    session.processReadBuffer();
+                }
+                session.releaseReadBufferIfEmpty();
+                session.flushOutbound(sink);
+            }
+        } finally {
+            session.close();
+        }
+        return sink.written;
+    }
+
+    static final class DiscardingChannel implements GatheringByteChannel {
+
+        private long written;
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            long total = 0;
+            for (int i = offset; i < offset + length; i++) {
+                total += write(srcs[i]);
+            }
+            return total;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) {
+            return write(srcs, 0, srcs.length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            int remaining = src.remaining();
+            src.position(src.limit());
+            written += remaining;
+            return remaining;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package smtp.model;
+
+import file.AsyncMailStorageService;
+import file.DiscardingMailStorageService;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import smtp.directory.RecipientDirectory;
+import smtp.directory.StaticRecipientDirectory;
+import smtp.util.BufferPool;
+import smtp.util.TimingWheel;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/*Heap-Bedarf untätiger Sitzungen: legt sessions Sitzungen an, die wie im Worker nach EHLO auf den nächsten Befehl
+ * warten (Timeout gesetzt, Lese- und Ausgabepuffer an den Pool zurückgegeben), und misst die Zunahme des belegten
+ * Heaps nach einer vollständigen GC. Serial GC ohne Dead Wood (MarkSweepDeadRatio=0), sonst bleiben die toten
+ * Sitzungen des vorigen Durchlaufs als belegt stehen. Das Ergebnis steht in der Zusatzspalte bytesPerSession, die
+ * Zeit ist nur Nebenprodukt. Die direkten Puffer des Pools liegen außerhalb des Heaps und werden geteilt.
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g", "-XX:+UseSerialGC", "-XX:MarkSweepDeadRatio=0"})
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class SessionFootprintBenchmark {
+
+    private static final byte[] EHLO = "EHLO client.example.org\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    @Param({"100000"})
+    public int sessions;
+
+    private final BufferPool bufferPool = new BufferPool();
+    private final RecipientDirectory recipientDirectory = StaticRecipientDirectory.defaults();
+    private final SessionDriver.DiscardingChannel sink = new SessionDriver.DiscardingChannel();
+    private AsyncMailStorageService storage;
+    //Sitzungen des letzten Durchlaufs; bleiben bis zur Messung erreichbar und werden vor dem nächsten freigegeben
+    private ClientSessionState[] live;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+        public long bytesPerSession;
+    }
+
+    @Setup
+    public void setup() {
+        storage = new AsyncMailStorageService(new DiscardingMailStorageService(), 1, 16);
+    }
+
+    @TearDown
+    public void tearDown() {
+        storage.shutdown();
+    }
+
+    @Benchmark
+    public void idleSessions(Footprint footprint) throws IOException {
+        live = null;
+        final long before = usedHeap();
+        live = new ClientSessionState[sessions];
+        for (int i = 0; i < live.length; i++) {
+            final ClientSessionState session = new ClientSessionState(bufferPool, storage, recipientDirectory);
+            //wie im Worker: der Timeout hält die Sitzung über ein eigenes Lambda
+            session.setTimeout(new TimingWheel.Timeout(session::close));
+            session.enqueueResponse(SMTPReply.GREETING);
+            session.flushOutbound(sink);
+            session.acquireReadBuffer().put(ByteBuffer.wrap(EHLO));
+            session.processReadBuffer();
+            session.releaseReadBufferIfEmpty();
+            session.flushOutbound(sink);
+            live[i] = session;
+        }
+        //das Array selbst (4 Byte je Eintrag) wird mitgezählt
+        footprint.bytesPerSession = (usedHeap() - before) / live.length;
+    }
+
+    //Belegung direkt nach der letzten GC; getUsage zählte auch bereits vergebene, noch leere TLABs mit
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getCollectionUsage() != null) {
+                used += pool.getCollectionUsage().getUsed();
+            }
+        }
+        return used;
+    }
+}
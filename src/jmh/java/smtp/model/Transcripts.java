@@ -0,0 +1,67 @@
+package smtp.model;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+//Erzeugt Client-Transkripte für die Sitzungs-Benchmarks
+final class Transcripts {
+
+    private static final int LINE_LENGTH = 76;
+    //Adressen aus StaticRecipientDirectory.defaults()
+    private static final String[] RECIPIENTS = {"abc@def.edu", "ghi@jkl.com", "nmo@pqr.gov", "stu@vwx.de"};
+
+    private Transcripts() {
+    }
+
+    //Vollständige Sitzung mit DATA; der Text enthält Zeilen mit führendem Punkt (Dot-Stuffing)
+    static byte[] data(int messageSize, int recipients) {
+        ByteArrayOutputStream out = envelope(recipients);
+        ascii(out, "DATA\r\n");
+        byte[] line = new byte[LINE_LENGTH];
+        int written = 0;
+        int lineNumber = 0;
+        while (written < messageSize) {
+            int length = Math.min(LINE_LENGTH, messageSize - written);
+            Arrays.fill(line, 0, length, (byte) ('a' + lineNumber % 26));
+            if (lineNumber % 10 == 0) {
+                out.write('.');
+            }
+            out.write(line, 0, length);
+            ascii(out, "\r\n");
+            written += length;
+            lineNumber++;
+        }
+        ascii(out, ".\r\nQUIT\r\n");
+        return out.toByteArray();
+    }
+
+    //Vollständige Sitzung mit BDAT in Chunks der angegebenen Größe, der letzte Chunk trägt LAST
+    static byte[] bdat(int messageSize, int recipients, int chunkSize) {
+        ByteArrayOutputStream out = envelope(recipients);
+        byte[] chunk = new byte[chunkSize];
+        int written = 0;
+        do {
+            int length = Math.min(chunkSize, messageSize - written);
+            Arrays.fill(chunk, 0, length, (byte) ('a' + (written / chunkSize) % 26));
+            written += length;
+            ascii(out, "BDAT " + length + (written == messageSize ? " LAST" : "") + "\r\n");
+            out.write(chunk, 0, length);
+        } while (written < messageSize);
+        ascii(out, "QUIT\r\n");
+        return out.toByteArray();
+    }
+
+    private static ByteArrayOutputStream envelope(int recipients) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ascii(out, "EHLO bench.example.org\r\nMAIL FROM:<sender@example.org>\r\n");
+        for (int i = 0; i < recipients; i++) {
+            ascii(out, "RCPT TO:<" + RECIPIENTS[i % RECIPIENTS.length] + ">\r\n");
+        }
+        return out;
+    }
+
+    private static void ascii(ByteArrayOutputStream out, String text) {
+        out.writeBytes(text.getBytes(StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,79 @@
+package smtp.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/*Suche aller Zeilenenden in 1 MiB Nachrichteninhalt (direkter Puffer wie aus dem BufferPool), single-threaded:
+ * bisherige Schleife mit relativem get() je Byte, indizierte Schleife und SWAR (ByteScanner).
+ * Eine Operation durchsucht genau 1 MiB, ops/s entspricht also MiB/s pro Kern (÷ 1024 = GiB/s).
+ * lineLength: 78 für typischen Text, 998 als Höchstlänge nach RFC 5321, 65536 für Base64 ohne Umbrüche o.\ ä.
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ByteScannerBenchmark {
+
+    private static final int SIZE = 1024 * 1024;
+
+    @Param({"78", "998", "65536"})
+    public int lineLength;
+
+    private ByteBuffer buffer;
+
+    @Setup
+    public void setup() {
+        buffer = ByteBuffer.allocateDirect(SIZE);
+        for (int i = 0; i < SIZE; i++) {
+            final int column = i % (lineLength + 2);
+            buffer.put(i, (byte) (column == lineLength ? '\r' : column == lineLength + 1 ? '\n' : 'a' + column % 26));
+        }
+    }
+
+    //wie bisher in processReadBuffer: jedes Byte per relativem get() lesen und mit '\r' vergleichen
+    @Benchmark
+    public int byteLoop() {
+        buffer.clear();
+        int lines = 0;
+        while (buffer.hasRemaining()) {
+            if (buffer.get() == '\r') {
+                lines++;
+            }
+        }
+        return lines;
+    }
+
+    @Benchmark
+    public int scalar() {
+        int lines = 0;
+        for (int cr = ByteScanner.indexOfScalar(buffer, 0, SIZE, (byte) '\r'); cr >= 0;
+             cr = ByteScanner.indexOfScalar(buffer, cr + 1, SIZE, (byte) '\r')) {
+            lines++;
+        }
+        return lines;
+    }
+
+    @Benchmark
+    public int swar() {
+        int lines = 0;
+        for (int cr = ByteScanner.indexOfSwar(buffer, 0, SIZE, (byte) '\r'); cr >= 0;
+             cr = ByteScanner.indexOfSwar(buffer, cr + 1, SIZE, (byte) '\r')) {
+            lines++;
+        }
+        return lines;
+    }
+}
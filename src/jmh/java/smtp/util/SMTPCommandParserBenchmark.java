@@ -0,0 +1,113 @@
+package smtp.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import smtp.model.SMTPCommand;
+import smtp.model.SMTPCommandType;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/*Misst das Parsen einzelner Befehlszeilen: byteweise direkt im Lesepuffer gegen den früheren Weg über Strings
+ * (Zeile aus dem Puffer in einen String kopieren, strip, toUpperCase, Stream über alle Befehlstypen, substring),
+ * der als stringBaseline nur noch hier im Benchmark existiert. Unbekannte Befehle (NOOP) warfen dort eine Exception.
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SMTPCommandParserBenchmark {
+
+    @Param({
+            "HELO client.example.org",
+            "MAIL FROM:<sender@example.org>",
+            "RCPT TO: <user1@example.com>",
+            "DATA",
+            "BDAT 65536 LAST",
+            "NOOP"
+    })
+    public String line;
+
+    private ByteBuffer heapLine;
+    private ByteBuffer directLine;
+    private final SMTPCommand command = new SMTPCommand();
+
+    @Setup
+    public void setup() {
+        byte[] bytes = line.getBytes(StandardCharsets.US_ASCII);
+        heapLine = ByteBuffer.wrap(bytes);
+        directLine = ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+    }
+
+    //Pfad des Servers: Zeile im Puffer, wiederverwendetes Befehlsobjekt, Argumente nicht angefasst
+    @Benchmark
+    public boolean parseHeapBuffer() {
+        return SMTPCommandParser.parse(heapLine, 0, heapLine.limit(), command);
+    }
+
+    @Benchmark
+    public boolean parseDirectBuffer() {
+        return SMTPCommandParser.parse(directLine, 0, directLine.limit(), command);
+    }
+
+    //wie oben, zusätzlich werden die Argumente dekodiert (HELO-Name, Adressen)
+    @Benchmark
+    public String parseDirectBufferWithArguments() {
+        if (!SMTPCommandParser.parse(directLine, 0, directLine.limit(), command) || !command.hasArguments()) {
+            return null;
+        }
+        return command.getArguments();
+    }
+
+    //früherer Weg des Servers: Zeile aus dem (direkten) Lesepuffer dekodieren und per String-API parsen
+    @Benchmark
+    public SMTPCommand stringBaseline() {
+        final byte[] lineBytes = new byte[directLine.limit()];
+        directLine.get(0, lineBytes);
+        try {
+            return parseWithStrings(new String(lineBytes, StandardCharsets.US_ASCII));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    //bisheriges SMTPCommandParser.parse(String) mit SMTPCommandType.from, um EHLO und BDAT ergänzt
+    private static SMTPCommand parseWithStrings(String line) {
+        final String trimmed = line.strip();
+        final String upperCase = trimmed.toUpperCase();
+        final SMTPCommandType type = Arrays.stream(SMTPCommandType.values())
+                .filter(candidate -> upperCase.startsWith(candidate.commandString))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException(line));
+        final String args = switch (type) {
+            case HELO, EHLO, BDAT -> trimmed.substring(type.commandString.length() + 1);
+            case MAIL_FROM, RCPT_TO -> extractAddress(line, type.commandString.length() + 1);
+            case DATA, QUIT -> null;
+            case HELP -> trimmed.length() > type.commandString.length()
+                    ? trimmed.substring(type.commandString.length() + 1)
+                    : null;
+        };
+        return new SMTPCommand(type, args);
+    }
+
+    private static String extractAddress(String line, int offset) {
+        final String address = line.substring(offset);
+        if (address.startsWith("<") && address.endsWith(">")) {
+            return address.substring(1, address.length() - 1);
+        }
+        return address;
+    }
+}
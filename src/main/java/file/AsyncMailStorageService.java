@@ -0,0 +1,145 @@
+package file;
+
+import smtp.metrics.SMTPMetrics;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*Entkoppelt die Festplattenzugriffe des MailStorageService von den Selector-Threads.
+ * Nachrichten werden in eine begrenzte Warteschlange gestellt und von eigenen Writer-Threads gespeichert.
+ * Ist die Warteschlange voll, wird der Auftrag sofort abgelehnt (RejectedExecutionException),
+ * damit der Aufrufer dem Client mit 451 antworten kann, statt den Event-Loop zu blockieren.
+ * Je nach Durability wird das Future erst nach dem fsync der Nachricht (PER_MESSAGE) bzw. ihrer Gruppe
+ * (GROUP_COMMIT, Zeitfenster -Dsmtp.durability.groupWindowMicros, Standard 1000, höchstens
+ * -Dsmtp.durability.groupMaxBatch Nachrichten, Standard 512) abgeschlossen.
+ * Mit -Dsmtp.dedup.entries prüft der Writer-Thread vor dem Schreiben, ob dieselbe Nachricht kürzlich schon
+ * gespeichert wurde (DeduplicationCache); eine Wiederholung wird dann ohne Plattenzugriff bestätigt.
+ */
+public class AsyncMailStorageService {
+
+    private static final long GROUP_WINDOW_MICROS = Long.getLong("smtp.durability.groupWindowMicros", 1000L);
+    private static final int GROUP_MAX_BATCH = Integer.getInteger("smtp.durability.groupMaxBatch", 512);
+
+    private final MailStorageService storage;
+    private final ThreadPoolExecutor executor;
+    private final Durability durability;
+    private final GroupCommitter groupCommitter;
+    //null, wenn die Deduplizierung ausgeschaltet ist
+    private final DeduplicationCache deduplication;
+
+    public AsyncMailStorageService(MailStorageService storage, int writerThreads, int queueCapacity) {
+        this(storage, writerThreads, queueCapacity, Durability.NONE);
+    }
+
+    public AsyncMailStorageService(MailStorageService storage, int writerThreads, int queueCapacity, Durability durability) {
+        this.storage = storage;
+        this.executor = new ThreadPoolExecutor(writerThreads, writerThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new WriterThreadFactory(), new ThreadPoolExecutor.AbortPolicy());
+        this.durability = durability;
+        this.groupCommitter = durability == Durability.GROUP_COMMIT
+                ? new GroupCommitter(TimeUnit.MICROSECONDS.toNanos(GROUP_WINDOW_MICROS), GROUP_MAX_BATCH)
+                : null;
+        this.deduplication = DeduplicationCache.fromSystemProperties();
+    }
+
+    /*Stellt die Nachricht zur Speicherung ein. Das Future wird abgeschlossen, sobald die Nachricht für alle
+     * Empfänger geschrieben (und gemäß Durability synchronisiert) wurde, und schlägt mit der IOException fehl, falls das Schreiben scheitert.
+     * Auch ein Error im Writer-Thread schließt das Future ab, sonst bliebe die Sitzung für immer in WAITING_STORAGE.
+     * Wirft RejectedExecutionException, wenn die Warteschlange voll ist.
+     * Der Spool gehört bis zum Abschluss des Futures der Speicherung und darf erst danach geschlossen werden.
+     */
+    public CompletableFuture<Void> storeMessage(String client, String sender, List<String> recipients, MessageSpool messageBody) {
+        final List<String> recipientsCopy = List.copyOf(recipients);
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+
+        executor.execute(() -> {
+            try {
+                final long start = System.nanoTime();
+                if (deduplication != null && isDuplicate(sender, recipientsCopy, messageBody, start, result)) {
+                    return;
+                }
+                final SyncBatch sync = new SyncBatch();
+                storage.storeMessage(client, sender, recipientsCopy, messageBody, sync);
+                if (durability == Durability.GROUP_COMMIT) {
+                    groupCommitter.submit(sync, start, result);
+                    return;
+                }
+                if (durability == Durability.PER_MESSAGE) {
+                    final long syncStart = System.nanoTime();
+                    sync.sync();
+                    SMTPMetrics.get().storageSynced(1, System.nanoTime() - syncStart);
+                }
+                SMTPMetrics.get().messageStored(System.nanoTime() - start);
+                result.complete(null);
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    /*Bestätigt eine Wiederholung sofort und liefert true. Sonst wird die Nachricht erst nach erfolgreicher
+     * Speicherung (und ggf. fsync) vermerkt, damit ein gescheiterter Versuch die nächste Zustellung nicht verschluckt.
+     */
+    private boolean isDuplicate(String sender, List<String> recipients, MessageSpool messageBody, long now,
+                                CompletableFuture<Void> result) {
+        final long key = DeduplicationCache.key(sender, recipients, messageBody);
+        if (deduplication.contains(key, now)) {
+            SMTPMetrics.get().duplicateSuppressed();
+            result.complete(null);
+            return true;
+        }
+        SMTPMetrics.get().duplicateCheckMissed();
+        result.thenRun(() -> {
+            if (deduplication.remember(key, System.nanoTime())) {
+                SMTPMetrics.get().duplicateEntryEvicted();
+            }
+        });
+        return false;
+    }
+
+    //Erzeugt einen Spool für den Nachrichteninhalt einer neuen Transaktion
+    public MessageSpool createSpool() {
+        return storage.createSpool();
+    }
+
+    //Anzahl der Nachrichten, die auf einen Writer-Thread warten
+    public int getQueuedMessages() {
+        return executor.getQueue().size();
+    }
+
+    //Anzahl der geschriebenen Nachrichten, die auf den nächsten Group Commit warten
+    public int getMessagesAwaitingSync() {
+        return groupCommitter == null ? 0 : groupCommitter.getWaitingMessages();
+    }
+
+    //Größe der Deduplizierungs-Tabelle in Einträgen, 0 wenn ausgeschaltet
+    public int getDedupCapacity() {
+        return deduplication == null ? 0 : deduplication.capacity();
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    //Nimmt keine neuen Nachrichten mehr an, bereits eingestellte werden noch geschrieben
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private static final class WriterThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "smtp-storage-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
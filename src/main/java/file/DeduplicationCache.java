@@ -0,0 +1,183 @@
+package file;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+
+/*Merkt sich kürzlich gespeicherte Nachrichten, damit ein Relay, das nach einem Timeout die ganze Transaktion
+ * wiederholt, keine zweite Kopie für jeden Empfänger erzeugt (-Dsmtp.dedup.entries=<n>, standardmäßig aus).
+ * Schlüssel sind die ersten 64 Bit eines SHA-256 über Absender, die sortierte Empfängermenge und den
+ * Fingerabdruck des Inhalts (MessageSpool.fingerprint, beim Empfang fortlaufend berechnet).
+ * Die Tabelle ist ein einziges long[] fester Größe, je Eintrag Schlüssel und Zeitpunkt (16 Byte): bei 4 Mio.
+ * Einträgen also 64 MiB, unabhängig von der Last und ohne ein Objekt pro Eintrag. Jeweils 4 Einträge bilden
+ * einen Bucket (64 Byte), jeder Schlüssel hat zwei mögliche Buckets; ein neuer Schlüssel belegt einen freien
+ * oder abgelaufenen Eintrag im weniger belegten, sonst verdrängt er den ältesten Eintrag beider Buckets.
+ * Ein Lookup kostet höchstens zwei Cache-Misses. Ist die Tabelle etwa doppelt so groß wie die Zahl der
+ * Nachrichten innerhalb der TTL (-Dsmtp.dedup.ttlSeconds, Standard 3600), bleiben nahezu alle Einträge erhalten.
+ * Bei 64-Bit-Schlüsseln ist eine zufällige Kollision selbst bei Millionen Einträgen praktisch ausgeschlossen.
+ */
+final class DeduplicationCache {
+
+    private static final int ENTRIES = Integer.getInteger("smtp.dedup.entries", 0);
+    private static final long TTL_SECONDS = Long.getLong("smtp.dedup.ttlSeconds", 3600L);
+
+    private static final int WAYS = 4;
+    //2^26 Einträge = 1 GiB Tabelle
+    private static final int MAX_CAPACITY = 1 << 26;
+    private static final int LOCK_STRIPES = 64;
+    //0 markiert einen freien Eintrag
+    private static final long EMPTY = 0;
+    private static final ThreadLocal<MessageDigest> KEY_DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    });
+
+    //je Eintrag [Schlüssel, Zeitpunkt der Speicherung in Nanosekunden]
+    private final long[] entries;
+    private final int bucketMask;
+    private final long ttlNanos;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    DeduplicationCache(int capacity, long ttlNanos) {
+        if (capacity < 1 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("Dedup cache capacity must be between 1 and " + MAX_CAPACITY + ": " + capacity);
+        }
+        final int buckets = Integer.highestOneBit((capacity + WAYS - 1) / WAYS * 2 - 1);
+        this.entries = new long[buckets * WAYS * 2];
+        this.bucketMask = buckets - 1;
+        this.ttlNanos = ttlNanos;
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    //null, wenn -Dsmtp.dedup.entries nicht gesetzt ist
+    static DeduplicationCache fromSystemProperties() {
+        if (ENTRIES <= 0) {
+            return null;
+        }
+        return new DeduplicationCache(ENTRIES, TTL_SECONDS * 1_000_000_000L);
+    }
+
+    //Schlüssel einer Transaktion; berechnet den Fingerabdruck des Inhalts, danach darf der Spool nicht mehr wachsen
+    static long key(String sender, List<String> recipients, MessageSpool messageBody) {
+        final MessageDigest digest = KEY_DIGEST.get();
+        digest.update(sender.getBytes(StandardCharsets.UTF_8));
+        //Reihenfolge der RCPT-Befehle spielt keine Rolle
+        final String[] sorted = recipients.toArray(new String[0]);
+        Arrays.sort(sorted);
+        for (final String recipient : sorted) {
+            digest.update((byte) 0);
+            digest.update(recipient.getBytes(StandardCharsets.UTF_8));
+        }
+        digest.update((byte) 0);
+        digest.update(messageBody.fingerprint());
+        final byte[] hash = digest.digest();
+        long key = 0;
+        for (int i = 0; i < Long.BYTES; i++) {
+            key = key << 8 | (hash[i] & 0xFF);
+        }
+        return key == EMPTY ? 1 : key;
+    }
+
+    //true, wenn key innerhalb der TTL bereits gespeichert wurde
+    boolean contains(long key, long nowNanos) {
+        final int first = firstBucket(key);
+        final int second = secondBucket(key, first);
+        synchronized (locks[first & (LOCK_STRIPES - 1)]) {
+            final int slot = find(key, first, second);
+            return slot >= 0 && nowNanos - entries[slot + 1] < ttlNanos;
+        }
+    }
+
+    //Merkt sich key als gespeichert; liefert true, wenn dafür ein noch gültiger Eintrag verdrängt wurde
+    boolean remember(long key, long nowNanos) {
+        final int first = firstBucket(key);
+        final int second = secondBucket(key, first);
+        synchronized (locks[first & (LOCK_STRIPES - 1)]) {
+            int victim = find(key, first, second);
+            if (victim < 0) {
+                victim = victim(first, second, nowNanos);
+            }
+            final boolean evicted = entries[victim] != key && !isFree(victim, nowNanos);
+            entries[victim] = key;
+            entries[victim + 1] = nowNanos;
+            return evicted;
+        }
+    }
+
+    //Anzahl der Einträge der Tabelle (auf eine Zweierpotenz aufgerundet)
+    int capacity() {
+        return entries.length / 2;
+    }
+
+    //Position von key in einem der beiden Buckets oder -1
+    private int find(long key, int first, int second) {
+        final int slot = findInBucket(key, first);
+        return slot >= 0 ? slot : findInBucket(key, second);
+    }
+
+    private int findInBucket(long key, int bucket) {
+        for (int i = bucket * WAYS * 2; i < (bucket + 1) * WAYS * 2; i += 2) {
+            if (entries[i] == key) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /*Ziel für einen neuen Schlüssel: ein freier oder abgelaufener Eintrag im weniger belegten der beiden Buckets
+     * (hält die Buckets gleichmäßig voll), sonst der älteste Eintrag beider Buckets.
+     */
+    private int victim(int first, int second, long nowNanos) {
+        final int freeInFirst = countFree(first, nowNanos);
+        final int freeInSecond = countFree(second, nowNanos);
+        if (freeInFirst > 0 || freeInSecond > 0) {
+            final int bucket = freeInFirst >= freeInSecond ? first : second;
+            for (int i = bucket * WAYS * 2; ; i += 2) {
+                if (isFree(i, nowNanos)) {
+                    return i;
+                }
+            }
+        }
+        return oldest(second, oldest(first, first * WAYS * 2));
+    }
+
+    private int countFree(int bucket, long nowNanos) {
+        int free = 0;
+        for (int i = bucket * WAYS * 2; i < (bucket + 1) * WAYS * 2; i += 2) {
+            if (isFree(i, nowNanos)) {
+                free++;
+            }
+        }
+        return free;
+    }
+
+    private boolean isFree(int slot, long nowNanos) {
+        return entries[slot] == EMPTY || nowNanos - entries[slot + 1] >= ttlNanos;
+    }
+
+    private int oldest(int bucket, int candidate) {
+        for (int i = bucket * WAYS * 2; i < (bucket + 1) * WAYS * 2; i += 2) {
+            if (entries[i + 1] - entries[candidate + 1] < 0) {
+                candidate = i;
+            }
+        }
+        return candidate;
+    }
+
+    //die Bits eines SHA-256 sind gleichverteilt, ein weiteres Mischen ist unnötig
+    private int firstBucket(long key) {
+        return (int) key & bucketMask;
+    }
+
+    //zweiter möglicher Bucket aus den oberen Bits, im selben Lock-Streifen wie der erste
+    private int secondBucket(long key, int first) {
+        return ((int) (key >>> 32) & bucketMask & ~(LOCK_STRIPES - 1)) | (first & (LOCK_STRIPES - 1));
+    }
+}
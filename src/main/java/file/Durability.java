@@ -0,0 +1,29 @@
+package file;
+
+import java.util.Locale;
+
+/*Wann eine gespeicherte Nachricht per fsync auf die Platte gezwungen wird, bevor der Client "250" erhält
+ * (-Dsmtp.durability):
+ * none          kein fsync; nach einem Absturz können bereits bestätigte Nachrichten fehlen (Standard)
+ * per-message   jeder Writer-Thread synchronisiert die Dateien seiner Nachricht selbst
+ * group-commit  ein eigener Thread sammelt die Nachrichten eines kurzen Zeitfensters und synchronisiert jede
+ *               betroffene Datei und jedes Verzeichnis nur einmal für die ganze Gruppe
+ */
+public enum Durability {
+    NONE,
+    PER_MESSAGE,
+    GROUP_COMMIT;
+
+    public static Durability fromSystemProperties() {
+        return parse(System.getProperty("smtp.durability", "none"));
+    }
+
+    public static Durability parse(String value) {
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown smtp.durability: " + value
+                    + " (expected none, per-message or group-commit)", e);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package file;
+
+import lombok.extern.java.Log;
+import smtp.metrics.SMTPMetrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/*Group Commit für Durability.GROUP_COMMIT.
+ * Writer-Threads reichen die SyncBatch einer geschriebenen Nachricht ein und sind sofort wieder frei.
+ * Der Commit-Thread nimmt die erste wartende Nachricht, sammelt bis zu windowNanos lang bzw. bis maxBatch
+ * Nachrichten weitere ein, synchronisiert die vereinigte Menge der Dateien und Verzeichnisse und schließt erst
+ * danach die Futures der ganzen Gruppe ab; die Sitzungen senden ihr "250" also erst nach dem fsync.
+ * Schlägt der fsync fehl, scheitern alle Nachrichten der Gruppe (Antwort 451).
+ */
+@Log
+final class GroupCommitter {
+
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final long windowNanos;
+    private final int maxBatch;
+
+    private record Pending(SyncBatch sync, long startNanos, CompletableFuture<Void> result) {
+    }
+
+    GroupCommitter(long windowNanos, int maxBatch) {
+        this.windowNanos = Math.max(0, windowNanos);
+        this.maxBatch = Math.max(1, maxBatch);
+        Thread thread = new Thread(this::run, "smtp-group-commit");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    //startNanos: Beginn der Speicherung, für die Store-Latenz inklusive Wartezeit auf den fsync
+    void submit(SyncBatch sync, long startNanos, CompletableFuture<Void> result) {
+        queue.add(new Pending(sync, startNanos, result));
+    }
+
+    int getWaitingMessages() {
+        return queue.size();
+    }
+
+    private void run() {
+        final List<Pending> batch = new ArrayList<>(maxBatch);
+        final SyncBatch merged = new SyncBatch();
+        while (true) {
+            try {
+                collect(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            commit(batch, merged);
+            batch.clear();
+            merged.clear();
+        }
+    }
+
+    //wartet auf die erste Nachricht und danach höchstens windowNanos auf weitere
+    private void collect(List<Pending> batch) throws InterruptedException {
+        batch.add(queue.take());
+        final long deadline = System.nanoTime() + windowNanos;
+        while (batch.size() < maxBatch) {
+            final long remaining = deadline - System.nanoTime();
+            final Pending next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    private void commit(List<Pending> batch, SyncBatch merged) {
+        for (Pending pending : batch) {
+            merged.addAll(pending.sync());
+        }
+        final long start = System.nanoTime();
+        Throwable failure = null;
+        try {
+            merged.sync();
+        //auch bei einem Error müssen alle wartenden Sitzungen eine Antwort bekommen und der Committer weiterlaufen
+        } catch (Throwable e) {
+            log.severe("Group commit of " + batch.size() + " messages failed: " + e.getMessage());
+            failure = e;
+        }
+        final long now = System.nanoTime();
+        final SMTPMetrics metrics = SMTPMetrics.get();
+        metrics.storageSynced(batch.size(), now - start);
+        for (Pending pending : batch) {
+            if (failure == null) {
+                metrics.messageStored(now - pending.startNanos());
+                pending.result().complete(null);
+            } else {
+                pending.result().completeExceptionally(failure);
+            }
+        }
+    }
+}
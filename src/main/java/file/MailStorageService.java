@@ -1,68 +1,299 @@
 package file;
 
+import lombok.extern.java.Log;
+import smtp.util.CachedClock;
+
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
 import java.util.List;
-import java.util.Random;
-import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
 
 
 
+@Log
 public class MailStorageService {
 
     private static final String SENDER_FILE_NAME_REGEX = "[^a-zA-Z0-9@._-]";
     protected static final String BASE_DIR = "data";
-    private final Random random = new Random();
+    //temporäre Spool-Dateien großer Nachrichten (im selben Dateisystem wie die Postfächer)
+    protected static final Path SPOOL_DIR = Paths.get(BASE_DIR, ".incoming");
+    //inhaltsadressierte Ablage: jede Nachricht liegt genau einmal unter ihrem SHA-256
+    protected static final Path BLOB_DIR = Paths.get(BASE_DIR, ".blobs");
+    private static final byte[] RECEIVED_PREFIX = "Received: FROM ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] RECEIVED_BY = " BY SMTPServer ; ".getBytes(StandardCharsets.US_ASCII);
+    //ein SHA-256 je Writer-Thread für die Blob-Namen, statt bei jeder Nachricht eine neue Instanz anzulegen
+    private static final ThreadLocal<MessageDigest> BLOB_DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    });
+    //Knoten-ID für die Nachrichten-IDs, muss pro Server-Instanz eindeutig sein
+    private static final long NODE_ID = Long.getLong("smtp.node.id", 0L);
+    private final MessageIdGenerator messageIds = new MessageIdGenerator(NODE_ID);
+    //Anzahl der tatsächlich auf die Festplatte geschriebenen Nachrichten-Bytes
+    private final LongAdder bytesWritten = new LongAdder();
+    //Mappings der Lese-API: höchstens smtp.read.maxMappedBytes Bytes (Standard 256 MiB) in smtp.read.maxMappings Dateien
+    private final MappingCache mappings = new MappingCache(Long.getLong("smtp.read.maxMappedBytes", 256L * 1024 * 1024),
+            Integer.getInteger("smtp.read.maxMappings", 1024));
 
     //ersetzt unerlaubte Zeichen mit Unterstrichen
     protected static String sanitizeSenderForFileName(String sender) {
         return sender.replaceAll(SENDER_FILE_NAME_REGEX, "_");
     }
 
-    protected static String buildFileName(String sender, int messageId) {
+    protected static String buildFileName(String sender, long messageId) {
         return sanitizeSenderForFileName(sender) + "_" + messageId;
     }
 
+    //Erzeugt einen Spool, der den Nachrichteninhalt während DATA aufnimmt
+    public MessageSpool createSpool() {
+        return new MessageSpool(SPOOL_DIR);
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    /*Wählt die Ablage über -Dsmtp.storage:
+     * files     (Standard) eine Datei pro Nachricht und Empfänger, als Hardlink auf einen gemeinsamen Blob
+     * segmented Append-only Segmente mit Offset-Index pro Postfach (SegmentedMailStorageService)
+     * Mit -Dsmtp.queue=journal (Standard direct) wird davor das Spool-Journal geschaltet (QueuedMailStorageService):
+     * angenommene Nachrichten landen zuerst im Journal und werden im Hintergrund in die Postfächer zugestellt.
+     */
+    public static MailStorageService fromSystemProperties() {
+        final String layout = System.getProperty("smtp.storage", "files");
+        final MailStorageService mailboxes = switch (layout) {
+            case "files" -> new MailStorageService();
+            case "segmented" -> SegmentedMailStorageService.open();
+            default -> throw new IllegalArgumentException("Unknown smtp.storage: " + layout);
+        };
+        final String queue = System.getProperty("smtp.queue", "direct");
+        return switch (queue) {
+            case "direct" -> mailboxes;
+            case "journal" -> QueuedMailStorageService.open(mailboxes, Durability.fromSystemProperties());
+            default -> throw new IllegalArgumentException("Unknown smtp.queue: " + queue);
+        };
+    }
+
+    protected long nextMessageId() {
+        return messageIds.nextId();
+    }
+
+    protected void addBytesWritten(long bytes) {
+        bytesWritten.add(bytes);
+    }
+
 /*Speichert eine E-Mail-Nachricht für alle angegebenen Empfänger im Dateisystem
- * Für jeden Empfänger wird ein Verzeichnis unterhalb des Data-Verzeichnis erstellt (falls nicht vorhanden).
- * Die Nachricht wird mit einem Zeitstempel versehen und als Datei gespeichert.
+ * Die Nachricht wird mit einem Zeitstempel versehen und genau einmal als Blob unter data/.blobs abgelegt.
+ * Für jeden Empfänger wird ein Verzeichnis unterhalb des Data-Verzeichnis erstellt (falls nicht vorhanden)
+ * und darin ein Hardlink auf den Blob angelegt; der Dateiname enthält eine eindeutige Nachrichten-ID
+ * und eine bestehende Datei wird nie überschrieben. Nur wenn das Dateisystem keine Hardlinks erlaubt,
+ * wird der Blob per FileChannel.transferTo kopiert.
 */
-    @SuppressWarnings("ResultOfMethodCallIgnored")
-    public void storeMessage(String client, String sender, List<String> recipients, String messageBody) throws IOException {
+    public void storeMessage(String client, String sender, List<String> recipients, MessageSpool messageBody) throws IOException {
+        storeMessage(client, sender, recipients, messageBody, new SyncBatch());
+    }
+
+    //wie oben; alle geänderten Dateien und Verzeichnisse werden in sync eingetragen, damit der Aufrufer sie per fsync sichern kann
+    protected void storeMessage(String client, String sender, List<String> recipients, MessageSpool messageBody, SyncBatch sync)
+            throws IOException {
+        storeMessage(receivedHeader(client), sender, recipients, messageBody, sync);
+    }
 
-        messageBody = createTimestampLine(client) + messageBody;
+    /*Eigentliche Ablage mit bereits erzeugter Received-Kopfzeile (z.\ B. aus dem Spool-Journal, damit sie den
+     * Zeitpunkt der Annahme trägt). Unterklassen für andere Layouts überschreiben diese Methode.
+     */
+    protected void storeMessage(ByteBuffer timestampLine, String sender, List<String> recipients, MessageSpool messageBody,
+            SyncBatch sync) throws IOException {
+
+        final Path blobPath = writeBlob(timestampLine, messageBody, sync);
 
         for (final String recipient : recipients) {
-            final int messageId = random.nextInt(10_000);
+            final long messageId = nextMessageId();
             final String filename = buildFileName(sender, messageId);
             final Path dirPath = Paths.get(BASE_DIR, recipient);
-            Files.createDirectories(dirPath);
+            createDirectories(dirPath, sync);
             final Path filePath = dirPath.resolve(filename);
-            try (final FileChannel fileChannel = FileChannel.open(filePath, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
-                final byte[] ascii = messageBody.getBytes(StandardCharsets.US_ASCII);
-                final ByteBuffer buffer = ByteBuffer.wrap(ascii);
-                while (buffer.hasRemaining()) {
-                    fileChannel.write(buffer);
+            if (!linkOrCopy(blobPath, filePath)) {
+                sync.addFile(filePath);
+            }
+            sync.addDirectory(dirPath);
+        }
+    }
+
+    //Legt ein Verzeichnis an; ist es neu, muss auch der Eintrag im übergeordneten Verzeichnis gesichert werden
+    protected static void createDirectories(Path dirPath, SyncBatch sync) throws IOException {
+        if (!Files.isDirectory(dirPath)) {
+            Files.createDirectories(dirPath);
+            sync.addDirectory(dirPath.toAbsolutePath().getParent());
+        }
+    }
+
+    //Schreibt Zeitstempel und Inhalt einmalig in den Blob-Store, sofern der Blob nicht schon existiert
+    private Path writeBlob(ByteBuffer timestampLine, MessageSpool messageBody, SyncBatch sync) throws IOException {
+        final String blobName = blobName(timestampLine, messageBody);
+        final Path blobPath = BLOB_DIR.resolve(blobName);
+        //auch ein vorhandener Blob wird gesichert, er kann noch aus einer nicht synchronisierten Gruppe stammen
+        sync.addFile(blobPath);
+        if (Files.exists(blobPath)) {
+            return blobPath;
+        }
+
+        createDirectories(BLOB_DIR, sync);
+        sync.addDirectory(BLOB_DIR);
+        //temporärer Name pro Writer-Thread, damit gleichzeitige identische Nachrichten sich nicht überschreiben
+        final Path tempPath = BLOB_DIR.resolve(blobName + "." + Thread.currentThread().threadId() + ".tmp");
+        try {
+            try (final FileChannel fileChannel = FileChannel.open(tempPath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                messageBody.transferTo(fileChannel, timestampLine.duplicate());
+                bytesWritten.add(fileChannel.size());
+            }
+            Files.move(tempPath, blobPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+        return blobPath;
+    }
+
+    //Blob-Name: SHA-256 über Zeitstempelzeile und Fingerabdruck des Inhalts
+    private static String blobName(ByteBuffer timestampLine, MessageSpool messageBody) {
+        final MessageDigest digest = BLOB_DIGEST.get();
+        digest.update(timestampLine.duplicate());
+        digest.update(messageBody.fingerprint());
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /*Legt einen Hardlink auf den Blob an; schlägt das fehl, wird der Blob ohne Umweg über den Heap kopiert.
+     * Liefert true für einen Hardlink, false für eine Kopie.
+     */
+    private boolean linkOrCopy(Path blobPath, Path filePath) throws IOException {
+        try {
+            Files.createLink(filePath, blobPath);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            throw e;
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            log.fine("Hard link not possible, copying blob: " + e.getMessage());
+        }
+
+        try (final FileChannel source = FileChannel.open(blobPath, StandardOpenOption.READ);
+             final FileChannel target = FileChannel.open(filePath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            final long size = source.size();
+            long position = 0;
+            while (position < size) {
+                position += source.transferTo(position, size - position, target);
+            }
+            bytesWritten.add(size);
+        }
+        return false;
+    }
+
+    //Listet die Nachrichten eines Empfängers aufsteigend nach Nachrichten-ID (also in Empfangsreihenfolge)
+    public List<StoredMessage> listMessages(String recipient) throws IOException {
+        final Path dirPath = Paths.get(BASE_DIR, recipient);
+        final List<StoredMessage> messages = new ArrayList<>();
+        if (!Files.isDirectory(dirPath)) {
+            return messages;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dirPath)) {
+            for (final Path file : files) {
+                //Dateiname <absender>_<messageId>, der Absender kann selbst Unterstriche enthalten
+                final String name = file.getFileName().toString();
+                final int separator = name.lastIndexOf('_');
+                if (separator < 0 || !Files.isRegularFile(file)) {
+                    continue;
+                }
+                try {
+                    final long messageId = Long.parseLong(name.substring(separator + 1));
+                    messages.add(new StoredMessage(recipient, messageId, Files.size(file), file, 0));
+                } catch (NumberFormatException e) {
+                    //keine Nachrichtendatei
+                }
+            }
+        }
+        messages.sort(Comparator.comparingLong(StoredMessage::getMessageId));
+        return messages;
+    }
+
+    /*Liefert Zeitstempelzeile und Inhalt der Nachricht als schreibgeschützten Ausschnitt eines Mappings, ohne die
+     * Bytes auf den Heap zu kopieren. Der Puffer bleibt gültig, solange er referenziert wird.
+     */
+    public MappedByteBuffer readMessage(StoredMessage message) throws IOException {
+        if (message.getSize() > Integer.MAX_VALUE) {
+            throw new IOException("Message too large to map: " + message);
+        }
+        final MappedByteBuffer mapping = map(message.file, message.offset + message.getSize());
+        return mapping.slice((int) message.offset, (int) message.getSize());
+    }
+
+    //Summe der aktuell vom Cache gehaltenen Mappings der Lese-API
+    public long getMappedBytes() {
+        return mappings.getMappedBytes();
+    }
+
+    protected MappedByteBuffer map(Path file, long requiredBytes) throws IOException {
+        return mappings.map(file, requiredBytes);
+    }
+
+    /*Löscht Blobs, auf die kein Postfach mehr verweist (Linkanzahl 1), sowie liegengebliebene temporäre Dateien.
+     * Ohne Unix-Dateiattribute werden nur die temporären Dateien entfernt.
+     */
+    public void purgeUnreferencedBlobs() throws IOException {
+        if (!Files.isDirectory(BLOB_DIR)) {
+            return;
+        }
+        final boolean unix = BLOB_DIR.getFileSystem().supportedFileAttributeViews().contains("unix");
+        try (DirectoryStream<Path> blobs = Files.newDirectoryStream(BLOB_DIR)) {
+            for (final Path blob : blobs) {
+                if (blob.getFileName().toString().endsWith(".tmp")
+                        || (unix && (Integer) Files.getAttribute(blob, "unix:nlink") <= 1)) {
+                    Files.deleteIfExists(blob);
                 }
             }
         }
     }
 
+    /*Received-Kopfzeile "Received: FROM <client> BY SMTPServer ; <datum>\n" als eigener Puffer, der per Gathering-Write
+     * vor den Inhalt geschrieben wird. Das Datum kommt aus dem CachedClock, die Zeile wird direkt als ASCII-Bytes in
+     * ein Array passender Größe geschrieben (Zeichen außerhalb von ASCII werden zu '?').
+     */
+    protected static ByteBuffer receivedHeader(String clientName) {
+        final byte[] date = CachedClock.get().receivedDate();
+        final byte[] line = new byte[RECEIVED_PREFIX.length + clientName.length() + RECEIVED_BY.length + date.length + 1];
+        int position = 0;
+        System.arraycopy(RECEIVED_PREFIX, 0, line, position, RECEIVED_PREFIX.length);
+        position += RECEIVED_PREFIX.length;
+        for (int i = 0; i < clientName.length(); i++) {
+            final char c = clientName.charAt(i);
+            line[position++] = c < 0x80 ? (byte) c : (byte) '?';
+        }
+        System.arraycopy(RECEIVED_BY, 0, line, position, RECEIVED_BY.length);
+        position += RECEIVED_BY.length;
+        System.arraycopy(date, 0, line, position, date.length);
+        line[line.length - 1] = '\n';
+        return ByteBuffer.wrap(line);
+    }
 
     public static String createTimestampLine(String clientName) {
-        ZonedDateTime now = ZonedDateTime.now();
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd MMM yy HH:mm:ss z", Locale.ENGLISH);
-        String dateTime = now.format(formatter);
-
-        return "Received: FROM " + clientName + " BY SMTPServer ; " + dateTime +"\n";
+        return new String(receivedHeader(clientName).array(), StandardCharsets.US_ASCII);
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,443 @@
+package file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*Append-only Log eines Postfachs aus nummerierten Segmenten (<nummer>.seg) mit je einem Offset-Index (<nummer>.idx).
+ *
+ * Segment: Kopf (Magic, Version, Generation) und danach Datensätze aus 24 Byte Kopf
+ *          (Magic, Flags, Nachrichten-ID, Länge) und den Nachrichtenbytes.
+ * Index:   Kopf (Magic, Version, Generation) und je Nachricht 24 Byte (ID, Offset des Datensatzes, Länge, Flags).
+ *
+ * Das Segment ist die Quelle der Wahrheit; der Index wird neu aus dem Segment aufgebaut, wenn er fehlt,
+ * unvollständig ist oder eine andere Generation trägt (z.\ B. nach einem Absturz während der Kompaktierung).
+ * Geschrieben wird nur in das letzte (aktive) Segment; erreicht es die konfigurierte Größe, wird ein neues begonnen.
+ * Gelöschte Nachrichten werden nur markiert und erst durch compact aus abgeschlossenen Segmenten entfernt.
+ * Alle Methoden setzen voraus, dass der Aufrufer lock hält.
+ */
+final class MailboxLog {
+
+    static final String SEGMENT_SUFFIX = ".seg";
+    static final String INDEX_SUFFIX = ".idx";
+    static final int FILE_HEADER_SIZE = 16;
+    static final int RECORD_HEADER_SIZE = 24;
+    static final int INDEX_ENTRY_SIZE = 24;
+    static final int FLAG_DELETED = 1;
+
+    private static final int SEGMENT_MAGIC = 0x534D5347;   //"SMSG"
+    private static final int INDEX_MAGIC = 0x53494458;     //"SIDX"
+    private static final int RECORD_MAGIC = 0x52454321;    //"REC!"
+    private static final int VERSION = 1;
+
+    final ReentrantLock lock = new ReentrantLock();
+    private final Path dir;
+    private final long maxSegmentSize;
+
+    //aktives Segment, null solange das Postfach geschlossen ist
+    private FileChannel segment;
+    private FileChannel index;
+    private long activeSequence;
+    private long segmentSize;
+    private long indexSize;
+    //neue Segmentdateien, deren Verzeichniseintrag beim nächsten fsync mitgesichert werden muss
+    private boolean directoryChanged;
+    private final ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+    private final ByteBuffer indexEntry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+
+    MailboxLog(Path dir, long maxSegmentSize) {
+        this.dir = dir;
+        this.maxSegmentSize = maxSegmentSize;
+    }
+
+    //Eintrag des Offset-Index; offset zeigt auf den Datensatzkopf im Segment
+    record IndexEntry(long sequence, long messageId, long offset, int length, int flags) {
+        boolean isDeleted() {
+            return (flags & FLAG_DELETED) != 0;
+        }
+
+        //Position der Nachrichtenbytes im Segment
+        long bodyOffset() {
+            return offset + RECORD_HEADER_SIZE;
+        }
+    }
+
+    Path getDir() {
+        return dir;
+    }
+
+    boolean isOpen() {
+        return segment != null;
+    }
+
+    /*Hängt eine Nachricht (Kopfzeile + Inhalt des Spools) an das aktive Segment an und trägt sie in den Index ein.
+     * Segment, Index und ggf. das Postfachverzeichnis werden in sync eingetragen. Liefert die Anzahl der geschriebenen Bytes.
+     */
+    long append(long messageId, ByteBuffer header, MessageSpool body, SyncBatch sync) throws IOException {
+        openActiveSegment(sync);
+        final long length = header.remaining() + body.size();
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Message too large for segment store: " + length + " bytes");
+        }
+        if (segmentSize > FILE_HEADER_SIZE && segmentSize + RECORD_HEADER_SIZE + length > maxSegmentSize) {
+            roll();
+        }
+
+        final long recordOffset = segmentSize;
+        recordHeader.clear();
+        recordHeader.putInt(RECORD_MAGIC).putInt(0).putLong(messageId).putInt((int) length).putInt(0).flip();
+        segment.position(recordOffset);
+        body.transferTo(segment, recordHeader, header);
+        segmentSize = recordOffset + RECORD_HEADER_SIZE + length;
+
+        writeIndexEntry(index, indexSize, messageId, recordOffset, (int) length, 0);
+        indexSize += INDEX_ENTRY_SIZE;
+
+        sync.addFile(segmentPath(activeSequence));
+        sync.addFile(indexPath(activeSequence));
+        if (directoryChanged) {
+            sync.addDirectory(dir);
+            directoryChanged = false;
+        }
+        return RECORD_HEADER_SIZE + length + INDEX_ENTRY_SIZE;
+    }
+
+    //Alle Indexeinträge des Postfachs in Schreibreihenfolge (auch gelöschte)
+    List<IndexEntry> entries() throws IOException {
+        final List<IndexEntry> entries = new ArrayList<>();
+        for (long sequence : sequences()) {
+            readIndex(sequence, entries);
+        }
+        return entries;
+    }
+
+    //Prüft, ob an offset im Segment-Mapping der Datensatz der Nachricht messageId beginnt
+    static boolean isRecordOf(ByteBuffer segment, long offset, long messageId) {
+        return offset >= FILE_HEADER_SIZE && offset + RECORD_HEADER_SIZE <= segment.capacity()
+                && segment.getInt((int) offset) == RECORD_MAGIC && segment.getLong((int) offset + 8) == messageId;
+    }
+
+    //Markiert eine Nachricht in Index und Segment als gelöscht; false, wenn sie nicht (mehr) existiert
+    boolean delete(long messageId) throws IOException {
+        final List<IndexEntry> entries = entries();
+        for (int i = 0; i < entries.size(); i++) {
+            final IndexEntry entry = entries.get(i);
+            if (entry.messageId() != messageId || entry.isDeleted()) {
+                continue;
+            }
+            final int position = positionInIndex(entries, i);
+            final ByteBuffer flags = ByteBuffer.allocate(4).putInt(0, entry.flags() | FLAG_DELETED);
+            try (FileChannel segmentChannel = FileChannel.open(segmentPath(entry.sequence()), StandardOpenOption.WRITE);
+                 FileChannel indexChannel = FileChannel.open(indexPath(entry.sequence()), StandardOpenOption.WRITE)) {
+                segmentChannel.write(flags.duplicate(), entry.offset() + 4);
+                indexChannel.write(flags.duplicate(), FILE_HEADER_SIZE + (long) position * INDEX_ENTRY_SIZE + 20);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /*Schreibt abgeschlossene Segmente neu, deren Anteil gelöschter Bytes mindestens threshold beträgt.
+     * Das neue Segment bekommt eine höhere Generation und ersetzt das alte per atomarem Umbenennen,
+     * danach wird der Index neu geschrieben. Liefert die Anzahl der freigegebenen Bytes.
+     */
+    long compact(double threshold) throws IOException {
+        final List<Long> sequences = sequences();
+        long reclaimed = 0;
+        for (long sequence : sequences) {
+            //das aktive (letzte) Segment wird nie kompaktiert
+            if (sequence == sequences.get(sequences.size() - 1)) {
+                break;
+            }
+            final List<IndexEntry> entries = new ArrayList<>();
+            readIndex(sequence, entries);
+            long deletedBytes = 0;
+            long totalBytes = 0;
+            for (IndexEntry entry : entries) {
+                totalBytes += RECORD_HEADER_SIZE + entry.length();
+                if (entry.isDeleted()) {
+                    deletedBytes += RECORD_HEADER_SIZE + entry.length();
+                }
+            }
+            if (deletedBytes == 0 || deletedBytes < totalBytes * threshold) {
+                continue;
+            }
+            reclaimed += deletedBytes;
+            if (deletedBytes == totalBytes) {
+                Files.deleteIfExists(indexPath(sequence));
+                Files.deleteIfExists(segmentPath(sequence));
+            } else {
+                rewriteSegment(sequence, entries);
+            }
+        }
+        if (reclaimed > 0) {
+            //Umbenennungen und Löschungen dauerhaft machen
+            final SyncBatch sync = new SyncBatch();
+            sync.addDirectory(dir);
+            sync.sync();
+        }
+        return reclaimed;
+    }
+
+    void close() throws IOException {
+        if (segment != null) {
+            try {
+                segment.close();
+                index.close();
+            } finally {
+                segment = null;
+                index = null;
+            }
+        }
+    }
+
+    //Öffnet das letzte Segment zum Anhängen und verwirft einen unvollständigen Rest nach einem Absturz
+    private void openActiveSegment(SyncBatch sync) throws IOException {
+        if (segment != null) {
+            return;
+        }
+        MailStorageService.createDirectories(dir, sync);
+        final List<Long> sequences = sequences();
+        activeSequence = sequences.isEmpty() ? 1 : sequences.get(sequences.size() - 1);
+        if (sequences.isEmpty()) {
+            createSegment(activeSequence);
+        }
+
+        final List<IndexEntry> entries = new ArrayList<>();
+        readIndex(activeSequence, entries);
+        segment = FileChannel.open(segmentPath(activeSequence), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        index = FileChannel.open(indexPath(activeSequence), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        final IndexEntry last = entries.isEmpty() ? null : entries.get(entries.size() - 1);
+        segmentSize = last == null ? FILE_HEADER_SIZE : last.bodyOffset() + last.length();
+        indexSize = FILE_HEADER_SIZE + (long) entries.size() * INDEX_ENTRY_SIZE;
+        //Bytes hinter dem letzten indizierten Datensatz wurden nie bestätigt
+        segment.truncate(segmentSize);
+        index.truncate(indexSize);
+    }
+
+    //Schließt das aktive Segment ab und beginnt ein neues
+    private void roll() throws IOException {
+        close();
+        activeSequence++;
+        createSegment(activeSequence);
+        segment = FileChannel.open(segmentPath(activeSequence), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        index = FileChannel.open(indexPath(activeSequence), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segmentSize = FILE_HEADER_SIZE;
+        indexSize = FILE_HEADER_SIZE;
+    }
+
+    private void createSegment(long sequence) throws IOException {
+        directoryChanged = true;
+        try (FileChannel channel = FileChannel.open(segmentPath(sequence), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            writeFileHeader(channel, SEGMENT_MAGIC, 0);
+        }
+        try (FileChannel channel = FileChannel.open(indexPath(sequence), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            writeFileHeader(channel, INDEX_MAGIC, 0);
+        }
+    }
+
+    private void rewriteSegment(long sequence, List<IndexEntry> entries) throws IOException {
+        final Path segmentPath = segmentPath(sequence);
+        final Path segmentTemp = dir.resolve(segmentPath.getFileName() + ".tmp");
+        final Path indexTemp = dir.resolve(indexPath(sequence).getFileName() + ".tmp");
+        final long generation = readGeneration(segmentPath, SEGMENT_MAGIC) + 1;
+        try {
+            final List<IndexEntry> live = new ArrayList<>();
+            try (FileChannel source = FileChannel.open(segmentPath, StandardOpenOption.READ);
+                 FileChannel target = FileChannel.open(segmentTemp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                         StandardOpenOption.WRITE)) {
+                writeFileHeader(target, SEGMENT_MAGIC, generation);
+                //transferTo schreibt ab der Position des Channels, der Kopf wurde positionsgenau geschrieben
+                target.position(FILE_HEADER_SIZE);
+                long position = FILE_HEADER_SIZE;
+                for (IndexEntry entry : entries) {
+                    if (entry.isDeleted()) {
+                        continue;
+                    }
+                    final long recordSize = RECORD_HEADER_SIZE + entry.length();
+                    long copied = 0;
+                    while (copied < recordSize) {
+                        copied += source.transferTo(entry.offset() + copied, recordSize - copied, target);
+                    }
+                    live.add(new IndexEntry(sequence, entry.messageId(), position, entry.length(), entry.flags()));
+                    position += recordSize;
+                }
+                target.force(true);
+            }
+            try (FileChannel target = FileChannel.open(indexTemp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE)) {
+                writeFileHeader(target, INDEX_MAGIC, generation);
+                long position = FILE_HEADER_SIZE;
+                for (IndexEntry entry : live) {
+                    writeIndexEntry(target, position, entry.messageId(), entry.offset(), entry.length(), entry.flags());
+                    position += INDEX_ENTRY_SIZE;
+                }
+                target.force(true);
+            }
+            //erst das Segment, dann der Index: ein Absturz dazwischen hinterlässt einen veralteten Index,
+            //der beim nächsten Lesen an der Generation erkannt und neu aufgebaut wird
+            Files.move(segmentTemp, segmentPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(indexTemp, indexPath(sequence), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(segmentTemp);
+            Files.deleteIfExists(indexTemp);
+        }
+    }
+
+    //Liest den Index eines Segments; ist er unbrauchbar, wird er aus dem Segment neu aufgebaut
+    private void readIndex(long sequence, List<IndexEntry> entries) throws IOException {
+        final Path segmentPath = segmentPath(sequence);
+        final Path indexPath = indexPath(sequence);
+        final long segmentGeneration = readGeneration(segmentPath, SEGMENT_MAGIC);
+        final int start = entries.size();
+        if (Files.exists(indexPath) && readGeneration(indexPath, INDEX_MAGIC) == segmentGeneration) {
+            final long segmentSize = Files.size(segmentPath);
+            try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+                final long count = (channel.size() - FILE_HEADER_SIZE) / INDEX_ENTRY_SIZE;
+                final ByteBuffer buffer = ByteBuffer.allocate(INDEX_ENTRY_SIZE * 1024);
+                long position = FILE_HEADER_SIZE;
+                long read = 0;
+                boolean consistent = true;
+                while (read < count && consistent) {
+                    buffer.clear().limit((int) Math.min(buffer.capacity(), (count - read) * INDEX_ENTRY_SIZE));
+                    while (buffer.hasRemaining()) {
+                        if (channel.read(buffer, position + buffer.position()) < 0) {
+                            throw new IOException("Unexpected end of index " + indexPath);
+                        }
+                    }
+                    buffer.flip();
+                    position += buffer.limit();
+                    while (buffer.hasRemaining()) {
+                        final IndexEntry entry = new IndexEntry(sequence, buffer.getLong(), buffer.getLong(), buffer.getInt(), buffer.getInt());
+                        if (entry.bodyOffset() + entry.length() > segmentSize) {
+                            consistent = false;
+                            break;
+                        }
+                        entries.add(entry);
+                        read++;
+                    }
+                }
+                if (consistent) {
+                    return;
+                }
+            }
+            entries.subList(start, entries.size()).clear();
+        }
+        rebuildIndex(sequence, entries);
+    }
+
+    //Durchläuft das Segment und schreibt den Index neu; ein unvollständiger letzter Datensatz wird ignoriert
+    private void rebuildIndex(long sequence, List<IndexEntry> entries) throws IOException {
+        final Path segmentPath = segmentPath(sequence);
+        final long generation = readGeneration(segmentPath, SEGMENT_MAGIC);
+        final int start = entries.size();
+        try (FileChannel channel = FileChannel.open(segmentPath, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+            long position = FILE_HEADER_SIZE;
+            while (position + RECORD_HEADER_SIZE <= size) {
+                header.clear();
+                while (header.hasRemaining() && channel.read(header, position + header.position()) > 0) {
+                    //liest den Datensatzkopf vollständig
+                }
+                header.flip();
+                if (header.remaining() < RECORD_HEADER_SIZE || header.getInt(0) != RECORD_MAGIC) {
+                    break;
+                }
+                final int flags = header.getInt(4);
+                final long messageId = header.getLong(8);
+                final int length = header.getInt(16);
+                if (length < 0 || position + RECORD_HEADER_SIZE + length > size) {
+                    break;
+                }
+                entries.add(new IndexEntry(sequence, messageId, position, length, flags));
+                position += RECORD_HEADER_SIZE + length;
+            }
+        }
+        try (FileChannel channel = FileChannel.open(indexPath(sequence), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            writeFileHeader(channel, INDEX_MAGIC, generation);
+            long position = FILE_HEADER_SIZE;
+            for (IndexEntry entry : entries.subList(start, entries.size())) {
+                writeIndexEntry(channel, position, entry.messageId(), entry.offset(), entry.length(), entry.flags());
+                position += INDEX_ENTRY_SIZE;
+            }
+        }
+    }
+
+    //Segmentnummern aufsteigend
+    private List<Long> sequences() throws IOException {
+        final List<Long> sequences = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                final String name = file.getFileName().toString();
+                try {
+                    sequences.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    //keine Segmentdatei dieses Logs
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return sequences;
+        }
+        sequences.sort(null);
+        return sequences;
+    }
+
+    Path segmentPath(long sequence) {
+        return dir.resolve(String.format("%020d", sequence) + SEGMENT_SUFFIX);
+    }
+
+    private Path indexPath(long sequence) {
+        return dir.resolve(String.format("%020d", sequence) + INDEX_SUFFIX);
+    }
+
+    //Position eines Eintrags innerhalb der Indexdatei seines Segments
+    private static int positionInIndex(List<IndexEntry> entries, int i) {
+        int position = 0;
+        for (int j = i - 1; j >= 0 && entries.get(j).sequence() == entries.get(i).sequence(); j--) {
+            position++;
+        }
+        return position;
+    }
+
+    private static long readGeneration(Path file, int magic) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) > 0) {
+                //liest den Dateikopf vollständig
+            }
+            if (header.position() < FILE_HEADER_SIZE || header.getInt(0) != magic || header.getInt(4) != VERSION) {
+                return -1;
+            }
+            return header.getLong(8);
+        }
+    }
+
+    private static void writeFileHeader(FileChannel channel, int magic, long generation) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE).putInt(magic).putInt(VERSION).putLong(generation).flip();
+        long position = 0;
+        while (header.hasRemaining()) {
+            position += channel.write(header, position);
+        }
+    }
+
+    private void writeIndexEntry(FileChannel channel, long position, long messageId, long offset, int length, int flags)
+            throws IOException {
+        indexEntry.clear();
+        indexEntry.putLong(messageId).putLong(offset).putInt(length).putInt(flags).flip();
+        while (indexEntry.hasRemaining()) {
+            position += channel.write(indexEntry, position);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package file;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*LRU-Cache schreibgeschützter Mappings ganzer Dateien für die Lese-API.
+ * Begrenzt sind die Summe der gemappten Bytes und die Anzahl der Mappings; darüber wird das am längsten
+ * ungenutzte verworfen. Eine Datei größer als das ganze Budget wird gemappt, aber nicht gecacht.
+ * Ein Eintrag gilt, solange die Datei dieselbe ist (fileKey, sonst Änderungszeit) und das Mapping den
+ * angefragten Bereich abdeckt; ein gewachsenes Segment oder ein durch Kompaktierung ersetztes wird neu gemappt.
+ * Java gibt Mappings erst frei, wenn der Puffer vom GC eingesammelt wird: das Budget begrenzt also die vom Cache
+ * gehaltenen Mappings, herausgegebene Slices halten ihr Mapping zusätzlich am Leben, bis sie unerreichbar sind.
+ */
+final class MappingCache {
+
+    private final long maxBytes;
+    private final int maxMappings;
+    private final LinkedHashMap<Path, Mapping> mappings = new LinkedHashMap<>(64, 0.75f, true);
+    private long mappedBytes;
+
+    private record Mapping(Object identity, MappedByteBuffer buffer) {
+    }
+
+    MappingCache(long maxBytes, int maxMappings) {
+        this.maxBytes = maxBytes;
+        this.maxMappings = Math.max(1, maxMappings);
+    }
+
+    //Liefert ein Mapping der Datei, das mindestens die ersten requiredBytes Bytes abdeckt
+    MappedByteBuffer map(Path file, long requiredBytes) throws IOException {
+        final BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        final Object identity = attributes.fileKey() != null ? attributes.fileKey() : attributes.lastModifiedTime();
+        synchronized (this) {
+            final Mapping cached = mappings.get(file);
+            if (cached != null && cached.identity().equals(identity) && cached.buffer().capacity() >= requiredBytes) {
+                return cached.buffer();
+            }
+        }
+
+        final long size = attributes.size();
+        if (requiredBytes > size) {
+            throw new IOException("Range of " + requiredBytes + " bytes exceeds " + file + " (" + size + " bytes)");
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("File too large to map: " + file + " (" + size + " bytes)");
+        }
+        final MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        if (size <= maxBytes) {
+            put(file, new Mapping(identity, buffer));
+        }
+        return buffer;
+    }
+
+    synchronized long getMappedBytes() {
+        return mappedBytes;
+    }
+
+    synchronized int size() {
+        return mappings.size();
+    }
+
+    private synchronized void put(Path file, Mapping mapping) {
+        final Mapping previous = mappings.put(file, mapping);
+        if (previous != null) {
+            mappedBytes -= previous.buffer().capacity();
+        }
+        mappedBytes += mapping.buffer().capacity();
+        final Iterator<Map.Entry<Path, Mapping>> eldest = mappings.entrySet().iterator();
+        while ((mappedBytes > maxBytes || mappings.size() > maxMappings) && eldest.hasNext()) {
+            final Mapping evicted = eldest.next().getValue();
+            if (evicted == mapping) {
+                continue;
+            }
+            mappedBytes -= evicted.buffer().capacity();
+            eldest.remove();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package file;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/*Erzeugt eindeutige, monoton steigende Nachrichten-IDs nach dem Snowflake-Schema:
+ * 41 Bit Millisekunden seit EPOCH | 10 Bit Knoten-ID | 12 Bit Sequenz innerhalb der Millisekunde.
+ * Zeitstempel und Sequenz liegen gemeinsam in einem AtomicLong und werden per CAS fortgeschrieben (ohne Locks).
+ * Läuft die Sequenz über oder springt die Uhr zurück, wird einfach der letzte Wert weitergezählt,
+ * die IDs bleiben also auch dann eindeutig und monoton.
+ */
+public class MessageIdGenerator {
+
+    //2025-01-01T00:00:00Z
+    private static final long EPOCH = 1_735_689_600_000L;
+    private static final int NODE_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    public static final long MAX_NODE_ID = (1L << NODE_BITS) - 1;
+
+    private final long nodeBits;
+    //(Millisekunden seit EPOCH << SEQUENCE_BITS) | Sequenz der zuletzt vergebenen ID
+    private final AtomicLong lastState = new AtomicLong();
+
+    public MessageIdGenerator(long nodeId) {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("nodeId must be between 0 and " + MAX_NODE_ID + ": " + nodeId);
+        }
+        this.nodeBits = nodeId << SEQUENCE_BITS;
+    }
+
+    public long nextId() {
+        while (true) {
+            final long now = System.currentTimeMillis() - EPOCH;
+            final long last = lastState.get();
+            final long next = now > (last >>> SEQUENCE_BITS) ? now << SEQUENCE_BITS : last + 1;
+
+            if (lastState.compareAndSet(last, next)) {
+                final long timestamp = next >>> SEQUENCE_BITS;
+                final long sequence = next & ((1L << SEQUENCE_BITS) - 1);
+                return (timestamp << (NODE_BITS + SEQUENCE_BITS)) | nodeBits | sequence;
+            }
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package file;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/*Nimmt den Nachrichteninhalt während DATA als Bytes entgegen, ohne ihn vollständig im Heap zu halten.
+ * Kleine Nachrichten bleiben in einem Puffer, der bis MEMORY_THRESHOLD wächst. Größere Nachrichten werden
+ * in eine temporäre Spool-Datei ausgelagert, der Puffer dient dann nur noch als Schreibpuffer.
+ * Der Heap-Bedarf pro Sitzung ist damit unabhängig von der Nachrichtengröße.
+ * Nebenbei wird ein SHA-256-Fingerabdruck des Inhalts berechnet, jeweils wenn Bytes den Puffer verlassen.
+ */
+public class MessageSpool implements Closeable {
+
+    private static final int INITIAL_CAPACITY = 4 * 1024;
+    private static final int MEMORY_THRESHOLD = Integer.getInteger("smtp.spool.threshold", 64 * 1024);
+
+    private final Path spoolDir;
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+    private Path spoolFile;
+    private FileChannel spoolChannel;
+    //Beginn des Inhalts in spoolChannel; nur bei einer Ansicht auf einen fremden Dateibereich ungleich 0
+    private long regionOffset;
+    //Ansicht auf einen fremden Dateibereich (siehe view), der Channel gehört nicht dem Spool
+    private boolean view;
+    private long size;
+    private final MessageDigest digest;
+    private byte[] fingerprint;
+
+    public MessageSpool(Path spoolDir) {
+        this.spoolDir = spoolDir;
+        try {
+            this.digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /*Schreibgeschützte Ansicht auf size Bytes ab offset in einem fremden Channel (z.\ B. dem Spool-Journal),
+     * ohne den Inhalt zu kopieren. fingerprint muss der SHA-256 dieses Bereichs sein. close schließt den Channel nicht.
+     */
+    static MessageSpool view(FileChannel channel, long offset, long size, byte[] fingerprint) {
+        final MessageSpool spool = new MessageSpool(null);
+        spool.buffer = ByteBuffer.allocate(0);
+        spool.spoolChannel = channel;
+        spool.regionOffset = offset;
+        spool.size = size;
+        spool.view = true;
+        spool.fingerprint = fingerprint.clone();
+        return spool;
+    }
+
+    //Hängt die verbleibenden Bytes von src an
+    public void write(ByteBuffer src) throws IOException {
+        if (view) {
+            throw new IllegalStateException("Message spool view is read-only");
+        }
+        size += src.remaining();
+        while (src.hasRemaining()) {
+            if (!buffer.hasRemaining()) {
+                makeRoom();
+            }
+            if (src.remaining() <= buffer.remaining()) {
+                buffer.put(src);
+            } else {
+                //kopiert nur so viel, wie in den Puffer passt, ohne src zu duplizieren
+                final int limit = src.limit();
+                src.limit(src.position() + buffer.remaining());
+                buffer.put(src);
+                src.limit(limit);
+            }
+        }
+    }
+
+    //Hängt ein einzelnes Byte an
+    public void write(byte b) throws IOException {
+        if (view) {
+            throw new IllegalStateException("Message spool view is read-only");
+        }
+        if (!buffer.hasRemaining()) {
+            makeRoom();
+        }
+        buffer.put(b);
+        size++;
+    }
+
+    //Anzahl der bisher geschriebenen Bytes
+    public long size() {
+        return size;
+    }
+
+    //SHA-256 des gesamten Inhalts; danach dürfen keine Bytes mehr geschrieben werden
+    public byte[] fingerprint() {
+        if (fingerprint == null) {
+            digest.update(buffer.duplicate().flip());
+            fingerprint = digest.digest();
+        }
+        return fingerprint.clone();
+    }
+
+    //Kopiert den gesamten Inhalt in den Ziel-Channel; aus einer Spool-Datei per FileChannel.transferTo
+    public void transferTo(WritableByteChannel target) throws IOException {
+        if (spoolChannel == null) {
+            final ByteBuffer content = buffer.duplicate().flip();
+            while (content.hasRemaining()) {
+                target.write(content);
+            }
+            return;
+        }
+
+        if (!view) {
+            flushToFile();
+        }
+        long position = 0;
+        while (position < size) {
+            position += spoolChannel.transferTo(regionOffset + position, size - position, target);
+        }
+    }
+
+    /*Schreibt zuerst die Puffer aus prefix (z.\ B. die Received-Kopfzeile) und dann den Inhalt in den Ziel-Channel.
+     * Liegt der Inhalt im Heap, geht alles in einem Gathering-Write hinaus, ohne Kopfzeile und Inhalt vorher in
+     * einen gemeinsamen Puffer zu kopieren.
+     */
+    public void transferTo(GatheringByteChannel target, ByteBuffer... prefix) throws IOException {
+        if (spoolChannel == null) {
+            final ByteBuffer[] sources = Arrays.copyOf(prefix, prefix.length + 1);
+            final ByteBuffer content = buffer.duplicate().flip();
+            sources[prefix.length] = content;
+            while (hasRemaining(sources)) {
+                target.write(sources);
+            }
+            return;
+        }
+
+        for (final ByteBuffer header : prefix) {
+            while (header.hasRemaining()) {
+                target.write(header);
+            }
+        }
+        transferTo(target);
+    }
+
+    //Verwirft den Inhalt und löscht eine eventuell angelegte Spool-Datei
+    @Override
+    public void close() throws IOException {
+        buffer = null;
+        if (view) {
+            spoolChannel = null;
+            return;
+        }
+        if (spoolChannel != null) {
+            spoolChannel.close();
+            spoolChannel = null;
+            Files.deleteIfExists(spoolFile);
+        }
+    }
+
+    private static boolean hasRemaining(ByteBuffer[] buffers) {
+        for (final ByteBuffer buffer : buffers) {
+            if (buffer.hasRemaining()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //Vergrößert den Puffer bis zur Schwelle, danach wird in die Spool-Datei ausgelagert
+    private void makeRoom() throws IOException {
+        if (spoolChannel == null && buffer.capacity() < MEMORY_THRESHOLD) {
+            final ByteBuffer grown = ByteBuffer.allocate(Math.min(buffer.capacity() * 2, MEMORY_THRESHOLD));
+            buffer.flip();
+            grown.put(buffer);
+            buffer = grown;
+            return;
+        }
+        flushToFile();
+    }
+
+    private void flushToFile() throws IOException {
+        if (spoolChannel == null) {
+            Files.createDirectories(spoolDir);
+            spoolFile = Files.createTempFile(spoolDir, "msg", ".spool");
+            spoolChannel = FileChannel.open(spoolFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        buffer.flip();
+        digest.update(buffer.duplicate());
+        while (buffer.hasRemaining()) {
+            spoolChannel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,202 @@
+package file;
+
+import lombok.extern.java.Log;
+import smtp.metrics.SMTPMetrics;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+/*Entkoppelt die Annahme einer Nachricht von der Zustellung in die Postfächer (-Dsmtp.queue=journal).
+ * storeMessage hängt die Nachricht nur an das Spool-Journal unter data/.queue an (ein sequentieller Schreibvorgang,
+ * bei Durability PER_MESSAGE/GROUP_COMMIT mit fsync vor dem "250"); Zustell-Threads ("smtp-delivery-i",
+ * -Dsmtp.queue.deliveryThreads, Standard 2) legen sie danach über die eigentliche Ablage in den Postfächern ab.
+ * Scheitert die Zustellung, wird sie mit exponentiellem Backoff wiederholt (-Dsmtp.queue.retryInitialMillis,
+ * Standard 1000, verdoppelt bis -Dsmtp.queue.retryMaxMillis, Standard 300000), bis sie gelingt.
+ * Jeder zugestellte Empfänger wird im Journal vermerkt (bei Durability erst nach dem fsync des Postfachs); beim
+ * Start werden alle nicht vollständig zugestellten Nachrichten aus dem Journal erneut eingeplant.
+ * Zustellung ist damit mindestens einmal: nach einem Absturz zwischen Ablage und Vermerk kann ein Empfänger
+ * eine Nachricht doppelt erhalten, aber keine angenommene Nachricht geht verloren.
+ * Lesen, Auflisten und Blob-Bereinigung gehen direkt an die Ablage der Postfächer.
+ */
+@Log
+public class QueuedMailStorageService extends MailStorageService {
+
+    private static final Path QUEUE_DIR = Paths.get(BASE_DIR, ".queue");
+    private static final long SEGMENT_SIZE = Long.getLong("smtp.queue.segmentSize", 64L * 1024 * 1024);
+    private static final int DELIVERY_THREADS = Math.max(1, Integer.getInteger("smtp.queue.deliveryThreads", 2));
+    private static final long RETRY_INITIAL_MILLIS = Math.max(1, Long.getLong("smtp.queue.retryInitialMillis", 1000L));
+    private static final long RETRY_MAX_MILLIS = Math.max(RETRY_INITIAL_MILLIS, Long.getLong("smtp.queue.retryMaxMillis", 300_000L));
+
+    private final MailStorageService mailboxes;
+    private final SpoolJournal journal;
+    private final Durability durability;
+    private final DelayQueue<Delivery> deliveries = new DelayQueue<>();
+
+    //eine fällige oder auf den nächsten Versuch wartende Zustellung
+    private static final class Delivery implements Delayed {
+        private final SpoolJournal.Message message;
+        private final long acceptedNanos;
+        private int attempts;
+        private long dueNanos;
+
+        private Delivery(SpoolJournal.Message message, long acceptedNanos) {
+            this.message = message;
+            this.acceptedNanos = acceptedNanos;
+            this.dueNanos = acceptedNanos;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(dueNanos, ((Delivery) other).dueNanos);
+        }
+    }
+
+    private QueuedMailStorageService(MailStorageService mailboxes, SpoolJournal journal, Durability durability) {
+        this.mailboxes = mailboxes;
+        this.journal = journal;
+        this.durability = durability;
+    }
+
+    /*Öffnet das Journal, plant die nicht zugestellten Nachrichten ein und startet die Zustell-Threads.
+     * Verwaiste Blobs werden vorher bereinigt, weil das später nicht mehr gefahrlos neben laufenden Zustellungen geht.
+     */
+    public static QueuedMailStorageService open(MailStorageService mailboxes, Durability durability) {
+        final List<SpoolJournal.Message> recovered = new ArrayList<>();
+        final SpoolJournal journal;
+        try {
+            mailboxes.purgeUnreferencedBlobs();
+            journal = SpoolJournal.open(QUEUE_DIR, SEGMENT_SIZE, recovered);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open spool journal in " + QUEUE_DIR, e);
+        }
+
+        final QueuedMailStorageService storage = new QueuedMailStorageService(mailboxes, journal, durability);
+        final long now = System.nanoTime();
+        for (SpoolJournal.Message message : recovered) {
+            storage.deliveries.add(new Delivery(message, now));
+        }
+        SMTPMetrics.get().registerGauge("smtp_queue_pending", storage::getPendingMessages);
+        for (int i = 0; i < DELIVERY_THREADS; i++) {
+            Thread thread = new Thread(storage::deliver, "smtp-delivery-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return storage;
+    }
+
+    //Nimmt die Nachricht ins Journal auf; die Zustellung in die Postfächer folgt im Hintergrund
+    @Override
+    protected void storeMessage(ByteBuffer timestampLine, String sender, List<String> recipients, MessageSpool messageBody,
+            SyncBatch sync) throws IOException {
+        final SpoolJournal.Message message = journal.append(timestampLine, sender, recipients, messageBody, sync);
+        addBytesWritten(messageBody.size());
+        deliveries.add(new Delivery(message, System.nanoTime()));
+    }
+
+    //Anzahl der angenommenen, noch nicht an alle Empfänger zugestellten Nachrichten
+    public long getPendingMessages() {
+        return journal.getPendingMessages();
+    }
+
+    //geschriebene Bytes von Journal und Postfächern
+    @Override
+    public long getBytesWritten() {
+        return super.getBytesWritten() + mailboxes.getBytesWritten();
+    }
+
+    @Override
+    public List<StoredMessage> listMessages(String recipient) throws IOException {
+        return mailboxes.listMessages(recipient);
+    }
+
+    @Override
+    public MappedByteBuffer readMessage(StoredMessage message) throws IOException {
+        return mailboxes.readMessage(message);
+    }
+
+    @Override
+    public long getMappedBytes() {
+        return mailboxes.getMappedBytes();
+    }
+
+    //bereits in open erledigt, solange noch keine Zustellung läuft
+    @Override
+    public void purgeUnreferencedBlobs() {
+    }
+
+    private void deliver() {
+        while (true) {
+            final Delivery delivery;
+            try {
+                delivery = deliveries.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                attempt(delivery);
+            } catch (IOException | RuntimeException e) {
+                retry(delivery, e);
+            }
+        }
+    }
+
+    /*Stellt an alle noch offenen Empfänger einzeln zu. Die bis zu einem Fehler erfolgreichen Empfänger werden
+     * gesichert und im Journal vermerkt, der Fehler wird danach weitergereicht.
+     */
+    private void attempt(Delivery delivery) throws IOException {
+        final SpoolJournal.Message message = delivery.message;
+        final SyncBatch sync = new SyncBatch();
+        final List<Integer> stored = new ArrayList<>(message.recipients.size());
+        IOException failure = null;
+        for (int i = message.delivered.nextClearBit(0); i < message.recipients.size(); i = message.delivered.nextClearBit(i + 1)) {
+            try {
+                mailboxes.storeMessage(message.receivedHeader.duplicate(), message.sender, List.of(message.recipients.get(i)),
+                        message.body, sync);
+                stored.add(i);
+            } catch (IOException e) {
+                failure = e;
+                break;
+            }
+        }
+
+        if (!stored.isEmpty()) {
+            if (durability != Durability.NONE) {
+                sync.sync();
+            }
+            for (int recipient : stored) {
+                if (journal.markDelivered(message, recipient)) {
+                    SMTPMetrics.get().messageDelivered(System.nanoTime() - delivery.acceptedNanos);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void retry(Delivery delivery, Exception e) {
+        final long backoffMillis = RETRY_INITIAL_MILLIS << Math.min(delivery.attempts, 30);
+        final long delayMillis = backoffMillis <= 0 ? RETRY_MAX_MILLIS : Math.min(backoffMillis, RETRY_MAX_MILLIS);
+        delivery.attempts++;
+        delivery.dueNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        log.warning("Delivery of queued message " + delivery.message.id + " failed (attempt " + delivery.attempts
+                + "), retrying in " + delayMillis + " ms: " + e.getMessage());
+        SMTPMetrics.get().deliveryRetried();
+        deliveries.add(delivery);
+    }
+}
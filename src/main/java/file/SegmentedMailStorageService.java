@@ -0,0 +1,209 @@
+package file;
+
+import lombok.extern.java.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*Ablage in Append-only Segmenten statt einer Datei pro Nachricht (-Dsmtp.storage=segmented).
+ * Jedes Postfach data/<empfänger>/ besteht aus nummerierten Segmenten (<nummer>.seg) mit je einem Offset-Index
+ * (<nummer>.idx), siehe MailboxLog. Nachrichten werden an das aktive Segment angehängt; erreicht es
+ * smtp.segments.size Bytes (Standard 64 MiB), wird ein neues begonnen. Das spart pro Nachricht das Anlegen einer
+ * Datei samt Verzeichniseintrag und hält die Postfächer sequentiell lesbar. Im Gegensatz zum Blob-Store wird die
+ * Nachricht für jeden Empfänger in dessen Segment kopiert.
+ * Gelöschte Nachrichten werden nur markiert; ein Hintergrund-Thread kompaktiert alle
+ * smtp.segments.compactIntervalSeconds Sekunden (Standard 3600, 0 = aus) abgeschlossene Segmente, deren Anteil
+ * gelöschter Bytes mindestens smtp.segments.compactThreshold (Standard 0.5) beträgt.
+ * Höchstens smtp.segments.maxOpen Postfächer (Standard 1024) halten ihr aktives Segment geöffnet, darüber wird
+ * das am längsten ungenutzte geschlossen.
+ */
+@Log
+public class SegmentedMailStorageService extends MailStorageService {
+
+    private static final long SEGMENT_SIZE = Long.getLong("smtp.segments.size", 64L * 1024 * 1024);
+    private static final int MAX_OPEN_MAILBOXES = Integer.getInteger("smtp.segments.maxOpen", 1024);
+    private static final double COMPACT_THRESHOLD = Double.parseDouble(System.getProperty("smtp.segments.compactThreshold", "0.5"));
+    private static final long COMPACT_INTERVAL_SECONDS = Long.getLong("smtp.segments.compactIntervalSeconds", 3600L);
+
+    private final long segmentSize;
+    private final int maxOpenMailboxes;
+    private final Map<String, MailboxLog> mailboxes = new ConcurrentHashMap<>();
+    //Postfächer mit geöffnetem aktivem Segment in Zugriffsreihenfolge, geschützt durch sich selbst
+    private final LinkedHashMap<MailboxLog, Boolean> openMailboxes = new LinkedHashMap<>(64, 0.75f, true);
+
+    public SegmentedMailStorageService(long segmentSize, int maxOpenMailboxes) {
+        if (segmentSize <= MailboxLog.FILE_HEADER_SIZE) {
+            throw new IllegalArgumentException("segmentSize too small: " + segmentSize);
+        }
+        this.segmentSize = segmentSize;
+        this.maxOpenMailboxes = Math.max(1, maxOpenMailboxes);
+    }
+
+    //Ablage mit den Einstellungen aus den System-Properties und laufender Kompaktierung
+    public static SegmentedMailStorageService open() {
+        SegmentedMailStorageService storage = new SegmentedMailStorageService(SEGMENT_SIZE, MAX_OPEN_MAILBOXES);
+        storage.startCompaction(COMPACT_INTERVAL_SECONDS);
+        return storage;
+    }
+
+    //Hängt die Nachricht mit Zeitstempelzeile an das aktive Segment jedes Empfängers an
+    @Override
+    protected void storeMessage(ByteBuffer timestampLine, String sender, List<String> recipients, MessageSpool messageBody,
+            SyncBatch sync) throws IOException {
+
+        for (final String recipient : recipients) {
+            final MailboxLog mailbox = mailbox(recipient);
+            mailbox.lock.lock();
+            try {
+                addBytesWritten(mailbox.append(nextMessageId(), timestampLine.duplicate(), messageBody, sync));
+            } finally {
+                mailbox.lock.unlock();
+            }
+            markOpen(mailbox);
+        }
+    }
+
+    //Nicht gelöschte Nachrichten des Postfachs in Schreibreihenfolge
+    @Override
+    public List<StoredMessage> listMessages(String recipient) throws IOException {
+        final MailboxLog mailbox = mailbox(recipient);
+        final List<MailboxLog.IndexEntry> entries;
+        mailbox.lock.lock();
+        try {
+            entries = mailbox.entries();
+        } finally {
+            mailbox.lock.unlock();
+        }
+        final List<StoredMessage> messages = new ArrayList<>(entries.size());
+        for (final MailboxLog.IndexEntry entry : entries) {
+            if (!entry.isDeleted()) {
+                messages.add(new StoredMessage(recipient, entry.messageId(), entry.length(),
+                        mailbox.segmentPath(entry.sequence()), entry.bodyOffset()));
+            }
+        }
+        return messages;
+    }
+
+    //Wie im Basis-Layout, prüft aber den Datensatzkopf, da die Kompaktierung Nachrichten verschieben kann
+    @Override
+    public MappedByteBuffer readMessage(StoredMessage message) throws IOException {
+        final MappedByteBuffer mapping = map(message.file, message.offset + message.getSize());
+        if (!MailboxLog.isRecordOf(mapping, message.offset - MailboxLog.RECORD_HEADER_SIZE, message.getMessageId())) {
+            throw new NoSuchFileException(message.file.toString(), null,
+                    "message " + message.getMessageId() + " moved or removed by compaction, list the mailbox again");
+        }
+        return mapping.slice((int) message.offset, (int) message.getSize());
+    }
+
+    //Markiert eine Nachricht als gelöscht; der Platz wird bei der nächsten Kompaktierung freigegeben
+    public boolean deleteMessage(String recipient, long messageId) throws IOException {
+        final MailboxLog mailbox = mailbox(recipient);
+        mailbox.lock.lock();
+        try {
+            return mailbox.delete(messageId);
+        } finally {
+            mailbox.lock.unlock();
+        }
+    }
+
+    //Kompaktiert alle Postfächer unter data/ und liefert die Anzahl der freigegebenen Bytes
+    public long compact(double threshold) throws IOException {
+        final Path baseDir = Paths.get(BASE_DIR);
+        if (!Files.isDirectory(baseDir)) {
+            return 0;
+        }
+        long reclaimed = 0;
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(baseDir,
+                dir -> Files.isDirectory(dir) && !dir.getFileName().toString().startsWith("."))) {
+            for (final Path dir : dirs) {
+                final MailboxLog mailbox = mailbox(dir.getFileName().toString());
+                mailbox.lock.lock();
+                try {
+                    reclaimed += mailbox.compact(threshold);
+                } finally {
+                    mailbox.lock.unlock();
+                }
+            }
+        }
+        return reclaimed;
+    }
+
+    //Schließt alle geöffneten Segmente
+    public void close() throws IOException {
+        synchronized (openMailboxes) {
+            for (final MailboxLog mailbox : openMailboxes.keySet()) {
+                mailbox.lock.lock();
+                try {
+                    mailbox.close();
+                } finally {
+                    mailbox.lock.unlock();
+                }
+            }
+            openMailboxes.clear();
+        }
+    }
+
+    MailboxLog mailbox(String recipient) {
+        return mailboxes.computeIfAbsent(recipient, name -> new MailboxLog(Paths.get(BASE_DIR, name), segmentSize));
+    }
+
+    /*Merkt das Postfach als zuletzt benutzt und schließt bei Überschreitung das älteste.
+     * Ein Postfach, das gerade beschrieben wird, bleibt offen (tryLock), damit kein Writer blockiert.
+     */
+    private void markOpen(MailboxLog mailbox) {
+        synchronized (openMailboxes) {
+            openMailboxes.put(mailbox, Boolean.TRUE);
+            final Iterator<MailboxLog> eldest = openMailboxes.keySet().iterator();
+            while (openMailboxes.size() > maxOpenMailboxes && eldest.hasNext()) {
+                final MailboxLog candidate = eldest.next();
+                if (candidate == mailbox || !candidate.lock.tryLock()) {
+                    continue;
+                }
+                try {
+                    candidate.close();
+                } catch (IOException e) {
+                    log.warning("Failed to close segment of " + candidate.getDir() + ": " + e.getMessage());
+                } finally {
+                    candidate.lock.unlock();
+                }
+                eldest.remove();
+            }
+        }
+    }
+
+    private void startCompaction(long intervalSeconds) {
+        if (intervalSeconds <= 0) {
+            return;
+        }
+        ScheduledExecutorService compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "smtp-segments-compaction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        compactor.scheduleWithFixedDelay(() -> {
+            try {
+                final long reclaimed = compact(COMPACT_THRESHOLD);
+                if (reclaimed > 0) {
+                    log.info("Compaction reclaimed " + reclaimed + " bytes");
+                }
+            } catch (IOException | RuntimeException e) {
+                log.warning("Segment compaction failed: " + e.getMessage());
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,363 @@
+package file;
+
+import lombok.extern.java.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32C;
+
+/*Write-Ahead-Journal der angenommenen, noch nicht vollständig zugestellten Nachrichten (data/.queue/<nummer>.journal).
+ *
+ * Datensatz: 32 Byte Kopf (Magic, Typ, ID, Länge der Metadaten, CRC32C, Länge des Inhalts), Metadaten, Inhalt.
+ * MESSAGE    Metadaten: Received-Kopfzeile, Absender, Empfänger, SHA-256 des Inhalts; danach der Inhalt selbst.
+ * DELIVERED  Metadaten: Index des zugestellten Empfängers der Nachricht mit dieser ID.
+ * Die CRC deckt Kopffelder und Metadaten ab; ein unvollständiger oder beschädigter Datensatz am Ende des letzten
+ * Segments (Absturz während des Schreibens) wird beim Öffnen abgeschnitten.
+ *
+ * Geschrieben wird nur ans Ende des aktiven Segments, ab maxSegmentSize in ein neues. Segmente werden nur vom
+ * ältesten her gelöscht, sobald alle ihre Nachrichten zugestellt sind: ein DELIVERED-Datensatz liegt immer in einem
+ * jüngeren Segment als seine Nachricht und geht so nie vor ihr verloren. Beim Öffnen wird das Journal gelesen und
+ * ein neues aktives Segment begonnen. Alle Methoden sind threadsicher.
+ */
+@Log
+final class SpoolJournal {
+
+    static final String SUFFIX = ".journal";
+    private static final int RECORD_MAGIC = 0x4A524E4C;   //"JRNL"
+    private static final int TYPE_MESSAGE = 1;
+    private static final int TYPE_DELIVERED = 2;
+    private static final int RECORD_HEADER_SIZE = 32;
+    private static final int FINGERPRINT_SIZE = 32;
+
+    private final Path dir;
+    private final long maxSegmentSize;
+    //alle vorhandenen Segmente nach Nummer, das letzte ist das aktive
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private final ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+    private final CRC32C crc = new CRC32C();
+    private Segment active;
+    private long nextId = 1;
+    private long pendingMessages;
+
+    private static final class Segment {
+        private final long sequence;
+        private final Path path;
+        private final FileChannel channel;
+        private long size;
+        //Nachrichten dieses Segments, die noch nicht an alle Empfänger zugestellt sind
+        private int pending;
+
+        private Segment(long sequence, Path path, FileChannel channel, long size) {
+            this.sequence = sequence;
+            this.path = path;
+            this.channel = channel;
+            this.size = size;
+        }
+    }
+
+    //Eine Nachricht im Journal; body liest den Inhalt direkt aus dem Segment
+    static final class Message {
+        final long id;
+        final ByteBuffer receivedHeader;
+        final String sender;
+        final List<String> recipients;
+        final MessageSpool body;
+        //Empfänger (Index in recipients), an die bereits zugestellt wurde
+        final BitSet delivered = new BitSet();
+        private final Segment segment;
+
+        private Message(long id, ByteBuffer receivedHeader, String sender, List<String> recipients, MessageSpool body, Segment segment) {
+            this.id = id;
+            this.receivedHeader = receivedHeader;
+            this.sender = sender;
+            this.recipients = recipients;
+            this.body = body;
+            this.segment = segment;
+        }
+
+        boolean isDelivered() {
+            return delivered.cardinality() == recipients.size();
+        }
+    }
+
+    private SpoolJournal(Path dir, long maxSegmentSize) {
+        this.dir = dir;
+        this.maxSegmentSize = maxSegmentSize;
+    }
+
+    /*Öffnet das Journal, liest alle Segmente und liefert die noch nicht vollständig zugestellten Nachrichten
+     * in Annahmereihenfolge; recovered nimmt sie auf.
+     */
+    static SpoolJournal open(Path dir, long maxSegmentSize, List<Message> recovered) throws IOException {
+        final SpoolJournal journal = new SpoolJournal(dir, maxSegmentSize);
+        Files.createDirectories(dir);
+        synchronized (journal) {
+            recovered.addAll(journal.replay());
+            journal.roll();
+        }
+        return journal;
+    }
+
+    /*Hängt eine angenommene Nachricht an und liefert sie mit einer Ansicht auf den Inhalt im Journal.
+     * Das Segment wird in sync eingetragen; erst nach dessen fsync ist die Nachricht dauerhaft angenommen.
+     */
+    synchronized Message append(ByteBuffer receivedHeader, String sender, List<String> recipients, MessageSpool body,
+            SyncBatch sync) throws IOException {
+        final ByteBuffer metadata = encodeMetadata(receivedHeader, sender, recipients, body.fingerprint());
+        final long recordSize = RECORD_HEADER_SIZE + metadata.remaining() + body.size();
+        if (active.size > 0 && active.size + recordSize > maxSegmentSize) {
+            roll();
+        }
+
+        final long id = nextId++;
+        final long recordOffset = active.size;
+        fillRecordHeader(TYPE_MESSAGE, id, metadata, body.size());
+        active.channel.position(recordOffset);
+        body.transferTo(active.channel, recordHeader, metadata.duplicate());
+        active.size = recordOffset + recordSize;
+        sync.addFile(active.path);
+
+        final long bodyOffset = recordOffset + RECORD_HEADER_SIZE + metadata.limit();
+        final Message message = new Message(id, receivedHeader.duplicate(), sender, List.copyOf(recipients),
+                MessageSpool.view(active.channel, bodyOffset, body.size(), body.fingerprint()), active);
+        active.pending++;
+        pendingMessages++;
+        return message;
+    }
+
+    /*Vermerkt die Zustellung an den Empfänger mit Index recipient. Sind alle Empfänger erledigt, zählt die Nachricht
+     * nicht mehr zum Segment; vollständig zugestellte Segmente werden vom ältesten her gelöscht.
+     * Liefert true, wenn die Nachricht damit vollständig zugestellt ist.
+     */
+    synchronized boolean markDelivered(Message message, int recipient) throws IOException {
+        if (message.delivered.get(recipient)) {
+            return message.isDelivered();
+        }
+        final ByteBuffer metadata = ByteBuffer.allocate(Short.BYTES).putShort(0, (short) recipient);
+        fillRecordHeader(TYPE_DELIVERED, message.id, metadata, 0);
+        active.channel.position(active.size);
+        final ByteBuffer[] record = {recordHeader, metadata};
+        while (recordHeader.hasRemaining() || metadata.hasRemaining()) {
+            active.channel.write(record);
+        }
+        active.size += RECORD_HEADER_SIZE + Short.BYTES;
+
+        message.delivered.set(recipient);
+        if (!message.isDelivered()) {
+            return false;
+        }
+        message.segment.pending--;
+        pendingMessages--;
+        deleteDeliveredSegments();
+        return true;
+    }
+
+    //Anzahl der angenommenen, noch nicht vollständig zugestellten Nachrichten
+    synchronized long getPendingMessages() {
+        return pendingMessages;
+    }
+
+    synchronized void close() throws IOException {
+        for (Segment segment : segments.values()) {
+            segment.channel.close();
+        }
+        segments.clear();
+    }
+
+    private void roll() throws IOException {
+        final long sequence = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+        final Path path = dir.resolve(String.format("%020d", sequence) + SUFFIX);
+        final FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        active = new Segment(sequence, path, channel, 0);
+        segments.put(sequence, active);
+        deleteDeliveredSegments();
+    }
+
+    //löscht abgeschlossene Segmente ohne ausstehende Nachrichten, aber nur ab dem ältesten und nie das aktive
+    private void deleteDeliveredSegments() throws IOException {
+        while (!segments.isEmpty()) {
+            final Segment oldest = segments.firstEntry().getValue();
+            if (oldest == active || oldest.pending > 0) {
+                return;
+            }
+            segments.pollFirstEntry();
+            oldest.channel.close();
+            Files.deleteIfExists(oldest.path);
+        }
+    }
+
+    private List<Message> replay() throws IOException {
+        final List<Long> sequences = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            for (Path file : files) {
+                final String name = file.getFileName().toString();
+                try {
+                    sequences.add(Long.parseLong(name.substring(0, name.length() - SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    log.warning("Ignoring unexpected file in spool journal: " + file);
+                }
+            }
+        }
+        Collections.sort(sequences);
+
+        final Map<Long, Message> messages = new LinkedHashMap<>();
+        for (int i = 0; i < sequences.size(); i++) {
+            final long sequence = sequences.get(i);
+            final Path path = dir.resolve(String.format("%020d", sequence) + SUFFIX);
+            final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            final Segment segment = new Segment(sequence, path, channel, channel.size());
+            segments.put(sequence, segment);
+            final long valid = scan(segment, messages);
+            if (valid < segment.size) {
+                if (i == sequences.size() - 1) {
+                    log.warning("Truncating incomplete record at offset " + valid + " of " + path);
+                } else {
+                    log.severe("Corrupt record at offset " + valid + " of " + path + ", dropping the rest of the segment");
+                }
+                channel.truncate(valid);
+                segment.size = valid;
+            }
+        }
+
+        final List<Message> undelivered = new ArrayList<>();
+        for (Message message : messages.values()) {
+            if (!message.isDelivered()) {
+                message.segment.pending++;
+                pendingMessages++;
+                undelivered.add(message);
+            }
+        }
+        if (!undelivered.isEmpty()) {
+            log.info("Recovered " + undelivered.size() + " undelivered message(s) from the spool journal");
+        }
+        return undelivered;
+    }
+
+    //liest die Datensätze eines Segments und liefert das Ende des letzten gültigen
+    private long scan(Segment segment, Map<Long, Message> messages) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        long position = 0;
+        while (position + RECORD_HEADER_SIZE <= segment.size) {
+            header.clear();
+            readFully(segment.channel, header, position);
+            header.flip();
+            final int type = header.getInt(4);
+            final long id = header.getLong(8);
+            final int metadataLength = header.getInt(16);
+            final int checksum = header.getInt(20);
+            final long bodyLength = header.getLong(24);
+            if (header.getInt(0) != RECORD_MAGIC || metadataLength < 0 || bodyLength < 0
+                    || position + RECORD_HEADER_SIZE + metadataLength + bodyLength > segment.size) {
+                return position;
+            }
+            final ByteBuffer metadata = ByteBuffer.allocate(metadataLength);
+            readFully(segment.channel, metadata, position + RECORD_HEADER_SIZE);
+            metadata.flip();
+            if (checksum(type, id, metadata, bodyLength) != checksum) {
+                return position;
+            }
+
+            nextId = Math.max(nextId, id + 1);
+            if (type == TYPE_MESSAGE) {
+                final long bodyOffset = position + RECORD_HEADER_SIZE + metadataLength;
+                messages.put(id, decodeMessage(id, metadata, segment, bodyOffset, bodyLength));
+            } else if (type == TYPE_DELIVERED) {
+                final Message message = messages.get(id);
+                //die Nachricht kann in einem bereits gelöschten Segment gelegen haben
+                if (message != null) {
+                    message.delivered.set(metadata.getShort(0) & 0xFFFF);
+                }
+            }
+            position += RECORD_HEADER_SIZE + metadataLength + bodyLength;
+        }
+        return position;
+    }
+
+    private void fillRecordHeader(int type, long id, ByteBuffer metadata, long bodyLength) {
+        recordHeader.clear();
+        recordHeader.putInt(RECORD_MAGIC).putInt(type).putLong(id).putInt(metadata.remaining())
+                .putInt(checksum(type, id, metadata, bodyLength)).putLong(bodyLength).flip();
+    }
+
+    private int checksum(int type, long id, ByteBuffer metadata, long bodyLength) {
+        crc.reset();
+        final ByteBuffer fields = ByteBuffer.allocate(Integer.BYTES + 2 * Long.BYTES).putInt(type).putLong(id).putLong(bodyLength).flip();
+        crc.update(fields);
+        crc.update(metadata.duplicate());
+        return (int) crc.getValue();
+    }
+
+    //Längen und Empfängerzahl stehen als vorzeichenlose 16-Bit-Werte im Datensatz, größere Werte werden abgelehnt
+    private static ByteBuffer encodeMetadata(ByteBuffer receivedHeader, String sender, List<String> recipients,
+                                             byte[] fingerprint) throws IOException {
+        final byte[] senderBytes = sender.getBytes(StandardCharsets.UTF_8);
+        checkLength(senderBytes.length, "sender");
+        checkLength(recipients.size(), "recipient count");
+        final List<byte[]> recipientBytes = new ArrayList<>(recipients.size());
+        int length = Integer.BYTES + receivedHeader.remaining() + Short.BYTES + senderBytes.length + Short.BYTES + FINGERPRINT_SIZE;
+        for (String recipient : recipients) {
+            final byte[] bytes = recipient.getBytes(StandardCharsets.UTF_8);
+            checkLength(bytes.length, "recipient");
+            recipientBytes.add(bytes);
+            length += Short.BYTES + bytes.length;
+        }
+        final ByteBuffer metadata = ByteBuffer.allocate(length);
+        metadata.putInt(receivedHeader.remaining()).put(receivedHeader.duplicate());
+        metadata.putShort((short) senderBytes.length).put(senderBytes);
+        metadata.putShort((short) recipientBytes.size());
+        for (byte[] bytes : recipientBytes) {
+            metadata.putShort((short) bytes.length).put(bytes);
+        }
+        metadata.put(fingerprint);
+        return metadata.flip();
+    }
+
+    private static void checkLength(int length, String field) throws IOException {
+        if (length > 0xFFFF) {
+            throw new IOException("Journal " + field + " too long: " + length);
+        }
+    }
+
+    private static Message decodeMessage(long id, ByteBuffer metadata, Segment segment, long bodyOffset, long bodyLength) {
+        final byte[] header = new byte[metadata.getInt()];
+        metadata.get(header);
+        final String sender = readString(metadata);
+        final int recipientCount = metadata.getShort() & 0xFFFF;
+        final List<String> recipients = new ArrayList<>(recipientCount);
+        for (int i = 0; i < recipientCount; i++) {
+            recipients.add(readString(metadata));
+        }
+        final byte[] fingerprint = new byte[FINGERPRINT_SIZE];
+        metadata.get(fingerprint);
+        return new Message(id, ByteBuffer.wrap(header), sender, List.copyOf(recipients),
+                MessageSpool.view(segment.channel, bodyOffset, bodyLength, fingerprint), segment);
+    }
+
+    private static String readString(ByteBuffer metadata) {
+        final byte[] bytes = new byte[metadata.getShort() & 0xFFFF];
+        metadata.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of spool journal");
+            }
+        }
+    }
+}
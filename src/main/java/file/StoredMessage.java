@@ -0,0 +1,34 @@
+package file;
+
+import lombok.Getter;
+
+import java.nio.file.Path;
+
+/*Eine gespeicherte Nachricht eines Postfachs, wie sie MailStorageService.listMessages liefert.
+ * size umfasst Zeitstempelzeile und Inhalt, also genau die Bytes, die readMessage zurückgibt.
+ * Datei und Offset sind nur für die Ablage selbst bestimmt; nach einer Kompaktierung ist die Liste neu zu holen.
+ */
+public final class StoredMessage {
+
+    @Getter
+    private final String recipient;
+    @Getter
+    private final long messageId;
+    @Getter
+    private final long size;
+    final Path file;
+    final long offset;
+
+    StoredMessage(String recipient, long messageId, long size, Path file, long offset) {
+        this.recipient = recipient;
+        this.messageId = messageId;
+        this.size = size;
+        this.file = file;
+        this.offset = offset;
+    }
+
+    @Override
+    public String toString() {
+        return "StoredMessage[" + recipient + ", id=" + messageId + ", " + size + " bytes]";
+    }
+}
@@ -0,0 +1,62 @@
+package file;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/*Dateien und Verzeichnisse, die beim Speichern einer oder mehrerer Nachrichten geändert wurden.
+ * sync() ruft für jede Datei genau einmal fsync (Inhalt) und für jedes Verzeichnis genau einmal fsync
+ * (neue Einträge, Umbenennungen) auf. Dateien werden dafür neu geöffnet: fsync wirkt auf die Datei,
+ * nicht auf den Deskriptor, und ein zwischenzeitlich geschlossenes Segment wird so trotzdem erfasst.
+ * Nicht threadsicher.
+ */
+public final class SyncBatch {
+
+    //Verzeichnisse lassen sich unter Windows nicht öffnen; dort entfällt deren fsync
+    private static final boolean DIRECTORY_SYNC = !System.getProperty("os.name", "").startsWith("Windows");
+
+    private final Set<Path> files = new LinkedHashSet<>();
+    private final Set<Path> directories = new LinkedHashSet<>();
+
+    public void addFile(Path file) {
+        files.add(file);
+    }
+
+    public void addDirectory(Path directory) {
+        directories.add(directory);
+    }
+
+    public void addAll(SyncBatch other) {
+        files.addAll(other.files);
+        directories.addAll(other.directories);
+    }
+
+    public boolean isEmpty() {
+        return files.isEmpty() && directories.isEmpty();
+    }
+
+    public void clear() {
+        files.clear();
+        directories.clear();
+    }
+
+    //Erst die Inhalte, dann die Verzeichnisse, damit kein Eintrag auf noch nicht geschriebene Daten zeigt
+    public void sync() throws IOException {
+        for (Path file : files) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                channel.force(false);
+            }
+        }
+        if (!DIRECTORY_SYNC) {
+            return;
+        }
+        for (Path directory : directories) {
+            try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+                channel.force(true);
+            }
+        }
+    }
+}
@@ -1,184 +1,318 @@
 package smtp;
 
+import file.AsyncMailStorageService;
+import file.Durability;
+import file.MailStorageService;
 import lombok.extern.java.Log;
-import smtp.model.ClientSessionState;
+import smtp.directory.RecipientDirectory;
+import smtp.metrics.MetricsHttpEndpoint;
+import smtp.metrics.SMTPMetrics;
+import smtp.util.AdmissionControl;
+import smtp.util.BufferPool;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.nio.charset.StandardCharsets;
 import java.util.Iterator;
-import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
 
 /**
  * SMTPServer implementiert einen einfachen, nicht-blockierenden SMTP-Server mit Java NIO.
  *
  * Hauptfunktionen:
  * - Startet einen Server, der auf eingehende SMTP-Verbindungen wartet.
- * - Akzeptiert neue Client-Verbindungen und sendet ein Begrüßungsbanner.
- * - Liest und verarbeitet SMTP-Befehle von Clients (z.\ B. HELO, MAIL FROM, RCPT TO, DATA, QUIT).
+ * - Akzeptiert neue Client-Verbindungen in einem Acceptor-Thread und verteilt sie auf N Worker (SMTPWorker).
+ *   Mit -Dsmtp.listeners=K lauschen K Acceptoren per SO_REUSEPORT auf demselben Port, jeder mit eigenem Selector;
+ *   Backlog, TCP_NODELAY und Puffergrößen siehe SocketSettings.
+ * - Jeder Worker besitzt einen eigenen Selector, sendet das Begrüßungsbanner und verarbeitet die SMTP-Befehle
+ *   seiner Clients (z.\ B. HELO, MAIL FROM, RCPT TO, DATA, QUIT).
  * - Verwaltet den Sitzungszustand jedes Clients über ClientSessionState.
- * - Gibt SMTP-Antworten an den Client zurück und speichert E-Mails über MailStorageService.
- * - Unterstützt mehrere gleichzeitige Verbindungen durch Verwendung von Java NIO Selectors.
+ * - Gibt SMTP-Antworten an den Client zurück und speichert E-Mails asynchron über AsyncMailStorageService,
+ *   damit Festplattenzugriffe die Worker nicht blockieren (Threads/Warteschlange über
+ *   -Dsmtp.storage.threads und -Dsmtp.storage.queue konfigurierbar). Mit -Dsmtp.durability=per-message oder
+ *   group-commit wird "250" erst nach dem fsync der Nachricht gesendet.
+ * - Skaliert über mehrere Kerne, da jeder Worker-Selector in einem eigenen Thread läuft.
+ * - Lehnt Verbindungen beim Accept mit "421" ab, wenn die Verbindungsgrenze oder das Rate-Limit je Adresse
+ *   überschritten ist (AdmissionControl), und schließt untätige Sitzungen per Timeout in den Workern.
  *
- * Der Server kann über die main-Methode gestartet werden. Der Port ist konfigurierbar (Standard: 8025).
+ * Der Server kann über die main-Methode gestartet werden. Port (Standard: 8025) und Anzahl der Worker
+ * (Standard: 1) sind konfigurierbar.
  */
 
 @Log
 public class SMTPServer {
-    private Selector selector;
     private final InetSocketAddress listenAddress;
     private static final int DEFAULT_PORT = 8025;
-    private ServerSocketChannel serverSocketChannel;
+    private static final int DEFAULT_WORKERS = 1;
+    private static final int STORAGE_THREADS = Integer.getInteger("smtp.storage.threads", 4);
+    private static final int STORAGE_QUEUE_CAPACITY = Integer.getInteger("smtp.storage.queue", 1024);
+    private Acceptor[] acceptors;
+    private final SMTPWorker[] workers;
+    //von allen Acceptoren geteilt
+    private final AtomicInteger nextWorker = new AtomicInteger();
+    private AsyncMailStorageService storage;
+    //gemeinsamer Pool direkter Lesepuffer für alle Worker
+    private final BufferPool bufferPool = new BufferPool();
+    private final AdmissionControl admission = new AdmissionControl();
 
     //Konstruktor
     public SMTPServer(int port) throws IOException {
-        this.listenAddress = new InetSocketAddress(port);
+        this(port, DEFAULT_WORKERS);
     }
 
-    // Startet den SMTP-Server und verarbeitet eingehende Verbindungen sowie Client-Anfragen
-    public void startServer() throws IOException {
-
-        selector = Selector.open();
-        //Öffnet einen Selector und einen ServerSocketChannel
-        serverSocketChannel = ServerSocketChannel.open();
+    public SMTPServer(int port, int workerCount) throws IOException {
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("workerCount must be at least 1: " + workerCount);
+        }
+        this.listenAddress = new InetSocketAddress(port);
+        this.workers = new SMTPWorker[workerCount];
+    }
 
-        //Bindet den Server an die konfigurierte Adresse und Port
-        serverSocketChannel.configureBlocking(false);
-        serverSocketChannel.bind(listenAddress);
+    //Gemeinsame, asynchrone Speicherung für alle Sitzungen; verwaiste Blobs werden vor dem Start entfernt
+    static AsyncMailStorageService openStorage() {
+        MailStorageService mailStorage = MailStorageService.fromSystemProperties();
+        try {
+            mailStorage.purgeUnreferencedBlobs();
+        } catch (IOException e) {
+            log.warning("Failed to purge unreferenced blobs: " + e.getMessage());
+        }
+        return new AsyncMailStorageService(mailStorage, STORAGE_THREADS, STORAGE_QUEUE_CAPACITY, Durability.fromSystemProperties());
+    }
 
-        //Registriert den ServerSocketChannel für eingehende Verbindungen
-        serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
+    //meldet die Metriken per JMX an, registriert Gauges für Storage und Pufferpool und startet ggf. den HTTP-Endpunkt
+    static void startMetrics(AsyncMailStorageService storage, BufferPool bufferPool) {
+        SMTPMetrics metrics = SMTPMetrics.get();
+        metrics.registerGauge("smtp_storage_queue_depth", storage::getQueuedMessages);
+        metrics.registerGauge("smtp_storage_awaiting_sync", storage::getMessagesAwaitingSync);
+        metrics.registerGauge("smtp_dedup_capacity", storage::getDedupCapacity);
+        metrics.registerGauge("smtp_bufferpool_hits_total", bufferPool::getHits);
+        metrics.registerGauge("smtp_bufferpool_misses_total", bufferPool::getMisses);
+        metrics.registerGauge("smtp_bufferpool_pooled", bufferPool::getPooledBuffers);
+        SMTPMetrics.registerMBean();
+        MetricsHttpEndpoint.startIfConfigured(metrics);
+    }
 
-        log.info("Server started on port:" + listenAddress.getPort());
+    // Startet den SMTP-Server: startet die Worker und nimmt im aufrufenden Thread (Acceptor) Verbindungen an
+    public void startServer() throws IOException {
 
+        //Öffnet zuerst alle Listener, damit ein Bind-Fehler den Start abbricht, bevor Storage und Worker laufen;
+        //ab zwei Listenern teilen sie sich den Port per SO_REUSEPORT
+        final int listenerCount = SocketSettings.listenerCount();
+        acceptors = new Acceptor[listenerCount];
         try {
+            for (int i = 0; i < listenerCount; i++) {
+                ServerSocketChannel listener = SocketSettings.openListener(listenAddress, listenerCount > 1);
+                try {
+                    acceptors[i] = new Acceptor(listener);
+                } catch (IOException e) {
+                    listener.close();
+                    throw e;
+                }
+            }
 
-            //Wartet in einer Schleife auf Ereignisse (Verbindungen oder Daten von Clients)
-            while (selector.isOpen()) {
-                selector.select();
+            storage = openStorage();
+            RecipientDirectory recipientDirectory = RecipientDirectory.fromSystemProperties();
+            startMetrics(storage, bufferPool);
 
-                Set<SelectionKey> selectedKeys = selector.selectedKeys();
-                Iterator<SelectionKey> keyIterator = selectedKeys.iterator();
+            //Startet die Worker, jeder mit eigenem Selector und Thread
+            for (int i = 0; i < workers.length; i++) {
+                workers[i] = new SMTPWorker(i, storage, bufferPool, admission, recipientDirectory);
+                Thread workerThread = new Thread(workers[i], "smtp-worker-" + i);
+                workerThread.start();
+            }
+        } catch (IOException | RuntimeException e) {
+            //bereits gestartete Worker sind keine Daemon-Threads und würden die JVM sonst am Leben halten
+            for (Acceptor acceptor : acceptors) {
+                if (acceptor != null) {
+                    acceptor.release();
+                }
+            }
+            try {
+                shutdownWorkersAndStorage();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
 
-                while (keyIterator.hasNext()) {
-                    SelectionKey key = keyIterator.next();
-                    keyIterator.remove();
+        log.info("Server started on port:" + listenAddress.getPort() + " with " + workers.length + " worker(s) and "
+                + listenerCount + " listener(s)");
 
-                    if (!key.isValid()) {
-                        continue;
-                    }
+        //weitere Acceptoren laufen in eigenen Threads, der erste im aufrufenden Thread
+        for (int i = 1; i < listenerCount; i++) {
+            Thread acceptorThread = new Thread(acceptors[i], "smtp-acceptor-" + i);
+            acceptorThread.start();
+        }
 
-                    if (key.isAcceptable()) {
-                        log.info("Acceptable event detected");
-                        acceptConnection(key);
-                    } else if (key.isReadable()) {
-                        log.info("Readable event detected");
-                        readData(key);
-                    }
-                }
-            }
-            // Wirft IOException bei Netzwerkfehlern
-        } catch (IOException e) {
-            log.severe("Server exception: " + e.getMessage());
-            e.printStackTrace();
+        try {
+            acceptors[0].run();
         } finally {
-            log.info("Server shutting down.");
+            closeAcceptors();
+            shutdownWorkersAndStorage();
+            log.info("Server shutting down. Buffer pool hits: " + bufferPool.getHits() + ", misses: " + bufferPool.getMisses());
         }
     }
 
-    //Akzeptiert neue Verbindungen und sendet eine Begrüßung
-    private void acceptConnection(SelectionKey key) throws IOException {
-        ServerSocketChannel serverChannel = (ServerSocketChannel) key.channel();
-        SocketChannel clientChannel = serverChannel.accept();
-
-        if (clientChannel == null) {
-            return;
+    //beendet alle bereits angelegten Worker und die Speicherung
+    private void shutdownWorkersAndStorage() throws IOException {
+        for (SMTPWorker worker : workers) {
+            if (worker != null) {
+                worker.shutdown();
+            }
         }
+        if (storage != null) {
+            storage.shutdown();
+        }
+    }
 
-            clientChannel.configureBlocking(false);
-            InetSocketAddress remoteAddress = (InetSocketAddress) clientChannel.getRemoteAddress();
-            log.info("Accepted connection from " + remoteAddress);
-
-            SelectionKey clientKey = clientChannel.register(this.selector, SelectionKey.OP_READ);
-            ByteBuffer clientReadBuffer = ByteBuffer.allocate(1024);
-            clientKey.attach(new ClientSessionState(clientReadBuffer));
+    //beendet alle Acceptoren; startServer kehrt danach zurück und fährt Worker und Speicherung herunter (für Benchmarks)
+    void stopServer() {
+        closeAcceptors();
+    }
 
-            String greeting = "220 SMTP Server Hausaufgabe\r\n";
-            ByteBuffer greetingBuffer = ByteBuffer.wrap(greeting.getBytes(StandardCharsets.US_ASCII));
-            while (greetingBuffer.hasRemaining()) {
-                clientChannel.write(greetingBuffer);
+    private void closeAcceptors() {
+        for (Acceptor acceptor : acceptors) {
+            if (acceptor != null) {
+                acceptor.close();
             }
-            log.info("Sent to " + remoteAddress + ": " + greeting.replace("\r\n", "<CRLF>\n"));
+        }
     }
 
-    //Liest und verarbeitet SMTP-Befehle von verbundenen Clients
-    private void readData(SelectionKey key) throws IOException {
-        SocketChannel clientChannel = (SocketChannel) key.channel();
-        ClientSessionState clientState = (ClientSessionState) key.attachment();
-        ByteBuffer readBuffer = clientState.getClientReadBuffer();
-
-        if (readBuffer == null) {
-            log.severe("Error: No buffer attached to key for " + clientChannel.getRemoteAddress());
-            closeClientChannel(clientChannel, key);
-            return;
+    //Ein Listener mit eigenem Selector; nimmt Verbindungen an und übergibt sie an einen Worker
+    private final class Acceptor implements Runnable {
+        private final ServerSocketChannel serverSocketChannel;
+        private final Selector selector;
+        private volatile boolean running = true;
+
+        private Acceptor(ServerSocketChannel serverSocketChannel) throws IOException {
+            this.serverSocketChannel = serverSocketChannel;
+            this.selector = Selector.open();
+            //Registriert den ServerSocketChannel für eingehende Verbindungen
+            serverSocketChannel.configureBlocking(false);
+            serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
         }
 
-        int bytesRead = clientChannel.read(readBuffer);
+        @Override
+        public void run() {
+            try {
+                //Wartet in einer Schleife auf eingehende Verbindungen
+                while (running) {
+                    selector.select();
 
-        if (bytesRead == -1) {
-            // connection closed by client
-            InetSocketAddress remoteAddress = (InetSocketAddress) clientChannel.getRemoteAddress();
-            log.info("Connection closed by client: " + remoteAddress);
-            closeClientChannel(clientChannel, key);
-            return;
-        }
+                    Set<SelectionKey> selectedKeys = selector.selectedKeys();
+                    Iterator<SelectionKey> keyIterator = selectedKeys.iterator();
+
+                    while (keyIterator.hasNext()) {
+                        SelectionKey key = keyIterator.next();
+                        keyIterator.remove();
 
-        if (bytesRead > 0) {
-            List<String> responses = clientState.processReadBuffer();
+                        if (!key.isValid()) {
+                            continue;
+                        }
 
-            for (String response : responses) {
-                if (response != null) {
-                    ByteBuffer writeBuffer = ByteBuffer.wrap(response.getBytes(StandardCharsets.US_ASCII));
-                    while (writeBuffer.hasRemaining()) {
-                        clientChannel.write(writeBuffer);
+                        if (key.isAcceptable()) {
+                            log.fine("Acceptable event detected");
+                            acceptConnection(key);
+                        }
                     }
-                    log.info("Sent to " + clientChannel.getRemoteAddress() + ": " + response.replace("\r\n", "<CRLF>\n"));
                 }
+                // Wirft IOException bei Netzwerkfehlern
+            } catch (IOException e) {
+                log.severe("Server exception: " + e.getMessage());
+                e.printStackTrace();
+            } finally {
+                release();
             }
+        }
+
+        //beendet die Schleife in run() beim nächsten Durchlauf
+        private void close() {
+            running = false;
+            selector.wakeup();
+        }
 
-            if (clientState.isQuitSent()) {
-                log.info("Closing connection for " + clientChannel.getRemoteAddress() + " after QUIT.");
-                closeClientChannel(clientChannel, key);
+        private void release() {
+            try {
+                selector.close();
+                serverSocketChannel.close();
+            } catch (IOException e) {
+                log.warning("Failed to close listener: " + e.getMessage());
             }
         }
     }
 
-    //Schließt Verbindungen nach QUIT oder bei Fehlern
-    private void closeClientChannel(SocketChannel clientChannel, SelectionKey key) {
-        try {
-            clientChannel.close();
-            key.cancel();
-        } catch (IOException e) {
-            log.severe("Error closing client channel: " + e.getMessage());
-            e.printStackTrace();
+    //Akzeptiert neue Verbindungen und übergibt sie an einen Worker
+    private void acceptConnection(SelectionKey key) throws IOException {
+        ServerSocketChannel serverChannel = (ServerSocketChannel) key.channel();
+        SocketChannel clientChannel;
+
+        //Nimmt alle anstehenden Verbindungen in einem Durchgang an
+        while ((clientChannel = serverChannel.accept()) != null) {
+            try {
+                clientChannel.configureBlocking(false);
+                SocketSettings.configureClient(clientChannel);
+                InetSocketAddress remoteAddress = (InetSocketAddress) clientChannel.getRemoteAddress();
+                String rejection = admission.admit(remoteAddress.getAddress(), System.nanoTime());
+                if (rejection != null) {
+                    rejectConnection(clientChannel, rejection);
+                    continue;
+                }
+                if (log.isLoggable(Level.FINE)) {
+                    log.fine("Accepted connection from " + remoteAddress);
+                }
+                SMTPMetrics.get().connectionAccepted();
+                selectWorker().register(clientChannel);
+            } catch (IOException e) {
+                //ein Fehler bei einer einzelnen Verbindung darf den Acceptor nicht beenden
+                log.warning("Failed to accept connection: " + e.getMessage());
+                clientChannel.close();
+            }
         }
     }
 
+    //Sendet die 421-Antwort ohne zu warten und schließt die Verbindung sofort
+    static void rejectConnection(SocketChannel clientChannel, String response) throws IOException {
+        SMTPMetrics.get().connectionRejected();
+        if (log.isLoggable(Level.FINE)) {
+            log.fine("Rejected connection from " + clientChannel.getRemoteAddress() + ": " + response.trim());
+        }
+        try (clientChannel) {
+            clientChannel.write(ByteBuffer.wrap(response.getBytes(StandardCharsets.US_ASCII)));
+        }
+    }
+
+    //Wählt den Worker mit den wenigsten aktiven Verbindungen, bei Gleichstand reihum (Round-Robin)
+    private SMTPWorker selectWorker() {
+        int start = Math.floorMod(nextWorker.getAndIncrement(), workers.length);
+
+        SMTPWorker selected = workers[start];
+        for (int i = 1; i < workers.length; i++) {
+            SMTPWorker candidate = workers[(start + i) % workers.length];
+            if (candidate.getActiveSessions() < selected.getActiveSessions()) {
+                selected = candidate;
+            }
+        }
+        return selected;
+    }
+
 
     /**
      * Main-Methode zum Starten des SMTP-Servers.
-     * Nimmt einen optionalen Port-Parameter entgegen (Standard: 8025).
+     * Nimmt einen optionalen Port-Parameter (Standard: 8025) und die Anzahl der Worker-Selectors (Standard: 1) entgegen.
+     * Mit -Dsmtp.mode=virtual läuft stattdessen jede Sitzung in einem eigenen virtuellen Thread (VirtualThreadSMTPServer).
      *
-     * @param args Kommandozeilenargumente
+     * @param args Kommandozeilenargumente: [port] [workers]
      */
     public static void main(String[] args) {
         int port = DEFAULT_PORT;
+        int workerCount = DEFAULT_WORKERS;
         if (args.length > 0) {
             try {
                 port = Integer.parseInt(args[0]);
@@ -186,13 +320,24 @@ public class SMTPServer {
                 log.severe("Invalid port argument. Using default port " + DEFAULT_PORT);
             }
         }
+        if (args.length > 1) {
+            try {
+                workerCount = Math.max(1, Integer.parseInt(args[1]));
+            } catch (NumberFormatException e) {
+                log.severe("Invalid worker argument. Using default worker count " + DEFAULT_WORKERS);
+            }
+        }
 
         try {
-            SMTPServer server = new SMTPServer(port);
+            if ("virtual".equals(System.getProperty("smtp.mode"))) {
+                new VirtualThreadSMTPServer(port).startServer();
+                return;
+            }
+            SMTPServer server = new SMTPServer(port, workerCount);
             server.startServer();
         } catch (IOException e) {
             log.severe("Failed to start server: " + e.getMessage());
             e.printStackTrace();
         }
     }
-}
\ No newline at end of file
+}
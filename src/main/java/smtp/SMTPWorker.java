@@ -0,0 +1,325 @@
+package smtp;
+
+import file.AsyncMailStorageService;
+import lombok.extern.java.Log;
+import smtp.directory.RecipientDirectory;
+import smtp.metrics.SMTPMetrics;
+import smtp.model.ClientSessionState;
+import smtp.model.SMTPReply;
+import smtp.util.AdmissionControl;
+import smtp.util.BufferPool;
+import smtp.util.TimingWheel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * SMTPWorker ist ein Event-Loop mit eigenem Selector, der die vom Acceptor übergebenen Client-Verbindungen bedient.
+ *
+ * Jeder Worker läuft in einem eigenen Thread und besitzt ausschließlich die ClientSessionState-Objekte
+ * seiner Verbindungen, sodass zwischen den Workern kein gemeinsamer Sitzungszustand existiert.
+ * Neue Verbindungen werden über eine Warteschlange übergeben und im Worker-Thread registriert.
+ *
+ * Timeouts laufen über ein TimingWheel, das der Event-Loop über select(timeout) weiterdreht. Jede Verbindung hat
+ * einen Eintrag, der nach jedem Lesen neu geplant wird:
+ * - in Befehlszuständen: smtp.timeout.idle Millisekunden ohne Eingabe (Standard 5 Minuten, RFC 5321 4.5.3.2.7)
+ * - während DATA/BDAT-Daten zusätzlich smtp.timeout.data Millisekunden ab Beginn des Inhalts (Standard 10 Minuten)
+ * - während einer laufenden Speicherung ruht der Timeout
+ * Bei Ablauf erhält der Client "421" und die Verbindung wird geschlossen.
+ */
+@Log
+public class SMTPWorker implements Runnable {
+    static final long IDLE_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("smtp.timeout.idle", 300_000L));
+    private static final long DATA_TIMEOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("smtp.timeout.data", 600_000L));
+    static final long TIMER_TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("smtp.timeout.tick", 100L));
+
+    private final int id;
+    private final Selector selector;
+    private final Queue<SocketChannel> pendingChannels = new ConcurrentLinkedQueue<>();
+    private final Queue<Runnable> pendingTasks = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger activeSessions = new AtomicInteger();
+    private final AsyncMailStorageService storage;
+    private final BufferPool bufferPool;
+    private final AdmissionControl admission;
+    private final RecipientDirectory recipientDirectory;
+    private final SMTPMetrics metrics = SMTPMetrics.get();
+    //gehört ausschließlich dem Worker-Thread
+    private final TimingWheel timers = new TimingWheel(TIMER_TICK_NANOS, System.nanoTime());
+
+    public SMTPWorker(int id, AsyncMailStorageService storage, BufferPool bufferPool, AdmissionControl admission,
+                      RecipientDirectory recipientDirectory) throws IOException {
+        this.id = id;
+        this.storage = storage;
+        this.bufferPool = bufferPool;
+        this.admission = admission;
+        this.recipientDirectory = recipientDirectory;
+        this.selector = Selector.open();
+    }
+
+    //Anzahl der aktuell von diesem Worker bedienten Verbindungen (für die Lastverteilung im Acceptor)
+    public int getActiveSessions() {
+        return activeSessions.get();
+    }
+
+    //Übergibt eine akzeptierte Verbindung an diesen Worker (aufrufbar aus dem Acceptor-Thread)
+    public void register(SocketChannel clientChannel) {
+        activeSessions.incrementAndGet();
+        pendingChannels.offer(clientChannel);
+        selector.wakeup();
+    }
+
+    //Führt eine Aufgabe im Worker-Thread aus (aufrufbar aus beliebigen Threads, z.\ B. Storage-Threads)
+    public void execute(Runnable task) {
+        pendingTasks.offer(task);
+        selector.wakeup();
+    }
+
+    //Beendet den Event-Loop des Workers
+    public void shutdown() throws IOException {
+        selector.close();
+    }
+
+    @Override
+    public void run() {
+        log.info("Worker " + id + " started");
+
+        try {
+            //Wartet in einer Schleife auf Ereignisse der zugewiesenen Clients
+            while (selector.isOpen()) {
+                //wacht ohne Ereignisse spätestens zum nächsten Tick des Timing Wheels auf
+                selector.select(timers.millisUntilNextTick(System.nanoTime()));
+                registerPendingChannels();
+                runPendingTasks();
+
+                Set<SelectionKey> selectedKeys = selector.selectedKeys();
+                Iterator<SelectionKey> keyIterator = selectedKeys.iterator();
+
+                while (keyIterator.hasNext()) {
+                    SelectionKey key = keyIterator.next();
+                    keyIterator.remove();
+
+                    if (!key.isValid()) {
+                        continue;
+                    }
+
+                    try {
+                        if (key.isReadable()) {
+                            log.fine("Readable event detected");
+                            readData(key);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            writeData(key);
+                        }
+                    } catch (IOException e) {
+                        log.warning("Client I/O error: " + e.getMessage());
+                        closeClientChannel((SocketChannel) key.channel(), key);
+                    }
+                }
+                timers.advance(System.nanoTime());
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            //nach shutdown() ist der geschlossene Selector der normale Ausstieg
+            if (selector.isOpen()) {
+                log.severe("Worker " + id + " exception: " + e.getMessage());
+            }
+        } finally {
+            log.info("Worker " + id + " shutting down.");
+        }
+    }
+
+    //Führt alle von anderen Threads übergebenen Aufgaben aus
+    private void runPendingTasks() {
+        Runnable task;
+        while ((task = pendingTasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    //Registriert alle vom Acceptor übergebenen Verbindungen am eigenen Selector und sendet die Begrüßung
+    private void registerPendingChannels() {
+        SocketChannel clientChannel;
+        while ((clientChannel = pendingChannels.poll()) != null) {
+            SelectionKey clientKey = null;
+            try {
+                clientKey = clientChannel.register(selector, SelectionKey.OP_READ);
+                ClientSessionState clientState = new ClientSessionState(bufferPool, storage, recipientDirectory);
+                clientKey.attach(clientState);
+                final SelectionKey timedKey = clientKey;
+                clientState.setTimeout(new TimingWheel.Timeout(() -> onTimeout(timedKey)));
+
+                clientState.enqueueResponse(SMTPReply.GREETING);
+                flushResponses(clientKey);
+                armTimeout(clientKey);
+            } catch (IOException e) {
+                log.warning("Failed to register client channel: " + e.getMessage());
+                closeClientChannel(clientChannel, clientKey);
+            }
+        }
+    }
+
+    //Liest und verarbeitet SMTP-Befehle von verbundenen Clients
+    private void readData(SelectionKey key) throws IOException {
+        SocketChannel clientChannel = (SocketChannel) key.channel();
+        ClientSessionState clientState = (ClientSessionState) key.attachment();
+        //der Lesepuffer wird erst beim Lesen aus dem Pool geliehen
+        ByteBuffer readBuffer = clientState.acquireReadBuffer();
+
+        int bytesRead = clientChannel.read(readBuffer);
+
+        if (bytesRead == -1) {
+            // connection closed by client
+            if (log.isLoggable(Level.FINE)) {
+                log.fine("Connection closed by client: " + clientChannel.getRemoteAddress());
+            }
+            closeClientChannel(clientChannel, key);
+            return;
+        }
+
+        if (bytesRead > 0) {
+            metrics.bytesReceived(bytesRead);
+            processInput(key);
+        }
+    }
+
+    //Verarbeitet die gepufferten Zeilen; alle Antworten dieses Durchgangs werden gesammelt und gemeinsam geschrieben
+    private void processInput(SelectionKey key) throws IOException {
+        ClientSessionState clientState = (ClientSessionState) key.attachment();
+        clientState.processReadBuffer();
+        clientState.releaseReadBufferIfEmpty();
+
+        //eine gestartete Speicherung meldet sich nach Abschluss im Worker-Thread zurück
+        CompletableFuture<Void> store = clientState.takePendingStore();
+        if (store != null) {
+            store.whenComplete((ignored, failure) -> execute(() -> onStoreCompleted(key, failure)));
+        }
+        flushResponses(key);
+        armTimeout(key);
+    }
+
+    //Sendet die Antwort auf DATA und verarbeitet danach bereits gepufferte Befehle weiter
+    private void onStoreCompleted(SelectionKey key, Throwable failure) {
+        ClientSessionState clientState = (ClientSessionState) key.attachment();
+        if (!key.isValid()) {
+            //Verbindung inzwischen geschlossen: nur die Transaktion freigeben, keine Antwort mehr erzeugen
+            clientState.abandonStore();
+            return;
+        }
+        clientState.completeStore(failure);
+        try {
+            processInput(key);
+        } catch (IOException e) {
+            log.warning("Client I/O error: " + e.getMessage());
+            closeClientChannel((SocketChannel) key.channel(), key);
+        }
+    }
+
+    //Plant den Timeout der Verbindung passend zum aktuellen Zustand neu (O(1))
+    private void armTimeout(SelectionKey key) {
+        if (!key.isValid()) {
+            return;
+        }
+        ClientSessionState clientState = (ClientSessionState) key.attachment();
+        TimingWheel.Timeout timeout = clientState.getTimeout();
+        final long deadline = timeoutDeadline(clientState, System.nanoTime());
+        if (deadline == Long.MAX_VALUE) {
+            timers.cancel(timeout);
+        } else {
+            timers.schedule(timeout, deadline);
+        }
+    }
+
+    //Frist der Verbindung im aktuellen Zustand (auch für VirtualThreadSMTPServer); Long.MAX_VALUE, wenn der Timeout ruht
+    static long timeoutDeadline(ClientSessionState clientState, long now) {
+        return switch (clientState.getCurrentState()) {
+            case WAITING_STORAGE, QUIT_SENT, CLOSING -> Long.MAX_VALUE;
+            case RECEIVING_DATA, RECEIVING_CHUNK ->
+                    Math.min(now + IDLE_TIMEOUT_NANOS, clientState.getStateEnteredAt() + DATA_TIMEOUT_NANOS);
+            default -> now + IDLE_TIMEOUT_NANOS;
+        };
+    }
+
+    //Schließt eine Verbindung, deren Leerlauf- oder Zustandsfrist abgelaufen ist
+    private void onTimeout(SelectionKey key) {
+        if (!key.isValid()) {
+            return;
+        }
+        SocketChannel clientChannel = (SocketChannel) key.channel();
+        ClientSessionState clientState = (ClientSessionState) key.attachment();
+        if (log.isLoggable(Level.FINE)) {
+            log.fine("Session timed out in state " + clientState.getCurrentState());
+        }
+        metrics.sessionTimedOut();
+        clientState.enqueueResponse(SMTPReply.TIMEOUT);
+        try {
+            //ein Versuch ohne Warten; ein Client, der nicht liest, bekommt die Antwort eben nicht mehr
+            clientState.flushOutbound(clientChannel);
+        } catch (IOException e) {
+            log.fine("Failed to send timeout response: " + e.getMessage());
+        }
+        closeClientChannel(clientChannel, key);
+    }
+
+    //Schreibt ausstehende Antworten, sobald der Channel wieder beschreibbar ist
+    private void writeData(SelectionKey key) throws IOException {
+        flushResponses(key);
+    }
+
+    /*Schreibt die ausstehenden Antworten der Sitzung mit einem Gathering-Write.
+     * Bleibt ein Rest übrig, wird nur noch OP_WRITE beobachtet, bis die Warteschlange geleert ist;
+     * so blockiert ein langsamer Client den Event-Loop nicht und liefert solange keine neuen Befehle.
+     * Während eine Speicherung läuft, werden ebenfalls keine neuen Befehle gelesen.
+     */
+    private void flushResponses(SelectionKey key) throws IOException {
+        SocketChannel clientChannel = (SocketChannel) key.channel();
+        ClientSessionState clientState = (ClientSessionState) key.attachment();
+
+        if (!clientState.flushOutbound(clientChannel)) {
+            key.interestOps(SelectionKey.OP_WRITE);
+            return;
+        }
+
+        if (clientState.isQuitSent()) {
+            if (log.isLoggable(Level.FINE)) {
+                log.fine("Closing connection for " + clientChannel.getRemoteAddress() + " after QUIT.");
+            }
+            closeClientChannel(clientChannel, key);
+            return;
+        }
+        key.interestOps(clientState.isWaitingForStorage() ? 0 : SelectionKey.OP_READ);
+    }
+
+    //Schließt Verbindungen nach QUIT oder bei Fehlern
+    private void closeClientChannel(SocketChannel clientChannel, SelectionKey key) {
+        try {
+            clientChannel.close();
+            if (key != null) {
+                key.cancel();
+                if (key.attachment() instanceof ClientSessionState clientState) {
+                    if (clientState.getTimeout() != null) {
+                        timers.cancel(clientState.getTimeout());
+                    }
+                    clientState.close();
+                }
+            }
+        } catch (IOException e) {
+            log.severe("Error closing client channel: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            activeSessions.decrementAndGet();
+            admission.release();
+            metrics.connectionClosed();
+        }
+    }
+}
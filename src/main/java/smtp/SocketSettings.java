@@ -0,0 +1,75 @@
+package smtp;
+
+import lombok.extern.java.Log;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/*Socket-Einstellungen für Listener und angenommene Verbindungen, über System-Properties:
+ * smtp.listeners              Anzahl der Listener auf demselben Port (Standard 1). Ab 2 wird jeder per SO_REUSEPORT
+ *                             gebunden und bekommt einen eigenen Acceptor-Thread mit eigenem Selector; der Kernel
+ *                             verteilt neue Verbindungen auf die Listener.
+ * smtp.backlog                Länge der Accept-Warteschlange je Listener (Standard 0 = Vorgabe des JDK)
+ * smtp.tcpNoDelay             TCP_NODELAY für Client-Verbindungen (Standard true); Antworten werden ohnehin
+ *                             gesammelt geschrieben, Nagle würde sie nur verzögern
+ * smtp.socket.receiveBuffer   SO_RCVBUF in Bytes, am Listener gesetzt und damit schon beim Verbindungsaufbau
+ *                             wirksam (Standard 0 = Vorgabe des Betriebssystems)
+ * smtp.socket.sendBuffer      SO_SNDBUF in Bytes für Client-Verbindungen (Standard 0 = Vorgabe des Betriebssystems)
+ */
+@Log
+final class SocketSettings {
+
+    static final int LISTENERS = Math.max(1, Integer.getInteger("smtp.listeners", 1));
+    static final int BACKLOG = Math.max(0, Integer.getInteger("smtp.backlog", 0));
+    static final boolean TCP_NO_DELAY = Boolean.parseBoolean(System.getProperty("smtp.tcpNoDelay", "true"));
+    static final int RECEIVE_BUFFER = Integer.getInteger("smtp.socket.receiveBuffer", 0);
+    static final int SEND_BUFFER = Integer.getInteger("smtp.socket.sendBuffer", 0);
+
+    private SocketSettings() {
+    }
+
+    //Anzahl der tatsächlich nutzbaren Listener; ohne SO_REUSEPORT bleibt es bei einem
+    static int listenerCount() throws IOException {
+        if (LISTENERS == 1) {
+            return 1;
+        }
+        try (ServerSocketChannel probe = ServerSocketChannel.open()) {
+            if (!probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                log.warning("SO_REUSEPORT is not supported on this platform, using a single listener instead of " + LISTENERS);
+                return 1;
+            }
+        }
+        return LISTENERS;
+    }
+
+    //Öffnet und bindet einen (blockierenden) Listener; reusePort erlaubt weitere Listener auf demselben Port
+    static ServerSocketChannel openListener(InetSocketAddress address, boolean reusePort) throws IOException {
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        try {
+            if (reusePort) {
+                channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            if (RECEIVE_BUFFER > 0) {
+                channel.setOption(StandardSocketOptions.SO_RCVBUF, RECEIVE_BUFFER);
+            }
+            channel.bind(address, BACKLOG);
+            return channel;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    //Setzt die Optionen einer angenommenen Verbindung
+    static void configureClient(SocketChannel channel) throws IOException {
+        if (TCP_NO_DELAY) {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        }
+        if (SEND_BUFFER > 0) {
+            channel.setOption(StandardSocketOptions.SO_SNDBUF, SEND_BUFFER);
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package smtp;
+
+import file.AsyncMailStorageService;
+import lombok.extern.java.Log;
+import smtp.directory.RecipientDirectory;
+import smtp.metrics.SMTPMetrics;
+import smtp.model.ClientSessionState;
+import smtp.model.SMTPReply;
+import smtp.util.AdmissionControl;
+import smtp.util.BufferPool;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * VirtualThreadSMTPServer ist eine Alternative zum Selector-basierten SMTPServer.
+ *
+ * Jede Verbindung läuft in einem eigenen virtuellen Thread (Java 21) mit blockierendem Socket-I/O.
+ * Befehlsverarbeitung und Sitzungszustand kommen unverändert aus ClientSessionState; statt auf OP_READ/OP_WRITE
+ * und Rückmeldungen der Speicherung im Event-Loop zu warten, blockiert der virtuelle Thread einfach.
+ *
+ * Wird über SMTPServer.main mit -Dsmtp.mode=virtual gestartet. Backlog, TCP_NODELAY und Puffergrößen gelten wie
+ * im Selector-Modus (SocketSettings); es gibt immer genau einen Listener.
+ *
+ * Leerlauf- und DATA-Timeouts (smtp.timeout.idle/.data) gelten wie im Selector-Modus, die Fristen berechnet
+ * SMTPWorker.timeoutDeadline. Ein einziger Watchdog-Thread prüft alle smtp.timeout.tick Millisekunden die Fristen
+ * der offenen Verbindungen. Bei Ablauf schließt er die Eingabeseite des Sockets: das blockierende read kehrt mit -1
+ * zurück, und der Sitzungs-Thread sendet "421" und schließt die Verbindung. Hängt der Thread stattdessen in einem
+ * write (der Client liest nicht), schließt der Watchdog nach einer weiteren Leerlauffrist den ganzen Socket.
+ */
+@Log
+public class VirtualThreadSMTPServer {
+    private final InetSocketAddress listenAddress;
+    private final BufferPool bufferPool = new BufferPool();
+    private final AdmissionControl admission = new AdmissionControl();
+    private AsyncMailStorageService storage;
+    private RecipientDirectory recipientDirectory;
+    private final SMTPMetrics metrics = SMTPMetrics.get();
+    //offene Verbindungen mit ihrer aktuellen Frist, geprüft vom Watchdog
+    private final Set<WatchedSession> sessions = ConcurrentHashMap.newKeySet();
+
+    public VirtualThreadSMTPServer(int port) {
+        this.listenAddress = new InetSocketAddress(port);
+    }
+
+    // Startet den Server und startet für jede angenommene Verbindung einen virtuellen Thread
+    public void startServer() throws IOException {
+        storage = SMTPServer.openStorage();
+        recipientDirectory = RecipientDirectory.fromSystemProperties();
+        SMTPServer.startMetrics(storage, bufferPool);
+        ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "smtp-timeouts");
+            thread.setDaemon(true);
+            return thread;
+        });
+        watchdog.scheduleAtFixedRate(this::expireSessions, SMTPWorker.TIMER_TICK_NANOS, SMTPWorker.TIMER_TICK_NANOS,
+                TimeUnit.NANOSECONDS);
+
+        try (ServerSocketChannel serverSocketChannel = SocketSettings.openListener(listenAddress, false);
+             ExecutorService sessionThreads = Executors.newVirtualThreadPerTaskExecutor()) {
+            log.info("Server started on port:" + listenAddress.getPort() + " with virtual threads");
+
+            while (serverSocketChannel.isOpen()) {
+                SocketChannel clientChannel = serverSocketChannel.accept();
+                try {
+                    SocketSettings.configureClient(clientChannel);
+                    InetSocketAddress remoteAddress = (InetSocketAddress) clientChannel.getRemoteAddress();
+                    String rejection = admission.admit(remoteAddress.getAddress(), System.nanoTime());
+                    if (rejection != null) {
+                        SMTPServer.rejectConnection(clientChannel, rejection);
+                        continue;
+                    }
+                } catch (IOException e) {
+                    log.warning("Failed to accept connection: " + e.getMessage());
+                    clientChannel.close();
+                    continue;
+                }
+                sessionThreads.execute(() -> serveClient(clientChannel));
+            }
+        } finally {
+            watchdog.shutdownNow();
+            storage.shutdown();
+            log.info("Server shutting down.");
+        }
+    }
+
+    //Bedient eine Verbindung vollständig im aktuellen (virtuellen) Thread
+    private void serveClient(SocketChannel clientChannel) {
+        ClientSessionState clientState = new ClientSessionState(bufferPool, storage, recipientDirectory);
+        WatchedSession session = new WatchedSession(clientChannel);
+        sessions.add(session);
+        metrics.connectionAccepted();
+
+        try (clientChannel) {
+            if (log.isLoggable(Level.FINE)) {
+                log.fine("Accepted connection from " + clientChannel.getRemoteAddress());
+            }
+            clientState.enqueueResponse(SMTPReply.GREETING);
+            flushResponses(clientChannel, clientState, session);
+
+            while (!clientState.isQuitSent()) {
+                ByteBuffer readBuffer = clientState.acquireReadBuffer();
+                session.arm(clientState);
+                int bytesRead = clientChannel.read(readBuffer);
+                if (bytesRead == -1) {
+                    if (session.isTimedOut()) {
+                        sendTimeout(clientChannel, clientState, session);
+                    } else if (log.isLoggable(Level.FINE)) {
+                        log.fine("Connection closed by client: " + clientChannel.getRemoteAddress());
+                    }
+                    break;
+                }
+                metrics.bytesReceived(bytesRead);
+                processInput(clientState, session);
+                flushResponses(clientChannel, clientState, session);
+            }
+        } catch (IOException e) {
+            if (session.isTimedOut()) {
+                log.fine("Timed out client did not accept the response: " + e.getMessage());
+            } else {
+                log.warning("Client I/O error: " + e.getMessage());
+            }
+        } finally {
+            sessions.remove(session);
+            clientState.close();
+            admission.release();
+            metrics.connectionClosed();
+        }
+    }
+
+    //Verarbeitet die gepufferten Zeilen und wartet blockierend auf eine gestartete Speicherung
+    private void processInput(ClientSessionState clientState, WatchedSession session) {
+        clientState.processReadBuffer();
+
+        CompletableFuture<Void> store;
+        while ((store = clientState.takePendingStore()) != null) {
+            //während der Speicherung ruht der Timeout
+            session.arm(clientState);
+            Throwable failure = null;
+            try {
+                store.join();
+            } catch (CompletionException e) {
+                failure = e.getCause();
+            }
+            clientState.completeStore(failure);
+            clientState.processReadBuffer();
+        }
+        clientState.releaseReadBufferIfEmpty();
+    }
+
+    /*Schreibt alle ausstehenden Antworten. Im blockierenden Modus kehrt jedes write erst zurück, wenn es alles
+     * geschrieben hat; die Schleife wiederholt nur, wenn mehrere Puffer anstehen oder write unterbrochen wurde.
+     * Die Frist gilt auch für das Schreiben, damit ein Client, der nicht liest, die Sitzung nicht festhält.
+     */
+    private void flushResponses(SocketChannel clientChannel, ClientSessionState clientState, WatchedSession session)
+            throws IOException {
+        session.arm(clientState);
+        boolean flushed;
+        do {
+            flushed = clientState.flushOutbound(clientChannel);
+        } while (!flushed);
+    }
+
+    //Sendet "421" an einen Client, dessen Frist abgelaufen ist; die Verbindung wird danach geschlossen
+    private void sendTimeout(SocketChannel clientChannel, ClientSessionState clientState, WatchedSession session)
+            throws IOException {
+        if (log.isLoggable(Level.FINE)) {
+            log.fine("Session timed out in state " + clientState.getCurrentState());
+        }
+        metrics.sessionTimedOut();
+        clientState.enqueueResponse(SMTPReply.TIMEOUT);
+        flushResponses(clientChannel, clientState, session);
+    }
+
+    //Läuft im Watchdog-Thread: beendet die Eingabe abgelaufener Verbindungen, bei erneutem Ablauf den ganzen Socket
+    private void expireSessions() {
+        final long now = System.nanoTime();
+        for (WatchedSession session : sessions) {
+            final long deadline = session.deadline.get();
+            try {
+                if (deadline == WatchedSession.TIMED_OUT) {
+                    if (now - session.closeDeadline >= 0) {
+                        session.channel.close();
+                    }
+                } else if (deadline != Long.MAX_VALUE && now - deadline >= 0
+                        //scheitert, wenn der Sitzungs-Thread die Frist inzwischen neu gesetzt hat
+                        && session.deadline.compareAndSet(deadline, WatchedSession.TIMED_OUT)) {
+                    //Frist für das Senden der 421-Antwort
+                    session.closeDeadline = now + SMTPWorker.IDLE_TIMEOUT_NANOS;
+                    session.channel.shutdownInput();
+                }
+            } catch (IOException e) {
+                log.fine("Failed to close timed out connection: " + e.getMessage());
+            }
+        }
+    }
+
+    /*Verbindung aus Sicht des Watchdogs. deadline setzen Sitzungs-Thread und Watchdog nur per CAS, sodass eine
+     * neu gesetzte Frist und der Ablauf sich nie gegenseitig überschreiben; TIMED_OUT ist endgültig.
+     */
+    private static final class WatchedSession {
+        private static final long TIMED_OUT = Long.MIN_VALUE;
+
+        private final SocketChannel channel;
+        private final AtomicLong deadline = new AtomicLong(Long.MAX_VALUE);
+        //Frist für die 421-Antwort nach dem Ablauf, nur vom Watchdog-Thread gelesen und geschrieben
+        private long closeDeadline;
+
+        private WatchedSession(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        //Frist passend zum aktuellen Zustand; nach Ablauf bleibt es bei der Frist des Watchdogs für die 421-Antwort
+        private void arm(ClientSessionState clientState) {
+            final long next = SMTPWorker.timeoutDeadline(clientState, System.nanoTime());
+            long current;
+            do {
+                current = deadline.get();
+                if (current == TIMED_OUT) {
+                    return;
+                }
+            } while (!deadline.compareAndSet(current, next));
+        }
+
+        private boolean isTimedOut() {
+            return deadline.get() == TIMED_OUT;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package smtp.directory;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/*Unveränderlicher Hash-Index für E-Mail-Adressen mit offener Adressierung (lineares Sondieren).
+ * Statt einer HashMap mit einem String- und Entry-Objekt pro Adresse liegen alle Adressen als ASCII-Bytes
+ * hintereinander in einem byte[] (ein Längenbyte + Zeichen), die Tabelle ist ein einziges long[]:
+ * oben 32 Bit des Hashes als Fingerabdruck, unten die Position im byte[]. Eine Sondierung kostet so nur einen
+ * Cache-Miss, und fast jede Fehlsondierung wird ohne Zeichenvergleich verworfen.
+ * Bei 1 Mio. Adressen belegt der Index etwa 16 MiB Tabelle plus die Zeichen.
+ * Der Füllgrad bleibt unter 50 %, ein Lookup kostet also im Mittel weniger als zwei Sondierungen und
+ * hasht die Adresse direkt aus dem String, ohne zu allokieren.
+ * Optional prüft ein Bloom-Filter vorab, ob eine Adresse sicher fehlt. Er ist ein eigenes Bitfeld (long[]) mit
+ * k Sondierungen aus demselben 64-Bit-Hash (Double Hashing), damit auch der Filter ohne Allokation auskommt.
+ */
+final class CompactAddressIndex {
+
+    //RFC 5321 4.5.3.1.3: ein Pfad ist höchstens 256 Oktette lang, Adressen passen also in ein Längenbyte
+    static final int MAX_ADDRESS_LENGTH = 255;
+    //Hashwert für Adressen, die nicht im Index stehen können (leer, zu lang oder nicht ASCII)
+    private static final long INVALID = 0;
+    private static final long FINGERPRINT_MASK = 0xFFFFFFFF00000000L;
+    //2^36 Bit = 8 GiB, mehr kann ein long[] ohnehin kaum aufnehmen
+    private static final long MAX_BLOOM_BITS = 1L << 36;
+
+    private final byte[] keys;
+    //Fingerabdruck << 32 | (Position der Adresse in keys + 1), 0 = freier Slot
+    private final long[] slots;
+    private final int mask;
+    private final int size;
+    private final int skipped;
+    //null, wenn kein Bloom-Filter gebaut wurde; Länge ist eine Zweierpotenz
+    private final long[] bloomBits;
+    private final long bloomMask;
+    private final int bloomHashes;
+
+    private CompactAddressIndex(byte[] keys, long[] slots, int size, int skipped, long[] bloomBits, int bloomHashes) {
+        this.keys = keys;
+        this.slots = slots;
+        this.mask = slots.length - 1;
+        this.size = size;
+        this.skipped = skipped;
+        this.bloomBits = bloomBits;
+        this.bloomMask = bloomBits == null ? 0 : (long) bloomBits.length * Long.SIZE - 1;
+        this.bloomHashes = bloomHashes;
+    }
+
+    /*Baut den Index; Adressen mit Nicht-ASCII-Zeichen oder über 255 Zeichen werden übersprungen und gezählt.
+     * bloomFpp > 0 erzeugt zusätzlich einen Bloom-Filter mit dieser Falsch-Positiv-Rate.
+     */
+    static CompactAddressIndex build(Collection<String> addresses, double bloomFpp) {
+        int capacity = Integer.highestOneBit(Math.max(4, addresses.size()) * 2 - 1) << 1;
+        long[] slots = new long[capacity];
+        int mask = capacity - 1;
+
+        long totalLength = 0;
+        for (String address : addresses) {
+            totalLength += address.length() + 1;
+        }
+        if (totalLength >= Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Recipient list too large: " + totalLength + " bytes");
+        }
+        byte[] keys = new byte[(int) totalLength];
+        long[] bloomBits = null;
+        int bloomHashes = 0;
+        if (bloomFpp > 0) {
+            //m = -n ln p / (ln 2)^2 Bit, auf eine Zweierpotenz aufgerundet; k = -ln p / ln 2 Sondierungen
+            double fpp = Math.min(bloomFpp, 0.5);
+            double optimalBits = -Math.max(1, addresses.size()) * Math.log(fpp) / (Math.log(2) * Math.log(2));
+            long bits = Math.min(MAX_BLOOM_BITS, Math.max(Long.SIZE, Long.highestOneBit((long) Math.ceil(optimalBits) * 2 - 1)));
+            bloomBits = new long[(int) (bits / Long.SIZE)];
+            bloomHashes = Math.max(1, (int) Math.round(-Math.log(fpp) / Math.log(2)));
+        }
+
+        CompactAddressIndex index = new CompactAddressIndex(keys, slots, 0, 0, bloomBits, bloomHashes);
+        int position = 0;
+        int size = 0;
+        int skipped = 0;
+        for (String address : addresses) {
+            long hash = hash(address);
+            if (hash == INVALID) {
+                skipped++;
+                continue;
+            }
+            if (index.find(address, hash) >= 0) {
+                continue;
+            }
+            int slot = (int) hash & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = (hash & FINGERPRINT_MASK) | (position + 1);
+            keys[position++] = (byte) address.length();
+            for (int i = 0; i < address.length(); i++) {
+                keys[position++] = (byte) address.charAt(i);
+            }
+            if (bloomBits != null) {
+                index.addToBloomFilter(hash);
+            }
+            size++;
+        }
+        return new CompactAddressIndex(position == keys.length ? keys : Arrays.copyOf(keys, position),
+                slots, size, skipped, bloomBits, bloomHashes);
+    }
+
+    boolean contains(String address) {
+        long hash = hash(address);
+        if (hash == INVALID || (bloomBits != null && !mightContain(hash))) {
+            return false;
+        }
+        return find(address, hash) >= 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    //Anzahl der beim Aufbau übersprungenen ungültigen Adressen
+    int skipped() {
+        return skipped;
+    }
+
+    boolean hasBloomFilter() {
+        return bloomBits != null;
+    }
+
+    private void addToBloomFilter(long hash) {
+        long step = bloomStep(hash);
+        long probe = hash;
+        for (int i = 0; i < bloomHashes; i++, probe += step) {
+            long bit = probe & bloomMask;
+            bloomBits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    private boolean mightContain(long hash) {
+        long step = bloomStep(hash);
+        long probe = hash;
+        for (int i = 0; i < bloomHashes; i++, probe += step) {
+            long bit = probe & bloomMask;
+            if ((bloomBits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //zweiter Hash für das Double Hashing aus den vertauschten Hälften; ungerade, damit sich die Sondierungen nicht wiederholen
+    private static long bloomStep(long hash) {
+        return Long.rotateLeft(hash, 32) | 1;
+    }
+
+    private int find(String address, long hash) {
+        final long fingerprint = hash & FINGERPRINT_MASK;
+        int slot = (int) hash & mask;
+        long entry;
+        while ((entry = slots[slot]) != 0) {
+            if ((entry & FINGERPRINT_MASK) == fingerprint && matches((int) entry - 1, address)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private boolean matches(int position, String address) {
+        int length = keys[position] & 0xFF;
+        if (length != address.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (keys[position + 1 + i] != (byte) address.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //FNV-1a über die Zeichen mit anschließendem Durchmischen (Finalizer aus MurmurHash3)
+    static long hash(String address) {
+        int length = address.length();
+        if (length == 0 || length > MAX_ADDRESS_LENGTH) {
+            return INVALID;
+        }
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < length; i++) {
+            char c = address.charAt(i);
+            if (c > 0x7F) {
+                return INVALID;
+            }
+            hash = (hash ^ c) * 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash == INVALID ? 1 : hash;
+    }
+}
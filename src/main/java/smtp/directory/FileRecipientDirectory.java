@@ -0,0 +1,118 @@
+package smtp.directory;
+
+import lombok.extern.java.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*Empfängerverzeichnis aus einer Textdatei: eine Adresse pro Zeile, Leerzeilen und Zeilen mit # werden ignoriert.
+ * Die Adressen liegen in einem CompactAddressIndex. Ein Hintergrund-Thread prüft alle
+ * smtp.recipients.reloadSeconds Sekunden (Standard 5) Änderungszeit und Größe der Datei, baut bei einer Änderung
+ * einen neuen Index auf und tauscht ihn über eine volatile Referenz aus. Lookups sehen also immer einen
+ * vollständigen Index und warten nie auf das Neuladen; ist die neue Datei nicht lesbar, bleibt der alte Index aktiv.
+ * Mit -Dsmtp.recipients.bloomFpp=<rate> (z.\ B. 0.01) wird zusätzlich ein Bloom-Filter für negative Lookups gebaut.
+ */
+@Log
+public class FileRecipientDirectory implements RecipientDirectory {
+
+    private static final long RELOAD_SECONDS = Long.getLong("smtp.recipients.reloadSeconds", 5L);
+    private static final double BLOOM_FPP = Double.parseDouble(System.getProperty("smtp.recipients.bloomFpp", "0"));
+
+    private final Path file;
+    private final double bloomFpp;
+    private volatile CompactAddressIndex index;
+    private FileTime loadedModifiedTime;
+    private long loadedSize = -1;
+
+    FileRecipientDirectory(Path file, double bloomFpp) throws IOException {
+        this.file = file;
+        this.bloomFpp = bloomFpp;
+        reload();
+    }
+
+    //Lädt die Datei und startet die Überwachung; ohne lesbare Datei kann der Server nicht starten
+    public static FileRecipientDirectory open(Path file) {
+        try {
+            FileRecipientDirectory directory = new FileRecipientDirectory(file, BLOOM_FPP);
+            directory.startWatching(RELOAD_SECONDS);
+            return directory;
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to load recipient file " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public boolean contains(String address) {
+        return index.contains(address);
+    }
+
+    @Override
+    public int size() {
+        return index.size();
+    }
+
+    //Lädt die Datei neu, wenn sich Änderungszeit oder Größe seit dem letzten Laden geändert haben
+    boolean reloadIfChanged() throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        if (attributes.lastModifiedTime().equals(loadedModifiedTime) && attributes.size() == loadedSize) {
+            return false;
+        }
+        reload();
+        return true;
+    }
+
+    private void reload() throws IOException {
+        final long start = System.nanoTime();
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        List<String> addresses = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.strip();
+                if (!line.isEmpty() && line.charAt(0) != '#') {
+                    addresses.add(line);
+                }
+            }
+        }
+        CompactAddressIndex loaded = CompactAddressIndex.build(addresses, bloomFpp);
+        index = loaded;
+        loadedModifiedTime = attributes.lastModifiedTime();
+        loadedSize = attributes.size();
+
+        log.info("Loaded " + loaded.size() + " recipients from " + file + " in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms"
+                + (loaded.hasBloomFilter() ? " (with bloom filter)" : ""));
+        if (loaded.skipped() > 0) {
+            log.warning("Skipped " + loaded.skipped() + " invalid addresses (non-ASCII or longer than "
+                    + CompactAddressIndex.MAX_ADDRESS_LENGTH + " characters) in " + file);
+        }
+    }
+
+    private void startWatching(long intervalSeconds) {
+        if (intervalSeconds <= 0) {
+            return;
+        }
+        ScheduledExecutorService watcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "smtp-recipients-reload");
+            thread.setDaemon(true);
+            return thread;
+        });
+        watcher.scheduleWithFixedDelay(() -> {
+            try {
+                reloadIfChanged();
+            } catch (IOException | RuntimeException e) {
+                log.warning("Failed to reload recipient file " + file + ", keeping previous list: " + e.getMessage());
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,27 @@
+package smtp.directory;
+
+import java.nio.file.Paths;
+
+/*Verzeichnis der Postfächer, für die der Server Nachrichten annimmt (Prüfung bei RCPT TO).
+ * Implementierungen müssen threadsicher sein, da alle Worker dasselbe Verzeichnis verwenden,
+ * und contains darf weder blockieren noch allokieren.
+ */
+public interface RecipientDirectory {
+
+    //true, wenn für die Adresse (exakt wie in RCPT TO, ohne spitze Klammern) ein Postfach existiert
+    boolean contains(String address);
+
+    //Anzahl der bekannten Adressen
+    int size();
+
+    /*Liefert das konfigurierte Verzeichnis: mit -Dsmtp.recipients.file=<pfad> die Adressen aus der Datei
+     * (eine pro Zeile, wird bei Änderungen neu geladen), sonst die fest eingebauten Testadressen.
+     */
+    static RecipientDirectory fromSystemProperties() {
+        String file = System.getProperty("smtp.recipients.file");
+        if (file == null || file.isBlank()) {
+            return StaticRecipientDirectory.defaults();
+        }
+        return FileRecipientDirectory.open(Paths.get(file));
+    }
+}
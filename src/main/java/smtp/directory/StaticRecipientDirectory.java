@@ -0,0 +1,35 @@
+package smtp.directory;
+
+import java.util.Set;
+
+//Unveränderliches Verzeichnis aus einer festen Adressmenge (Standard ohne smtp.recipients.file)
+public class StaticRecipientDirectory implements RecipientDirectory {
+
+    //definiert User, die E-Mails empfangen dürfen
+    private static final StaticRecipientDirectory DEFAULTS = new StaticRecipientDirectory(Set.of(
+            "abc@def.edu",
+            "ghi@jkl.com",
+            "nmo@pqr.gov",
+            "stu@vwx.de"
+    ));
+
+    private final Set<String> addresses;
+
+    public StaticRecipientDirectory(Set<String> addresses) {
+        this.addresses = Set.copyOf(addresses);
+    }
+
+    public static StaticRecipientDirectory defaults() {
+        return DEFAULTS;
+    }
+
+    @Override
+    public boolean contains(String address) {
+        return addresses.contains(address);
+    }
+
+    @Override
+    public int size() {
+        return addresses.size();
+    }
+}
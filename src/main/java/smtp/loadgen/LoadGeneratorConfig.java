@@ -0,0 +1,101 @@
+package smtp.loadgen;
+
+import lombok.Getter;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+
+/*Einstellungen des Lastgenerators, übergeben als --name=wert.
+ * Größen und Empfängerzahlen sind kommagetrennte Listen und werden pro Nachricht reihum verwendet,
+ * z. B. --size=1024,1048576 --recipients=1,4 für einen gemischten Lastmix.
+*/
+@Getter
+public class LoadGeneratorConfig {
+
+    private static final String[] DEFAULT_RECIPIENTS = {"abc@def.edu", "ghi@jkl.com", "nmo@pqr.gov", "stu@vwx.de"};
+
+    private InetSocketAddress target;
+    private int connections = 100;
+    private int threads = Math.min(4, Runtime.getRuntime().availableProcessors());
+    private int durationSeconds = 30;
+    private int warmupSeconds = 5;
+    //Nachrichten pro Verbindung; 0 misst nur Verbindungsaufbau, HELO und QUIT
+    private int messagesPerConnection = 10;
+    private int[] messageSizes = {1024};
+    private int[] recipientCounts = {1};
+    private String[] recipientAddresses = DEFAULT_RECIPIENTS;
+    private boolean ehlo = true;
+    private boolean pipelining = false;
+    //Zielrate in Nachrichten pro Sekunde über alle Verbindungen; 0 = so schnell wie möglich
+    private double rate = 0;
+
+    public static LoadGeneratorConfig parse(String[] args) throws UnknownHostException {
+        LoadGeneratorConfig config = new LoadGeneratorConfig();
+        String host = "127.0.0.1";
+        int port = 8025;
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("Expected --name=value: " + arg);
+            }
+            String name = arg.substring(2, separator);
+            String value = arg.substring(separator + 1);
+            switch (name) {
+                case "host" -> host = value;
+                case "port" -> port = Integer.parseInt(value);
+                case "connections" -> config.connections = positive(name, Integer.parseInt(value));
+                case "threads" -> config.threads = positive(name, Integer.parseInt(value));
+                case "duration" -> config.durationSeconds = positive(name, Integer.parseInt(value));
+                case "warmup" -> config.warmupSeconds = Math.max(0, Integer.parseInt(value));
+                case "messages-per-connection" -> config.messagesPerConnection = Math.max(0, Integer.parseInt(value));
+                case "size" -> config.messageSizes = parseList(name, value, 2);
+                case "recipients" -> config.recipientCounts = parseList(name, value, 1);
+                case "rcpt" -> config.recipientAddresses = value.split(",");
+                case "helo" -> config.ehlo = !"HELO".equalsIgnoreCase(value);
+                case "pipelining" -> config.pipelining = Boolean.parseBoolean(value);
+                case "rate" -> config.rate = Math.max(0, Double.parseDouble(value));
+                default -> throw new IllegalArgumentException("Unknown option: --" + name);
+            }
+        }
+
+        //der Generator ist für Release-Gates auf dem eigenen Rechner gedacht, nicht für fremde Server
+        InetAddress address = InetAddress.getByName(host);
+        if (!address.isLoopbackAddress()) {
+            throw new IllegalArgumentException("Load generator only targets loopback addresses: " + host);
+        }
+        config.target = new InetSocketAddress(address, port);
+        config.threads = Math.min(config.threads, config.connections);
+        return config;
+    }
+
+    int maxRecipients() {
+        return Arrays.stream(recipientCounts).max().orElse(1);
+    }
+
+    //Abstand der geplanten Nachrichtenstarts je Verbindung in Nanosekunden, 0 ohne Zielrate
+    long intervalNanos() {
+        return rate == 0 ? 0 : (long) (1_000_000_000L * connections / rate);
+    }
+
+    private static int positive(String name, int value) {
+        return atLeast(name, value, 1);
+    }
+
+    private static int atLeast(String name, int value, int minimum) {
+        if (value < minimum) {
+            throw new IllegalArgumentException("--" + name + " must be at least " + minimum + ": " + value);
+        }
+        return value;
+    }
+
+    //Nachrichten brauchen mindestens ein abschließendes CRLF vor dem Ende-Marker
+    private static int[] parseList(String name, String value, int minimum) {
+        int[] values = Arrays.stream(value.split(",")).mapToInt(Integer::parseInt).toArray();
+        for (int v : values) {
+            atLeast(name, v, minimum);
+        }
+        return values;
+    }
+}
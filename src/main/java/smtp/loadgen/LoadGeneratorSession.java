@@ -0,0 +1,351 @@
+package smtp.loadgen;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.net.StandardSocketOptions;
+import java.util.ArrayDeque;
+
+/*Eine simulierte Client-Verbindung des Lastgenerators (geschlossener Regelkreis: der nächste Befehl
+ * geht erst nach der Antwort auf den vorherigen raus, mit --pipelining=true wird MAIL/RCPT/DATA
+ * gebündelt gesendet). Nach QUIT oder einem Fehler baut der Slot sofort eine neue Verbindung auf,
+ * sodass immer --connections Sitzungen gleichzeitig aktiv sind.
+*/
+class LoadGeneratorSession {
+
+    private static final long RECONNECT_DELAY_NANOS = 100_000_000L;
+    private static final ByteBuffer MAIL_FROM = ascii("MAIL FROM:<loadgen@localhost>\r\n");
+    private static final ByteBuffer DATA = ascii("DATA\r\n");
+    private static final ByteBuffer QUIT = ascii("QUIT\r\n");
+
+    private final LoadGeneratorWorker worker;
+    private final LoadGeneratorConfig config;
+    private final LoadGeneratorStats stats;
+    private final ByteBuffer helo;
+    private final ByteBuffer[] rcptTo;
+    private final ByteBuffer replyBuffer = ByteBuffer.allocate(4096);
+    private final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<>();
+
+    //gesendete, noch unbeantwortete Befehle als Ringpuffer (Phase und Sendezeitpunkt)
+    private final Phase[] pendingPhases;
+    private final long[] pendingSince;
+    private int pendingHead;
+    private int pendingCount;
+
+    private SocketChannel channel;
+    private SelectionKey key;
+    private boolean serverPipelining;
+    private int messagesSent;
+    private int messageIndex;
+    private int recipientCount;
+    private int recipientsSent;
+    private int messageSize;
+    private long transactionStart;
+    //geplanter Start der nächsten Nachricht (nur mit Zielrate); bleibt über Neuverbindungen erhalten
+    private long nextStart;
+    long wakeAt;
+
+    LoadGeneratorSession(LoadGeneratorWorker worker, LoadGeneratorConfig config, LoadGeneratorStats stats, int slot) {
+        this.worker = worker;
+        this.config = config;
+        this.stats = stats;
+        this.helo = ascii((config.isEhlo() ? "EHLO" : "HELO") + " loadgen" + slot + ".localhost\r\n");
+        this.rcptTo = new ByteBuffer[config.getRecipientAddresses().length];
+        for (int i = 0; i < rcptTo.length; i++) {
+            rcptTo[i] = ascii("RCPT TO:<" + config.getRecipientAddresses()[i] + ">\r\n");
+        }
+        int capacity = config.maxRecipients() + 3;
+        this.pendingPhases = new Phase[capacity];
+        this.pendingSince = new long[capacity];
+        //verteilt die Nachrichtengrößen gleichmäßig über die Verbindungen
+        this.messageIndex = slot;
+    }
+
+    void connect(Selector selector, long now) {
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            expect(Phase.CONNECT, now);
+            if (channel.connect(config.getTarget())) {
+                key = channel.register(selector, SelectionKey.OP_READ, this);
+            } else {
+                key = channel.register(selector, SelectionKey.OP_CONNECT, this);
+            }
+        } catch (IOException e) {
+            stats.connectFailed();
+            abort(now);
+        }
+    }
+
+    void handle(SelectionKey selectedKey, long now) {
+        try {
+            if (selectedKey.isConnectable()) {
+                channel.finishConnect();
+                key.interestOps(SelectionKey.OP_READ);
+                return;
+            }
+            if (selectedKey.isWritable()) {
+                flush();
+            }
+            if (selectedKey.isReadable()) {
+                read(now);
+            }
+        } catch (IOException e) {
+            if (pendingCount > 0) {
+                Phase phase = pendingPhases[pendingHead];
+                if (phase == Phase.CONNECT) {
+                    stats.connectFailed();
+                } else {
+                    stats.error(phase);
+                }
+            }
+            abort(now);
+        }
+    }
+
+    //wird vom Worker zum geplanten Zeitpunkt aufgerufen: neue Verbindung oder nächste Nachricht
+    void onTimer(Selector selector, long now) {
+        if (channel == null) {
+            connect(selector, now);
+        } else {
+            startTransaction(now);
+        }
+    }
+
+    void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                //beim Schließen ist nichts mehr zu tun
+            }
+            channel = null;
+            key = null;
+        }
+        outbound.clear();
+        replyBuffer.clear();
+        pendingCount = 0;
+        pendingHead = 0;
+    }
+
+    private void read(long now) throws IOException {
+        if (channel.read(replyBuffer) == -1) {
+            throw new IOException("Connection closed by server");
+        }
+        replyBuffer.flip();
+        //nach QUIT oder einem Fehler gehört der Slot schon einer neuen (oder keiner) Verbindung
+        final SocketChannel current = channel;
+        int lineStart = 0;
+        for (int i = 0; i < replyBuffer.limit() && channel == current; i++) {
+            if (replyBuffer.get(i) != '\n') {
+                continue;
+            }
+            int lineEnd = i + 1;
+            if (lineEnd - lineStart >= 4 && replyBuffer.get(lineStart + 3) == '-') {
+                //Fortsetzungszeile einer mehrzeiligen Antwort (EHLO)
+                if (startsWith(lineStart + 4, lineEnd, "PIPELINING")) {
+                    serverPipelining = true;
+                }
+            } else {
+                onReply(replyCode(lineStart, lineEnd), now);
+            }
+            lineStart = lineEnd;
+        }
+        if (channel != current) {
+            return;
+        }
+        replyBuffer.position(lineStart);
+        replyBuffer.compact();
+        if (!replyBuffer.hasRemaining()) {
+            throw new IOException("Reply line too long");
+        }
+    }
+
+    private void onReply(int code, long now) throws IOException {
+        if (pendingCount == 0) {
+            throw new IOException("Unexpected reply " + code);
+        }
+        Phase phase = pendingPhases[pendingHead];
+        long latency = now - pendingSince[pendingHead];
+        pendingHead = (pendingHead + 1) % pendingPhases.length;
+        pendingCount--;
+
+        stats.recordCommand(phase, latency);
+        if (!phase.accepts(code)) {
+            stats.error(phase);
+            if (phase == Phase.BODY) {
+                stats.error(Phase.TRANSACTION);
+            }
+            abort(now);
+            return;
+        }
+
+        switch (phase) {
+            case CONNECT -> {
+                serverPipelining = false;
+                send(helo.duplicate());
+                expect(Phase.HELO, now);
+            }
+            case HELO -> startTransaction(now);
+            case MAIL, RCPT -> {
+                if (!usePipelining()) {
+                    sendNextEnvelopeCommand(now);
+                }
+            }
+            case DATA -> {
+                send(worker.messageBody(messageSize));
+                expect(Phase.BODY, now);
+            }
+            case BODY -> {
+                stats.recordTransaction(now - transactionStart, messageSize);
+                messagesSent++;
+                startTransaction(now);
+            }
+            case QUIT -> {
+                stats.sessionCompleted();
+                close();
+                connect(worker.getSelector(), now);
+                return;
+            }
+            default -> throw new IOException("Unexpected phase " + phase);
+        }
+        flush();
+    }
+
+    //startet die nächste Nachricht oder beendet die Sitzung; mit Zielrate wird bis zum geplanten Start gewartet
+    private void startTransaction(long now) {
+        if (messagesSent >= config.getMessagesPerConnection()) {
+            messagesSent = 0;
+            send(QUIT.duplicate());
+            expect(Phase.QUIT, now);
+            flushOrAbort(now);
+            return;
+        }
+
+        long interval = config.intervalNanos();
+        if (interval > 0) {
+            if (nextStart == 0) {
+                nextStart = now;
+            }
+            if (now < nextStart) {
+                worker.schedule(this, nextStart);
+                return;
+            }
+            //gemessen wird ab dem geplanten Start, Verzögerungen durch den Server zählen also mit
+            transactionStart = nextStart;
+            nextStart += interval;
+        } else {
+            transactionStart = now;
+        }
+
+        int[] sizes = config.getMessageSizes();
+        int[] counts = config.getRecipientCounts();
+        messageSize = sizes[messageIndex % sizes.length];
+        recipientCount = counts[messageIndex % counts.length];
+        messageIndex++;
+        recipientsSent = 0;
+
+        send(MAIL_FROM.duplicate());
+        expect(Phase.MAIL, now);
+        if (usePipelining()) {
+            while (recipientsSent < recipientCount) {
+                sendNextEnvelopeCommand(now);
+            }
+            sendNextEnvelopeCommand(now);
+        }
+        flushOrAbort(now);
+    }
+
+    //sendet den nächsten RCPT TO oder, wenn alle Empfänger gesendet sind, DATA
+    private void sendNextEnvelopeCommand(long now) {
+        if (recipientsSent < recipientCount) {
+            send(rcptTo[recipientsSent % rcptTo.length].duplicate());
+            recipientsSent++;
+            expect(Phase.RCPT, now);
+        } else {
+            send(DATA.duplicate());
+            expect(Phase.DATA, now);
+        }
+    }
+
+    private boolean usePipelining() {
+        return config.isPipelining() && serverPipelining;
+    }
+
+    private void expect(Phase phase, long now) {
+        int index = (pendingHead + pendingCount) % pendingPhases.length;
+        pendingPhases[index] = phase;
+        pendingSince[index] = now;
+        pendingCount++;
+    }
+
+    private void send(ByteBuffer buffer) {
+        outbound.add(buffer);
+    }
+
+    private void flushOrAbort(long now) {
+        try {
+            flush();
+        } catch (IOException e) {
+            abort(now);
+        }
+    }
+
+    private void flush() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        while (!outbound.isEmpty()) {
+            ByteBuffer head = outbound.peek();
+            channel.write(head);
+            if (head.hasRemaining()) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+            outbound.poll();
+        }
+        key.interestOps(SelectionKey.OP_READ);
+    }
+
+    //schließt die Verbindung nach einem Fehler und verbindet sich nach kurzer Pause neu
+    private void abort(long now) {
+        close();
+        messagesSent = 0;
+        worker.schedule(this, now + RECONNECT_DELAY_NANOS);
+    }
+
+    private int replyCode(int start, int end) {
+        if (end - start < 3) {
+            return -1;
+        }
+        int code = 0;
+        for (int i = start; i < start + 3; i++) {
+            byte b = replyBuffer.get(i);
+            if (b < '0' || b > '9') {
+                return -1;
+            }
+            code = code * 10 + (b - '0');
+        }
+        return code;
+    }
+
+    private boolean startsWith(int start, int end, String text) {
+        if (end - start < text.length()) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (replyBuffer.get(start + i) != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static ByteBuffer ascii(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII)).asReadOnlyBuffer();
+    }
+}
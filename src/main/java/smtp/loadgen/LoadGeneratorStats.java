@@ -0,0 +1,80 @@
+package smtp.loadgen;
+
+import smtp.metrics.LatencyHistogram;
+
+import java.io.PrintStream;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+//Gemeinsame Zähler und Latenz-Histogramme (in Nanosekunden) aller Lastgenerator-Threads
+class LoadGeneratorStats {
+
+    private final Map<Phase, LatencyHistogram> latencies = new EnumMap<>(Phase.class);
+    private final Map<Phase, LongAdder> errors = new EnumMap<>(Phase.class);
+    private final LongAdder sessionsCompleted = new LongAdder();
+    private final LongAdder messagesAccepted = new LongAdder();
+    private final LongAdder bytesAccepted = new LongAdder();
+    private final LongAdder connectFailures = new LongAdder();
+    //Planabstand je Verbindung; > 0 aktiviert die Korrektur für Coordinated Omission
+    private final long expectedInterval;
+
+    LoadGeneratorStats(long expectedInterval) {
+        this.expectedInterval = expectedInterval;
+        for (Phase phase : Phase.values()) {
+            latencies.put(phase, new LatencyHistogram());
+            errors.put(phase, new LongAdder());
+        }
+    }
+
+    void recordCommand(Phase phase, long nanos) {
+        latencies.get(phase).recordWithExpectedInterval(nanos, expectedInterval);
+    }
+
+    //Transaktionen werden bei Zielrate ab dem geplanten Start gemessen und sind damit bereits korrigiert
+    void recordTransaction(long nanos, int messageSize) {
+        latencies.get(Phase.TRANSACTION).record(nanos);
+        messagesAccepted.increment();
+        bytesAccepted.add(messageSize);
+    }
+
+    void sessionCompleted() {
+        sessionsCompleted.increment();
+    }
+
+    void error(Phase phase) {
+        errors.get(phase).increment();
+    }
+
+    void connectFailed() {
+        connectFailures.increment();
+    }
+
+    //verwirft die Werte der Aufwärmphase
+    void reset() {
+        latencies.values().forEach(LatencyHistogram::reset);
+        errors.values().forEach(LongAdder::reset);
+        sessionsCompleted.reset();
+        messagesAccepted.reset();
+        bytesAccepted.reset();
+        connectFailures.reset();
+    }
+
+    void print(PrintStream out, double seconds) {
+        out.printf("Sessions completed: %,d (%,.1f/s)%n", sessionsCompleted.sum(), sessionsCompleted.sum() / seconds);
+        out.printf("Messages accepted:  %,d (%,.1f/s, %,.2f MB/s)%n", messagesAccepted.sum(),
+                messagesAccepted.sum() / seconds, bytesAccepted.sum() / seconds / (1024 * 1024));
+        out.printf("Connect failures:   %,d%n", connectFailures.sum());
+        out.println(expectedInterval > 0
+                ? "Latencies corrected for coordinated omission (expected interval " + expectedInterval / 1000 + " us)"
+                : "Latencies NOT corrected for coordinated omission (no --rate given, pure closed loop)");
+        out.printf("%-12s %10s %8s %10s %10s %10s %10s %10s%n",
+                "phase", "count", "errors", "p50 us", "p90 us", "p99 us", "p99.9 us", "max us");
+        for (Phase phase : Phase.values()) {
+            LatencyHistogram histogram = latencies.get(phase);
+            out.printf("%-12s %,10d %,8d %10d %10d %10d %10d %10d%n", phase, histogram.getCount(), errors.get(phase).sum(),
+                    histogram.getPercentile(50) / 1000, histogram.getPercentile(90) / 1000,
+                    histogram.getPercentile(99) / 1000, histogram.getPercentile(99.9) / 1000, histogram.getMax() / 1000);
+        }
+    }
+}
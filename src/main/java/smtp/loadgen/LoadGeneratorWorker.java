@@ -0,0 +1,96 @@
+package smtp.loadgen;
+
+import lombok.Getter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+//Event-Loop eines Lastgenerator-Threads: bedient seine Sitzungen über einen eigenen Selector
+class LoadGeneratorWorker implements Runnable {
+
+    @Getter
+    private final Selector selector;
+    private final List<LoadGeneratorSession> sessions = new ArrayList<>();
+    //Sitzungen, die auf einen geplanten Start oder eine Neuverbindung warten
+    private final PriorityQueue<LoadGeneratorSession> timers =
+            new PriorityQueue<>((a, b) -> Long.compare(a.wakeAt, b.wakeAt));
+    private final Map<Integer, ByteBuffer> messageBodies;
+    private volatile boolean running = true;
+
+    LoadGeneratorWorker(LoadGeneratorConfig config, LoadGeneratorStats stats, Map<Integer, ByteBuffer> messageBodies,
+                        int firstSlot, int sessionCount) throws IOException {
+        this.selector = Selector.open();
+        this.messageBodies = messageBodies;
+        for (int i = 0; i < sessionCount; i++) {
+            sessions.add(new LoadGeneratorSession(this, config, stats, firstSlot + i));
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            for (LoadGeneratorSession session : sessions) {
+                session.connect(selector, System.nanoTime());
+            }
+            while (running) {
+                selector.select(selectTimeoutMillis());
+                long now = System.nanoTime();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isValid()) {
+                        ((LoadGeneratorSession) key.attachment()).handle(key, now);
+                    }
+                }
+                runTimers(System.nanoTime());
+            }
+        } catch (IOException e) {
+            System.err.println("Load generator thread failed: " + e.getMessage());
+        } finally {
+            sessions.forEach(LoadGeneratorSession::close);
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+                //beim Beenden ist nichts mehr zu tun
+            }
+        }
+    }
+
+    void schedule(LoadGeneratorSession session, long wakeAt) {
+        session.wakeAt = wakeAt;
+        timers.add(session);
+    }
+
+    //liefert den Nachrichtentext inklusive abschließendem "." für die angegebene Größe
+    ByteBuffer messageBody(int size) {
+        return messageBodies.get(size).duplicate();
+    }
+
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    private void runTimers(long now) {
+        while (!timers.isEmpty() && timers.peek().wakeAt <= now) {
+            timers.poll().onTimer(selector, now);
+        }
+    }
+
+    private long selectTimeoutMillis() {
+        if (timers.isEmpty()) {
+            return 100;
+        }
+        long millis = (timers.peek().wakeAt - System.nanoTime()) / 1_000_000;
+        //select(0) würde unbegrenzt blockieren
+        return Math.max(1, Math.min(100, millis));
+    }
+}
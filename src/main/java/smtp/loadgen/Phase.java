@@ -0,0 +1,25 @@
+package smtp.loadgen;
+
+//Gemessene Abschnitte einer Sitzung und der jeweils erwartete Antwortcode
+enum Phase {
+    CONNECT(220),
+    HELO(250),
+    MAIL(250),
+    RCPT(250),
+    DATA(354),
+    BODY(250),
+    QUIT(221),
+    //gesamte Transaktion von MAIL bis zur Bestätigung der Nachricht
+    TRANSACTION(250);
+
+    final int expectedCode;
+
+    Phase(int expectedCode) {
+        this.expectedCode = expectedCode;
+    }
+
+    boolean accepts(int code) {
+        //251 (User not local; will forward) ist für RCPT ebenfalls eine Annahme
+        return code == expectedCode || (this == RCPT && code == 251);
+    }
+}
@@ -0,0 +1,88 @@
+package smtp.loadgen;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * SMTPLoadGenerator erzeugt Last gegen einen lokal laufenden SMTPServer (oder VirtualThreadSMTPServer).
+ *
+ * - Öffnet --connections gleichzeitige Verbindungen, verteilt auf --threads Selector-Threads.
+ * - Jede Verbindung durchläuft HELO/EHLO, --messages-per-connection Transaktionen (MAIL, RCPT, DATA)
+ *   und QUIT und wird danach sofort neu aufgebaut (geschlossener Regelkreis).
+ * - Misst die Latenz jeder Befehlsphase in einem LatencyHistogram; mit --rate werden die Nachrichten
+ *   nach Plan gestartet und die Perzentile für Coordinated Omission korrigiert.
+ * - Akzeptiert nur Loopback-Adressen.
+ *
+ * Beispiel: --connections=1000 --threads=4 --duration=30 --size=1024,65536 --recipients=1,4 --pipelining=true
+ */
+public class SMTPLoadGenerator {
+
+    private static final int LINE_LENGTH = 76;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        LoadGeneratorConfig config;
+        try {
+            config = LoadGeneratorConfig.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+
+        Map<Integer, ByteBuffer> messageBodies = new HashMap<>();
+        for (int size : config.getMessageSizes()) {
+            messageBodies.put(size, buildMessageBody(size));
+        }
+
+        LoadGeneratorStats stats = new LoadGeneratorStats(config.intervalNanos());
+        LoadGeneratorWorker[] workers = new LoadGeneratorWorker[config.getThreads()];
+        Thread[] threads = new Thread[workers.length];
+        int slot = 0;
+        for (int i = 0; i < workers.length; i++) {
+            int sessionCount = config.getConnections() / workers.length + (i < config.getConnections() % workers.length ? 1 : 0);
+            workers[i] = new LoadGeneratorWorker(config, stats, messageBodies, slot, sessionCount);
+            slot += sessionCount;
+            threads[i] = new Thread(workers[i], "smtp-loadgen-" + i);
+            threads[i].start();
+        }
+
+        System.out.printf("Target %s, %d connections on %d threads, warmup %d s, duration %d s%n",
+                config.getTarget(), config.getConnections(), workers.length,
+                config.getWarmupSeconds(), config.getDurationSeconds());
+        Thread.sleep(config.getWarmupSeconds() * 1000L);
+        stats.reset();
+        long measureStart = System.nanoTime();
+        Thread.sleep(config.getDurationSeconds() * 1000L);
+        double seconds = (System.nanoTime() - measureStart) / 1e9;
+
+        for (LoadGeneratorWorker worker : workers) {
+            worker.shutdown();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        stats.print(System.out, seconds);
+    }
+
+    //Nachrichtentext mit Zeilen zu 76 Zeichen, genau size Bytes lang (inklusive CRLF), gefolgt vom Ende-Marker
+    static ByteBuffer buildMessageBody(int size) {
+        byte[] body = new byte[size + 3];
+        final int content = size - 2;
+        int lineLength = 0;
+        for (int i = 0; i < content; i++) {
+            if (lineLength == LINE_LENGTH && i + 1 < content) {
+                body[i++] = '\r';
+                body[i] = '\n';
+                lineLength = 0;
+            } else {
+                body[i] = (byte) ('a' + i % 26);
+                lineLength++;
+            }
+        }
+        System.arraycopy("\r\n.\r\n".getBytes(StandardCharsets.US_ASCII), 0, body, content, 5);
+        return ByteBuffer.wrap(body).asReadOnlyBuffer();
+    }
+}
@@ -0,0 +1,105 @@
+package smtp.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*Nebenläufiges Histogramm mit logarithmisch-linearen Buckets (wie HdrHistogram mit ca. 3 % Auflösung).
+ * Werte unter 32 werden exakt gezählt, darüber hat jede Zweierpotenz 32 gleich breite Buckets.
+ * record() ist O(1), allokiert nichts und kommt ohne Locks aus; Perzentile werden beim Auslesen berechnet.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong totalSum = new AtomicLong();
+    private final AtomicLong maxValue = new AtomicLong();
+
+    //zählt einen Wert (negative Werte werden als 0 gezählt)
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(bucketIndex(value));
+        totalCount.incrementAndGet();
+        totalSum.addAndGet(value);
+        maxValue.accumulateAndGet(value, Math::max);
+    }
+
+    /*Zählt einen Wert und korrigiert Coordinated Omission wie HdrHistogram: sollte alle expectedInterval
+     * gemessen werden, hat ein langsamer Wert die Messungen dahinter verzögert; diese werden mit
+     * value - expectedInterval, value - 2 * expectedInterval, ... nachgetragen.
+     */
+    public void recordWithExpectedInterval(long value, long expectedInterval) {
+        record(value);
+        if (expectedInterval <= 0) {
+            return;
+        }
+        for (long missing = value - expectedInterval; missing >= expectedInterval; missing -= expectedInterval) {
+            record(missing);
+        }
+    }
+
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    public long getMax() {
+        return maxValue.get();
+    }
+
+    public long getMean() {
+        long count = totalCount.get();
+        return count == 0 ? 0 : totalSum.get() / count;
+    }
+
+    //obere Grenze des Buckets, in dem das Perzentil (0..100) liegt
+    public long getPercentile(double percentile) {
+        final long count = totalCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(bucketUpperBound(i), maxValue.get());
+            }
+        }
+        return maxValue.get();
+    }
+
+    //setzt alle Zähler zurück (nicht atomar gegenüber gleichzeitigen record-Aufrufen)
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        totalCount.set(0);
+        totalSum.set(0);
+        maxValue.set(0);
+    }
+
+    //Bucket eines Werts und dessen obere Grenze; paketsichtbar für die Tests
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKETS;
+        return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + subBucket;
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        final long subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        final long lowerBound = (SUB_BUCKETS + subBucket) << shift;
+        return lowerBound + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,42 @@
+package smtp.metrics;
+
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.java.Log;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/*Kleiner HTTP-Endpunkt, der die Metriken unter /metrics als Text ausliefert.
+ * Lauscht nur auf der Loopback-Adresse und wird mit -Dsmtp.metrics.port=<port> eingeschaltet.
+ */
+@Log
+public class MetricsHttpEndpoint {
+
+    //startet den Endpunkt, falls smtp.metrics.port gesetzt ist, und gibt ihn zurück (sonst null)
+    public static HttpServer startIfConfigured(SMTPMetrics metrics) {
+        final Integer port = Integer.getInteger("smtp.metrics.port");
+        if (port == null) {
+            return null;
+        }
+        try {
+            HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+            server.createContext("/metrics", exchange -> {
+                byte[] body = metrics.render().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            server.start();
+            log.info("Metrics endpoint started on http://localhost:" + port + "/metrics");
+            return server;
+        } catch (IOException e) {
+            log.warning("Failed to start metrics endpoint: " + e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package smtp.metrics;
+
+import lombok.extern.java.Log;
+import smtp.model.ClientSessionState.ClientSMTPState;
+import smtp.model.SMTPCommandType;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/*Zentrale Metriken des SMTP-Servers.
+ * Zähler basieren auf LongAdder, Verteilungen auf LatencyHistogram; alle Aufrufe auf dem Hot-Path sind O(1)
+ * und allokieren nichts. Ausgelesen wird über JMX (smtp:type=SMTPMetrics) oder den MetricsHttpEndpoint.
+ * Zeiten werden in Nanosekunden, Größen in Bytes erfasst.
+ */
+@Log
+public final class SMTPMetrics implements SMTPMetricsMXBean {
+
+    private static final SMTPCommandType[] COMMAND_TYPES = SMTPCommandType.values();
+    private static final ClientSMTPState[] STATES = ClientSMTPState.values();
+    private static final SMTPMetrics INSTANCE = new SMTPMetrics();
+
+    private final LongAdder connectionsAccepted = new LongAdder();
+    private final LongAdder activeConnections = new LongAdder();
+    private final LongAdder connectionsRejected = new LongAdder();
+    private final LongAdder sessionsTimedOut = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder unknownCommands = new LongAdder();
+    private final LongAdder[] commands = new LongAdder[COMMAND_TYPES.length];
+    private final LatencyHistogram[] stateDwellNanos = new LatencyHistogram[STATES.length];
+    private final LatencyHistogram messageSizes = new LatencyHistogram();
+    private final LatencyHistogram storeLatencyNanos = new LatencyHistogram();
+    private final LatencyHistogram syncLatencyNanos = new LatencyHistogram();
+    private final LatencyHistogram syncBatchSizes = new LatencyHistogram();
+    private final LatencyHistogram deliveryLatencyNanos = new LatencyHistogram();
+    private final LongAdder deliveryRetries = new LongAdder();
+    private final LongAdder dedupHits = new LongAdder();
+    private final LongAdder dedupMisses = new LongAdder();
+    private final LongAdder dedupEvictions = new LongAdder();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    private SMTPMetrics() {
+        for (int i = 0; i < commands.length; i++) {
+            commands[i] = new LongAdder();
+        }
+        for (int i = 0; i < stateDwellNanos.length; i++) {
+            stateDwellNanos[i] = new LatencyHistogram();
+        }
+    }
+
+    public static SMTPMetrics get() {
+        return INSTANCE;
+    }
+
+    public void connectionAccepted() {
+        connectionsAccepted.increment();
+        activeConnections.increment();
+    }
+
+    public void connectionClosed() {
+        activeConnections.decrement();
+    }
+
+    //Verbindung beim Accept abgelehnt (Verbindungsgrenze oder Rate-Limit)
+    public void connectionRejected() {
+        connectionsRejected.increment();
+    }
+
+    //Sitzung wegen Leerlauf oder überschrittener Frist mit 421 geschlossen
+    public void sessionTimedOut() {
+        sessionsTimedOut.increment();
+    }
+
+    public void bytesReceived(long bytes) {
+        bytesReceived.add(bytes);
+    }
+
+    public void bytesSent(long bytes) {
+        bytesSent.add(bytes);
+    }
+
+    public void commandReceived(SMTPCommandType type) {
+        commands[type.ordinal()].increment();
+    }
+
+    public void unknownCommand() {
+        unknownCommands.increment();
+    }
+
+    //Verweildauer einer Sitzung im Zustand state, wenn sie ihn verlässt
+    public void stateLeft(ClientSMTPState state, long dwellNanos) {
+        stateDwellNanos[state.ordinal()].record(dwellNanos);
+    }
+
+    //Größe einer vollständig empfangenen Nachricht (DATA oder BDAT)
+    public void messageReceived(long sizeBytes) {
+        messageSizes.record(sizeBytes);
+    }
+
+    //Dauer eines MailStorageService.storeMessage-Aufrufs
+    public void messageStored(long nanos) {
+        storeLatencyNanos.record(nanos);
+    }
+
+    //Dauer eines fsync-Durchgangs und Anzahl der damit bestätigten Nachrichten (Durability PER_MESSAGE/GROUP_COMMIT)
+    public void storageSynced(int messages, long nanos) {
+        syncLatencyNanos.record(nanos);
+        syncBatchSizes.record(messages);
+    }
+
+    //Zeit von der Annahme ins Spool-Journal bis zur Zustellung an alle Empfänger
+    public void messageDelivered(long nanos) {
+        deliveryLatencyNanos.record(nanos);
+    }
+
+    //fehlgeschlagener Zustellversuch aus dem Spool-Journal, der später wiederholt wird
+    public void deliveryRetried() {
+        deliveryRetries.increment();
+    }
+
+    //Nachricht als Wiederholung einer bereits gespeicherten erkannt und ohne Schreiben bestätigt
+    public void duplicateSuppressed() {
+        dedupHits.increment();
+    }
+
+    //Nachricht nicht im Deduplizierungs-Cache gefunden
+    public void duplicateCheckMissed() {
+        dedupMisses.increment();
+    }
+
+    //noch gültiger Eintrag im Deduplizierungs-Cache verdrängt (Cache zu klein für die TTL)
+    public void duplicateEntryEvicted() {
+        dedupEvictions.increment();
+    }
+
+    //registriert einen Wert, der erst beim Auslesen abgefragt wird (z.\ B. Länge einer Warteschlange)
+    public void registerGauge(String name, LongSupplier supplier) {
+        gauges.put(name, supplier);
+    }
+
+    @Override
+    public long getConnectionsAccepted() {
+        return connectionsAccepted.sum();
+    }
+
+    @Override
+    public long getActiveConnections() {
+        return activeConnections.sum();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    @Override
+    public long getMessagesReceived() {
+        return messageSizes.getCount();
+    }
+
+    @Override
+    public Map<String, Long> getSnapshot() {
+        final Map<String, Long> snapshot = new LinkedHashMap<>();
+        snapshot.put("smtp_connections_accepted_total", getConnectionsAccepted());
+        snapshot.put("smtp_connections_active", getActiveConnections());
+        snapshot.put("smtp_connections_rejected_total", connectionsRejected.sum());
+        snapshot.put("smtp_sessions_timed_out_total", sessionsTimedOut.sum());
+        snapshot.put("smtp_bytes_received_total", getBytesReceived());
+        snapshot.put("smtp_bytes_sent_total", getBytesSent());
+        for (SMTPCommandType type : COMMAND_TYPES) {
+            snapshot.put("smtp_commands_total{command=\"" + type + "\"}", commands[type.ordinal()].sum());
+        }
+        snapshot.put("smtp_commands_total{command=\"UNKNOWN\"}", unknownCommands.sum());
+        for (ClientSMTPState state : STATES) {
+            putHistogram(snapshot, "smtp_state_dwell_nanos", "state=\"" + state + "\"", stateDwellNanos[state.ordinal()]);
+        }
+        putHistogram(snapshot, "smtp_message_size_bytes", null, messageSizes);
+        putHistogram(snapshot, "smtp_store_latency_nanos", null, storeLatencyNanos);
+        putHistogram(snapshot, "smtp_storage_sync_nanos", null, syncLatencyNanos);
+        putHistogram(snapshot, "smtp_storage_sync_batch_messages", null, syncBatchSizes);
+        putHistogram(snapshot, "smtp_delivery_latency_nanos", null, deliveryLatencyNanos);
+        snapshot.put("smtp_delivery_retries_total", deliveryRetries.sum());
+        snapshot.put("smtp_dedup_hits_total", dedupHits.sum());
+        snapshot.put("smtp_dedup_misses_total", dedupMisses.sum());
+        snapshot.put("smtp_dedup_evictions_total", dedupEvictions.sum());
+        gauges.forEach((name, supplier) -> snapshot.put(name, supplier.getAsLong()));
+        return snapshot;
+    }
+
+    //Textausgabe im Prometheus-Format, eine Zeile pro Wert
+    public String render() {
+        final StringBuilder text = new StringBuilder();
+        getSnapshot().forEach((name, value) -> text.append(name).append(' ').append(value).append('\n'));
+        return text.toString();
+    }
+
+    //meldet die Metriken beim Plattform-MBeanServer an
+    public static void registerMBean() {
+        try {
+            ObjectName name = new ObjectName("smtp:type=SMTPMetrics");
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, name);
+            }
+        } catch (JMException e) {
+            log.warning("Failed to register metrics MBean: " + e.getMessage());
+        }
+    }
+
+    private static void putHistogram(Map<String, Long> snapshot, String name, String labels, LatencyHistogram histogram) {
+        final String prefix = labels == null ? "{" : "{" + labels + ",";
+        snapshot.put(name + "_count" + (labels == null ? "" : "{" + labels + "}"), histogram.getCount());
+        snapshot.put(name + prefix + "quantile=\"0.5\"}", histogram.getPercentile(50));
+        snapshot.put(name + prefix + "quantile=\"0.99\"}", histogram.getPercentile(99));
+        snapshot.put(name + prefix + "quantile=\"1.0\"}", histogram.getMax());
+    }
+}
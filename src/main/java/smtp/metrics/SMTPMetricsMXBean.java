@@ -0,0 +1,20 @@
+package smtp.metrics;
+
+import java.util.Map;
+
+//JMX-Sicht auf die Server-Metriken (ObjectName smtp:type=SMTPMetrics)
+public interface SMTPMetricsMXBean {
+
+    long getConnectionsAccepted();
+
+    long getActiveConnections();
+
+    long getBytesReceived();
+
+    long getBytesSent();
+
+    long getMessagesReceived();
+
+    //alle Zähler, Gauges und Histogramm-Kennzahlen unter ihrem Namen
+    Map<String, Long> getSnapshot();
+}
@@ -1,44 +1,102 @@
 package smtp.model;
 
-import file.MailStorageService;
+import file.AsyncMailStorageService;
+import file.MessageSpool;
 import lombok.Getter;
+import lombok.Setter;
+import smtp.directory.RecipientDirectory;
+import smtp.metrics.SMTPMetrics;
+import smtp.util.BufferPool;
+import smtp.util.ByteScanner;
 import smtp.util.SMTPCommandParser;
+import smtp.util.TimingWheel;
 import lombok.extern.java.Log;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
 
 /**
  * ClientSessionState verwaltet den Zustand einer SMTP-Client-Sitzung
  * speichert Informationen über den aktuellen Zustand, den Absender, die Empfänger und die Nachrichtendaten
+ *
+ * Befehle werden über eine Übergangstabelle (Zustand x Befehlstyp) an ihre Handler verteilt. Antworten sind
+ * vorkodierte Puffer (SMTPReply) und werden in einen aus dem BufferPool geliehenen Ausgabepuffer kopiert, der wie
+ * der Lesepuffer nur gehalten wird, solange ungesendete Bytes anstehen. Eine untätige Sitzung besteht damit nur
+ * aus diesem Objekt und ihrem Timeout; gemeinsam genutzte Objekte (Metriken, geparster Befehl) hängen nicht an ihr.
  */
 @Log
 public class ClientSessionState {
+    private static final SMTPMetrics METRICS = SMTPMetrics.get();
+    private static final ClientSMTPState[] STATES = ClientSMTPState.values();
+    private static final SMTPCommandType[] COMMAND_TYPES = SMTPCommandType.values();
+    //Handler je [Zustand][Befehlstyp]
+    private static final CommandHandler[][] TRANSITIONS = buildTransitions();
+    //wiederverwendbare Sicht auf den zuletzt geparsten Befehl, eine je Thread statt einer je Sitzung
+    private static final ThreadLocal<SMTPCommand> COMMAND = ThreadLocal.withInitial(SMTPCommand::new);
+    //Name des Clients nach HELO/EHLO ohne Argument
+    private static final String DEFAULT_CLIENT_NAME = "localhost";
+    //RFC 5321 4.5.3.1.8 verlangt mindestens 100 Empfänger je Nachricht, weitere werden mit 452 abgewiesen
+    private static final int MAX_RECIPIENTS = 1000;
+
+    //geliehener Lesepuffer, null solange die Sitzung keine ungelesenen Bytes hält
+    @Getter
+    private ByteBuffer clientReadBuffer;
+    private final BufferPool bufferPool;
+    //true, solange die Reste einer zu langen Befehlszeile bis zum nächsten \r\n verworfen werden
+    private boolean discardingLine;
     @Getter
-    private final ByteBuffer clientReadBuffer;
     private ClientSMTPState currentState;
+    //Zeitpunkt (System.nanoTime) des letzten Zustandswechsels, für die Verweildauer je Zustand und die Fristen
+    @Getter
+    private long stateEnteredAt = System.nanoTime();
+    //Leerlauf-/Zustands-Timeout im Timing Wheel des Workers (nur im Selector-Modus gesetzt)
+    @Getter
+    @Setter
+    private TimingWheel.Timeout timeout;
 
     private String clientName;
     private String mailFromSender;
-    private final List<String> rcptToRecipients = new ArrayList<>();
-
-    //definiert User, die E-Mails empfangen dürfen
-    private static final Set<String> validRecipients = Set.of(
-            "abc@def.edu",
-            "ghi@jkl.com",
-            "nmo@pqr.gov",
-            "stu@vwx.de"
-    );
-    private StringBuilder messageData = new StringBuilder();
-
-    private MailStorageService filestorage = new MailStorageService();
-
-    public ClientSessionState(ByteBuffer clientReadBuffer) {
-        this.clientReadBuffer = clientReadBuffer;
+    //wird erst mit dem ersten RCPT TO angelegt
+    private List<String> rcptToRecipients;
+
+    //Postfächer, für die RCPT TO angenommen wird
+    private final RecipientDirectory recipientDirectory;
+    //nimmt den Nachrichteninhalt während DATA auf (null außerhalb von DATA oder nach einem Spool-Fehler)
+    private MessageSpool messageData;
+    //true, wenn die aktuelle Datenzeile bereits teilweise in den Spool geschrieben wurde
+    private boolean dataMidLine;
+
+    //BDAT: noch zu lesende Bytes des aktuellen Chunks, Größe des Chunks und ob es der letzte ist
+    private long chunkRemaining;
+    private long chunkSize;
+    private boolean lastChunk;
+    //BDAT: Antwort und Folgezustand für einen abgelehnten Chunk, dessen Bytes nur verworfen werden
+    private ByteBuffer chunkRejection;
+    private ClientSMTPState chunkRejectionState;
+
+    private final AsyncMailStorageService filestorage;
+
+    //laufende Speicherung, die vom Event-Loop noch nicht übernommen wurde
+    private CompletableFuture<Void> pendingStore;
+
+    //geliehener Ausgabepuffer (Schreibmodus) mit den noch nicht gesendeten Antworten, null wenn nichts ansteht
+    private ByteBuffer outboundBuffer;
+    //nur wenn Antworten nicht mehr in den größten Ausgabepuffer passen; danach gehen alle Antworten hierhin
+    private ArrayDeque<ByteBuffer> outboundOverflow;
+
+    public ClientSessionState(BufferPool bufferPool, AsyncMailStorageService filestorage, RecipientDirectory recipientDirectory) {
+        this.bufferPool = bufferPool;
+        this.filestorage = filestorage;
+        this.recipientDirectory = recipientDirectory;
         this.currentState = ClientSMTPState.CONNECTED;
     }
     // Definiert verschiedene Zustände, in denen sich ein SMTP-Client befinden kann
@@ -48,244 +106,663 @@ public class ClientSessionState {
         WAITING_RCPT_TO,
         WAITING_DATA,
         RECEIVING_DATA,
+        RECEIVING_CHUNK,
+        WAITING_CHUNK,
+        WAITING_STORAGE,
         QUIT_SENT,
         CLOSING
     }
 
+    //Reaktion auf einen Befehl in einem Zustand; hängt die Antwort selbst an
+    @FunctionalInterface
+    private interface CommandHandler {
+        void handle(ClientSessionState session, SMTPCommand command);
+    }
+
+    /*Übergangstabelle. In den Befehlszuständen sind QUIT und HELP immer erlaubt und alles nicht Eingetragene eine
+     * falsche Reihenfolge; nach QUIT bzw. beim Schließen wird nicht mehr geantwortet. In den übrigen Zuständen
+     * werden keine Befehle geparst, ein Eintrag dort ist ein interner Fehler.
+     */
+    private static CommandHandler[][] buildTransitions() {
+        final CommandHandler[][] table = new CommandHandler[STATES.length][COMMAND_TYPES.length];
+        for (CommandHandler[] row : table) {
+            Arrays.fill(row, (CommandHandler) ClientSessionState::unknownState);
+        }
+        for (ClientSMTPState state : List.of(ClientSMTPState.CONNECTED, ClientSMTPState.WAITING_MAIL_FROM,
+                ClientSMTPState.WAITING_RCPT_TO, ClientSMTPState.WAITING_CHUNK)) {
+            final CommandHandler[] row = table[state.ordinal()];
+            Arrays.fill(row, (CommandHandler) (session, command) -> session.enqueueResponse(SMTPReply.BAD_SEQUENCE));
+            row[SMTPCommandType.QUIT.ordinal()] = ClientSessionState::quit;
+            row[SMTPCommandType.HELP.ordinal()] = ClientSessionState::help;
+        }
+        for (ClientSMTPState state : List.of(ClientSMTPState.QUIT_SENT, ClientSMTPState.CLOSING)) {
+            Arrays.fill(table[state.ordinal()], (CommandHandler) (session, command) -> { });
+        }
+
+        //Wenn der Client verbunden ist, wird der HELO- oder EHLO-Befehl erwartet
+        final CommandHandler[] connected = table[ClientSMTPState.CONNECTED.ordinal()];
+        connected[SMTPCommandType.HELO.ordinal()] = ClientSessionState::helo;
+        connected[SMTPCommandType.EHLO.ordinal()] = ClientSessionState::ehlo;
+        connected[SMTPCommandType.BDAT.ordinal()] = (session, command) -> session.rejectChunk(command, SMTPReply.BAD_SEQUENCE);
+
+        //Wenn der Client im WAITING_MAIL_FROM-Zustand ist, wird der MAIL FROM-Befehl erwartet
+        final CommandHandler[] waitingMailFrom = table[ClientSMTPState.WAITING_MAIL_FROM.ordinal()];
+        waitingMailFrom[SMTPCommandType.MAIL_FROM.ordinal()] = ClientSessionState::mailFrom;
+        waitingMailFrom[SMTPCommandType.BDAT.ordinal()] = (session, command) -> session.rejectChunk(command, SMTPReply.BAD_SEQUENCE);
+
+        //Wenn der Client im WAITING_RCPT_TO-Zustand ist, werden RCPT TO und danach DATA oder BDAT erwartet
+        final CommandHandler[] waitingRcptTo = table[ClientSMTPState.WAITING_RCPT_TO.ordinal()];
+        waitingRcptTo[SMTPCommandType.RCPT_TO.ordinal()] = ClientSessionState::rcptTo;
+        waitingRcptTo[SMTPCommandType.DATA.ordinal()] = ClientSessionState::data;
+        waitingRcptTo[SMTPCommandType.BDAT.ordinal()] = ClientSessionState::firstChunk;
+
+        //Nach einem BDAT-Chunk ohne LAST werden nur weitere BDAT-Chunks erwartet
+        table[ClientSMTPState.WAITING_CHUNK.ordinal()][SMTPCommandType.BDAT.ordinal()] = ClientSessionState::startChunk;
+        return table;
+    }
+
     public void setCurrentState(ClientSMTPState currentState) {
+        final long now = System.nanoTime();
+        METRICS.stateLeft(this.currentState, now - stateEnteredAt);
+        stateEnteredAt = now;
         this.currentState = currentState;
-        log.info("Client state changed to: " + currentState);
+        if (log.isLoggable(Level.FINE)) {
+            log.fine("Client state changed to: " + currentState);
+        }
     }
 
-    //Diese Methode liest den ByteBuffer zeilenweise (\r\n als Zeilenende) und gibt eine Liste von Antworten zurück
-    public List<String> processReadBuffer() {
-        List<String> responses = new ArrayList<>();
+    //Gibt den Lesepuffer zurück und leiht bei Bedarf einen neuen aus dem Pool
+    public ByteBuffer acquireReadBuffer() {
+        if (clientReadBuffer == null) {
+            clientReadBuffer = bufferPool.acquire(1);
+        }
+        return clientReadBuffer;
+    }
 
+    //Gibt einen leeren Lesepuffer an den Pool zurück, damit untätige Sitzungen keinen Puffer belegen
+    public void releaseReadBufferIfEmpty() {
+        if (clientReadBuffer != null && clientReadBuffer.position() == 0) {
+            bufferPool.release(clientReadBuffer);
+            clientReadBuffer = null;
+        }
+    }
 
-        clientReadBuffer.flip();
-        int lineStart = clientReadBuffer.position();
+    //Hängt eine vorkodierte Antwort (siehe SMTPReply) an die ausgehenden Bytes an; reply selbst bleibt unverändert
+    public void enqueueResponse(ByteBuffer reply) {
+        final int length = reply.remaining();
+        final ByteBuffer out = outboundRoom(length);
+        if (out == null) {
+            outboundOverflow.add(reply.duplicate());
+            return;
+        }
+        out.put(out.position(), reply, reply.position(), length);
+        out.position(out.position() + length);
+    }
 
-        try{
-            // Iteriert über den ByteBuffer und sucht nach Zeilenenden (\r\n)
-            while (clientReadBuffer.hasRemaining()) {
-                byte b = clientReadBuffer.get();
-
-                if (b == '\r') {
-                    if (clientReadBuffer.hasRemaining()) {
-                        byte nextB = clientReadBuffer.get();
-                        if (nextB == '\n') {
-                            // found line ending \r\n
-                            // Zeilenende erkannt, verarbeite die Zeile
-                            int lineEnd = clientReadBuffer.position() - 2;
-                            int lineLength = lineEnd - lineStart;
-
-                            //formatiert Buffer zu einem String
-                            if (lineLength >= 0) {
-                                ByteBuffer lineBuffer = clientReadBuffer.duplicate().position(lineStart).limit(lineEnd);
-                                byte[] lineBytes = new byte[lineLength];
-                                lineBuffer.get(lineBytes);
-                                String completeLine = new String(lineBytes, StandardCharsets.US_ASCII);
-
-                                //wenn Server im receiving_data state ist, wird die Zeile als Datenzeile verarbeitet
-                                if (currentState == ClientSMTPState.RECEIVING_DATA) {
-                                    String dataResponse = processDataLine(completeLine);
-                                    if (dataResponse != null) {
-                                        responses.add(dataResponse);
-                                    }
-                                //sonst wird die Zeile als Befehl verarbeitet
-                                } else {
-                                    String commandResponse = processCommandLine(completeLine);
-                                    if (commandResponse != null) {
-                                        responses.add(commandResponse);
-                                    }
-                                }
-
-                                // Setze den Start der nächsten Zeile auf die aktuelle Position
-                                lineStart = clientReadBuffer.position();
-
-                                //Zeile ist leer
-                            } else {
-                                log.warning("Error processing line segment in buffer.");
-                                responses.add("500 Internal server error\r\n");
-                                return responses;
-                            }
-
-                        } else {
-                            // found \r but not \n
-                            clientReadBuffer.position(clientReadBuffer.position() - 1);
-                            clientReadBuffer.position(clientReadBuffer.position() - 1);
-                            break;
-                        }
-                    } else {
-                        // found \r as last last byte
-                        clientReadBuffer.position(clientReadBuffer.position() - 1);
-                        break;
-                    }
-                    }
-                }
-            } catch (IllegalArgumentException e) {
-                responses.add("500 Syntax error, command unrecognized\r\n");
-            } catch (Exception e) {
-                responses.add("451 Requested action aborted: local error in processing\r\n");
+    //Hängt text als US-ASCII an (Zeichen außerhalb von ASCII werden zu '?')
+    private void enqueueAscii(CharSequence text) {
+        final int length = text.length();
+        final ByteBuffer out = outboundRoom(length);
+        if (out == null) {
+            outboundOverflow.add(ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.US_ASCII)));
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            final char c = text.charAt(i);
+            out.put(c < 0x80 ? (byte) c : (byte) '?');
+        }
+    }
+
+    //Hängt eine nicht negative Zahl dezimal an, ohne sie vorher in einen String umzuwandeln
+    private void enqueueDecimal(long value) {
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        final ByteBuffer out = outboundRoom(digits);
+        if (out == null) {
+            outboundOverflow.add(ByteBuffer.wrap(Long.toString(value).getBytes(StandardCharsets.US_ASCII)));
+            return;
+        }
+        final int start = out.position();
+        for (int i = digits - 1; i >= 0; i--) {
+            out.put(start + i, (byte) ('0' + value % 10));
+            value /= 10;
+        }
+        out.position(start + digits);
+    }
+
+    /*Liefert den Ausgabepuffer mit Platz für length weitere Bytes; er wird bei Bedarf geliehen bzw. vergrößert.
+     * Reicht auch die größte Klasse nicht (sehr viele gepipelinte Befehle eines langsamen Lesers), liefert die Methode
+     * null und legt die Überlauf-Warteschlange an, in der die Reihenfolge erhalten bleibt.
+     */
+    private ByteBuffer outboundRoom(int length) {
+        if (outboundOverflow != null) {
+            return null;
+        }
+        if (outboundBuffer == null) {
+            outboundBuffer = bufferPool.acquire(Math.min(Math.max(length, 1), BufferPool.maxCapacity()));
+        }
+        while (outboundBuffer.remaining() < length) {
+            final ByteBuffer grown = bufferPool.grow(outboundBuffer);
+            if (grown == null) {
+                outboundOverflow = new ArrayDeque<>();
+                return null;
             }
+            outboundBuffer = grown;
+        }
+        return outboundBuffer;
+    }
 
-            clientReadBuffer.compact();
+    public boolean hasPendingOutput() {
+        return outboundBuffer != null || outboundOverflow != null;
+    }
 
-            return responses;
+    /*Schreibt alle ausstehenden Antworten in den Channel, im Normalfall mit einem einzigen write des Ausgabepuffers.
+     * Gibt true zurück, wenn danach nichts mehr ansteht, sonst false (Channel ist voll, auf OP_WRITE warten).
+     */
+    public boolean flushOutbound(GatheringByteChannel channel) throws IOException {
+        if (outboundBuffer != null) {
+            outboundBuffer.flip();
+            METRICS.bytesSent(channel.write(outboundBuffer));
+            if (outboundBuffer.hasRemaining()) {
+                outboundBuffer.compact();
+                return false;
+            }
+            bufferPool.release(outboundBuffer);
+            outboundBuffer = null;
         }
+        if (outboundOverflow == null) {
+            return true;
+        }
+
+        ByteBuffer[] buffers = outboundOverflow.toArray(new ByteBuffer[0]);
+        METRICS.bytesSent(channel.write(buffers));
 
-    //Verarbeitet den Befehl und gibt die Antwort zurück
-    private String processCommandLine(String commandLine) {
-        SMTPCommand command = SMTPCommandParser.parse(commandLine);
-        log.info("Parsed command: " + command.getType() + " with args: '" + command.getArguments() + "'");
+        //entfernt vollständig geschriebene Puffer, teilweise geschriebene bleiben vorne in der Warteschlange
+        while (!outboundOverflow.isEmpty() && !outboundOverflow.peekFirst().hasRemaining()) {
+            outboundOverflow.pollFirst();
+        }
+        if (!outboundOverflow.isEmpty()) {
+            return false;
+        }
+        outboundOverflow = null;
+        return true;
+    }
 
-        SMTPCommandType commandType = command.getType();
-        String arguments = command.getArguments();
-        String response;
+    //Diese Methode liest den ByteBuffer zeilenweise (\r\n als Zeilenende) und hängt die Antworten an die ausgehenden Bytes an
+    public void processReadBuffer() {
+        if (currentState == ClientSMTPState.WAITING_STORAGE || clientReadBuffer == null) {
+            return;
+        }
 
-        switch (currentState) {
-            //Wenn der Client verbunden ist, wird der HELO-Befehl erwartet
-            case CONNECTED:
-                if (commandType == SMTPCommandType.HELO) {
-                    setCurrentState(ClientSMTPState.WAITING_MAIL_FROM);
-                    clientName = arguments;
-                    response = "250 " + (arguments != null && !arguments.isBlank() ? arguments : "localhost") + "\r\n";
-                } else if (commandType == SMTPCommandType.QUIT) {
-                    setCurrentState(ClientSMTPState.QUIT_SENT);
-                    response = "221 Tschau Kakao\r\n";
-                } else if (commandType == SMTPCommandType.HELP) {
 
-                    response = getHelp(arguments);
+        clientReadBuffer.flip();
+        int lineStart = clientReadBuffer.position();
 
-                } else {
-                    response = "503 Bad sequence of commands\r\n";
+        // Iteriert über den ByteBuffer und sucht nach Zeilenenden (\r\n)
+        while (clientReadBuffer.hasRemaining()) {
+            //BDAT-Chunks werden ohne Zeilensuche am Stück übernommen
+            if (currentState == ClientSMTPState.RECEIVING_CHUNK) {
+                processChunkData();
+                lineStart = clientReadBuffer.position();
+                if (currentState == ClientSMTPState.WAITING_STORAGE) {
+                    break;
                 }
+                continue;
+            }
+
+            //springt zum nächsten \r (8 Bytes je Schritt, siehe ByteScanner) statt jedes Byte einzeln zu lesen
+            final int cr = ByteScanner.indexOf(clientReadBuffer, clientReadBuffer.position(), clientReadBuffer.limit(), (byte) '\r');
+            if (cr < 0) {
+                clientReadBuffer.position(clientReadBuffer.limit());
+                break;
+            }
+            clientReadBuffer.position(cr + 1);
+            if (!clientReadBuffer.hasRemaining()) {
+                // found \r as last byte, auf weitere Daten warten
                 break;
+            }
+            if (clientReadBuffer.get(clientReadBuffer.position()) != '\n') {
+                // found \r but not \n, gehört zur Zeile
+                continue;
+            }
+
+            // found line ending \r\n
+            // Zeilenende erkannt, verarbeite die Zeile
+            clientReadBuffer.get();
+            int lineEnd = clientReadBuffer.position() - 2;
 
-            //Wenn der Client im WAITING_MAIL_FROM-Zustand ist, wird der MAIL FROM-Befehl erwartet
-            case WAITING_MAIL_FROM:
-                if (commandType == SMTPCommandType.MAIL_FROM) {
-                    if (arguments != null && !arguments.isBlank()) {
-                        mailFromSender = arguments;
-                        rcptToRecipients.clear();
-                        messageData = new StringBuilder();
-                        setCurrentState(ClientSMTPState.WAITING_RCPT_TO);
-                        response = "250 Ok\r\n";
-                    } else {
-                        response = "501 Syntax error in parameters or arguments\r\n";
-                    }
-                } else if (commandType == SMTPCommandType.QUIT) {
-                    setCurrentState(ClientSMTPState.QUIT_SENT);
-                    response = "221 Tschau Kakao\r\n";
-                } else if (commandType == SMTPCommandType.HELP) {
-
-                    response = getHelp(arguments);
+            //Rest einer zu langen Zeile, die bereits mit 500 beantwortet wurde
+            if (discardingLine) {
+                discardingLine = false;
+                lineStart = clientReadBuffer.position();
+                continue;
+            }
 
+            try {
+                //wenn Server im receiving_data state ist, wird die Zeile direkt als Bytes in den Spool geschrieben
+                if (currentState == ClientSMTPState.RECEIVING_DATA) {
+                    processDataLine(lineStart, lineEnd);
+                //sonst wird die Zeile als Befehl verarbeitet
                 } else {
-                    response = "503 Bad sequence of commands\r\n";
+                    processCommandLine(lineStart, lineEnd);
                 }
-                break;
+            } catch (Exception e) {
+                enqueueResponse(SMTPReply.LOCAL_ERROR);
+            }
 
-            //Wenn der Client im WAITING_RCPT_TO-Zustand ist, wird der RCPT TO-Befehl erwartet
-            case WAITING_RCPT_TO:
-                if (commandType == SMTPCommandType.RCPT_TO) {
-                    if (arguments != null && !arguments.isBlank()) {
-                        if (validRecipients.contains(arguments)) {
-                            if (!rcptToRecipients.contains(arguments)) {
-                                rcptToRecipients.add(arguments);
-                                response = "250 Ok\r\n";
-                            } else {
-                                response = "550 duplicate recipient not allowed\r\n";
-                            }
-                        } else {
-                            response = "550 recipient not found: unknown recipient\r\n";
-                        }
-                    } else {
-                        response = "501 Syntax error in parameters or arguments\r\n";
-                    }
-                } else if (commandType == SMTPCommandType.DATA) {
-                    if (!rcptToRecipients.isEmpty()) {
-                        setCurrentState(ClientSMTPState.RECEIVING_DATA);
-                        response = "354 Start mail input; end with <CRLF>.<CRLF>\r\n";
-                        messageData = new StringBuilder();
-                    } else {
-                        response = "554 No valid recipients\r\n";
-                    }
-                } else if (commandType == SMTPCommandType.QUIT) {
-                    setCurrentState(ClientSMTPState.QUIT_SENT);
-                    response = "221 Tschau Kakao\r\n";
-                } else if (commandType == SMTPCommandType.HELP) {
-
-                    response = getHelp(arguments);
+            // Setze den Start der nächsten Zeile auf die aktuelle Position
+            lineStart = clientReadBuffer.position();
 
-                } else {
-                    response = "503 Bad sequence of commands\r\n";
-                }
+            //weitere (gepipelinte) Zeilen erst nach Abschluss der Speicherung verarbeiten
+            if (currentState == ClientSMTPState.WAITING_STORAGE) {
                 break;
+            }
+        }
 
-            // keine Antwort, wenn der Client QUIT gesendet hat oder der Server schließt
-            case QUIT_SENT, CLOSING:
-                response = null;
-                break;
+        //eine unvollständige Datenzeile wird schon jetzt in den Spool geschrieben, damit lange Zeilen den Buffer nicht füllen
+        if (currentState == ClientSMTPState.RECEIVING_DATA) {
+            lineStart = processPartialDataLine(lineStart, clientReadBuffer.limit());
+        }
 
-            // default-case für alle anderen schlechten Zustände
-            default:
-                response = "500 Internal server error (unknown state)\r\n";
-                log.severe("Client in unknown state: " + currentState + " received command: " + commandLine);
-                break;
+        //verworfene Zeile: nur ein abschließendes \r wird behalten, da es zum Zeilenende gehören kann
+        if (discardingLine) {
+            int limit = clientReadBuffer.limit();
+            lineStart = limit > lineStart && clientReadBuffer.get(limit - 1) == '\r' ? limit - 1 : limit;
         }
 
-        return response;
+        //unvollständige Zeile bleibt für den nächsten Lesevorgang im Buffer
+        clientReadBuffer.position(lineStart);
+        clientReadBuffer.compact();
+
+        //voller Puffer ohne Zeilenende: auf die nächste Größenklasse wechseln oder die Zeile ablehnen
+        if (!clientReadBuffer.hasRemaining() && currentState != ClientSMTPState.WAITING_STORAGE) {
+            ByteBuffer grown = bufferPool.grow(clientReadBuffer);
+            if (grown != null) {
+                clientReadBuffer = grown;
+            } else {
+                log.warning("Command line exceeds " + BufferPool.maxCapacity() + " bytes, discarding it.");
+                enqueueResponse(SMTPReply.LINE_TOO_LONG);
+                discardingLine = true;
+                clientReadBuffer.clear();
+            }
+        }
     }
 
+    //Verarbeitet den Befehl in [start, end) des Lesepuffers über die Übergangstabelle
+    private void processCommandLine(int start, int end) {
+        final SMTPCommand command = COMMAND.get();
+        if (!SMTPCommandParser.parse(clientReadBuffer, start, end, command)) {
+            METRICS.unknownCommand();
+            enqueueResponse(SMTPReply.UNRECOGNIZED);
+            return;
+        }
+        METRICS.commandReceived(command.getType());
+        if (log.isLoggable(Level.FINE)) {
+            log.fine("Parsed command: " + command.getType() + " with args: '" + command.getArguments() + "'");
+        }
 
+        TRANSITIONS[currentState.ordinal()][command.getType().ordinal()].handle(this, command);
+    }
 
+    private void helo(SMTPCommand command) {
+        setCurrentState(ClientSMTPState.WAITING_MAIL_FROM);
+        //ein bloßes HELO/EHLO wird angenommen, die Received-Kopfzeile braucht trotzdem einen Namen
+        clientName = command.hasArguments() ? command.getArguments() : DEFAULT_CLIENT_NAME;
+        enqueueResponse(SMTPReply.HELO_PREFIX);
+        enqueueAscii(clientName);
+        enqueueResponse(SMTPReply.CRLF);
+    }
 
+    private void ehlo(SMTPCommand command) {
+        setCurrentState(ClientSMTPState.WAITING_MAIL_FROM);
+        //ein bloßes HELO/EHLO wird angenommen, die Received-Kopfzeile braucht trotzdem einen Namen
+        clientName = command.hasArguments() ? command.getArguments() : DEFAULT_CLIENT_NAME;
+        enqueueResponse(SMTPReply.EHLO_PREFIX);
+        enqueueAscii(clientName);
+        enqueueResponse(SMTPReply.EHLO_CAPABILITIES);
+    }
+
+    private void mailFrom(SMTPCommand command) {
+        if (!command.hasArguments()) {
+            enqueueResponse(SMTPReply.BAD_PARAMETERS);
+            return;
+        }
+        //"MAIL FROM:<>" ist der leere Rückweg (RFC 5321 4.5.5, z.\ B. Unzustellbarkeitsmeldungen) und wird als
+        //leerer Absender angenommen; die Postfach-Dateien heißen dann "_<messageId>"
+        mailFromSender = command.getArguments();
+        if (rcptToRecipients != null) {
+            rcptToRecipients.clear();
+        }
+        setCurrentState(ClientSMTPState.WAITING_RCPT_TO);
+        enqueueResponse(SMTPReply.OK);
+    }
+
+    private void rcptTo(SMTPCommand command) {
+        if (!command.hasArguments()) {
+            enqueueResponse(SMTPReply.BAD_PARAMETERS);
+            return;
+        }
+        String recipient = command.getArguments();
+        if (!recipientDirectory.contains(recipient)) {
+            enqueueResponse(SMTPReply.UNKNOWN_RECIPIENT);
+            return;
+        }
+        if (rcptToRecipients == null) {
+            rcptToRecipients = new ArrayList<>(4);
+        }
+        if (rcptToRecipients.contains(recipient)) {
+            enqueueResponse(SMTPReply.DUPLICATE_RECIPIENT);
+            return;
+        }
+        if (rcptToRecipients.size() >= MAX_RECIPIENTS) {
+            enqueueResponse(SMTPReply.TOO_MANY_RECIPIENTS);
+            return;
+        }
+        rcptToRecipients.add(recipient);
+        enqueueResponse(SMTPReply.OK);
+    }
+
+    private void data(SMTPCommand command) {
+        if (!hasRecipients()) {
+            enqueueResponse(SMTPReply.NO_VALID_RECIPIENTS);
+            return;
+        }
+        setCurrentState(ClientSMTPState.RECEIVING_DATA);
+        enqueueResponse(SMTPReply.START_DATA);
+        messageData = filestorage.createSpool();
+        dataMidLine = false;
+    }
+
+    //erster BDAT-Chunk einer Transaktion; ohne Empfänger wird er gelesen und verworfen
+    private void firstChunk(SMTPCommand command) {
+        if (hasRecipients()) {
+            startChunk(command);
+        } else {
+            rejectChunk(command, SMTPReply.NO_VALID_RECIPIENTS);
+        }
+    }
+
+    private void quit(SMTPCommand command) {
+        setCurrentState(ClientSMTPState.QUIT_SENT);
+        enqueueResponse(SMTPReply.CLOSING);
+    }
+
+    private void help(SMTPCommand command) {
+        enqueueResponse(getHelp(command.getArguments()));
+    }
+
+    private void unknownState(SMTPCommand command) {
+        enqueueResponse(SMTPReply.INTERNAL_ERROR);
+        log.severe("Client in unknown state: " + currentState + " received command: " + command.getType());
+    }
+
+    private boolean hasRecipients() {
+        return rcptToRecipients != null && !rcptToRecipients.isEmpty();
+    }
 
     //listet alle Befehle auf oder gibt eine Beschreibung des angegebenen Befehls zurück
-    private String getHelp(String arguments) {
+    private static ByteBuffer getHelp(String arguments) {
         return switch (arguments) {
-            case null -> "214 Supported commands: HELO, MAIL FROM, RCPT TO, DATA, HELP, QUIT\r\n";
-            case "HELO" -> "214 HELO <hostname>: identify yourself to the server\r\n";
-            case "MAIL", "MAIL FROM" -> "214 MAIL FROM:<address>: specify sender\r\n";
-            case "RCPT", "RCPT TO" -> "214 RCPT TO:<address>: specify recipient\r\n";
-            case "DATA" -> "214 DATA: send email body, end with <CRLF>.<CRLF>\r\n";
-            case "QUIT" -> "214 QUIT: terminate the session\r\n";
-            default -> "502 Command not implemented or wrong spelling\r\n";
+            case null -> SMTPReply.HELP;
+            case "HELO" -> SMTPReply.HELP_HELO;
+            case "EHLO" -> SMTPReply.HELP_EHLO;
+            case "MAIL", "MAIL FROM" -> SMTPReply.HELP_MAIL;
+            case "RCPT", "RCPT TO" -> SMTPReply.HELP_RCPT;
+            case "DATA" -> SMTPReply.HELP_DATA;
+            case "BDAT" -> SMTPReply.HELP_BDAT;
+            case "QUIT" -> SMTPReply.HELP_QUIT;
+            default -> SMTPReply.NOT_IMPLEMENTED;
         };
     }
 
-    //Verarbeitet die Datenzeile und speichert die Nachricht, wenn das Ende erreicht ist
-    private String processDataLine(String dataLine) {
-        if (".".equals(dataLine.strip())) {
-            log.info("End of DATA detected.");
+    /*Verarbeitet die Datenzeile [start, end) direkt im Lesepuffer und übergibt die Nachricht zur Speicherung,
+     * wenn das Ende erreicht ist. Ein führender Punkt wird entfernt (Dot-Unstuffing), Zeilenenden als \n gespeichert.
+     */
+    private void processDataLine(int start, int end) {
+        if (!dataMidLine && end - start == 1 && clientReadBuffer.get(start) == '.') {
+            log.fine("End of DATA detected.");
+            startStore();
+            return;
+        }
 
+        if (!dataMidLine && start < end && clientReadBuffer.get(start) == '.') {
+            start++;
+        }
+        appendData(start, end);
+        appendDataByte((byte) '\n');
+        dataMidLine = false;
+    }
+
+    //Übergibt die vollständige Nachricht zur asynchronen Speicherung, die Antwort folgt in completeStore()
+    private void startStore() {
+        if (messageData == null) {
+            resetTransactionState();
+            setCurrentState(ClientSMTPState.WAITING_MAIL_FROM);
+            enqueueResponse(SMTPReply.LOCAL_ERROR);
+            return;
+        }
+
+        METRICS.messageReceived(messageData.size());
+
+        //Speichert Nachricht asynchron im Data-Verzeichnis
+        try {
+            pendingStore = filestorage.storeMessage(clientName, mailFromSender, rcptToRecipients, messageData);
+        } catch (RejectedExecutionException e) {
+            log.warning("Storage queue full, rejecting message.");
+            resetTransactionState();
+            setCurrentState(ClientSMTPState.WAITING_MAIL_FROM);
+            enqueueResponse(SMTPReply.STORAGE_FULL);
+            return;
+        }
+
+        setCurrentState(ClientSMTPState.WAITING_STORAGE);
+    }
+
+    //Beginnt einen BDAT-Chunk, dessen Bytes in den Spool übernommen werden
+    private void startChunk(SMTPCommand command) {
+        if (command.getChunkSize() < 0) {
+            enqueueResponse(SMTPReply.BAD_PARAMETERS);
+            return;
+        }
+        //der erste Chunk einer Transaktion legt den Spool an
+        if (currentState == ClientSMTPState.WAITING_RCPT_TO) {
+            messageData = filestorage.createSpool();
+        }
+        chunkSize = command.getChunkSize();
+        chunkRemaining = chunkSize;
+        lastChunk = command.isLastChunk();
+        setCurrentState(ClientSMTPState.RECEIVING_CHUNK);
+
+        //ein leerer Chunk (z.\ B. "BDAT 0 LAST") ist sofort vollständig
+        if (chunkRemaining == 0) {
+            finishChunk();
+        }
+    }
+
+    //Liest einen abgelehnten BDAT-Chunk vollständig, verwirft ihn und antwortet danach mit response (RFC 3030)
+    private void rejectChunk(SMTPCommand command, ByteBuffer response) {
+        if (command.getChunkSize() < 0) {
+            enqueueResponse(SMTPReply.BAD_PARAMETERS);
+            return;
+        }
+        chunkRejection = response;
+        chunkRejectionState = currentState;
+        chunkSize = command.getChunkSize();
+        chunkRemaining = chunkSize;
+        setCurrentState(ClientSMTPState.RECEIVING_CHUNK);
+        if (chunkRemaining == 0) {
+            finishChunk();
+        }
+    }
+
+    //Kopiert so viele Bytes des aktuellen Chunks wie vorhanden ohne Einzelprüfung in den Spool
+    private void processChunkData() {
+        final int position = clientReadBuffer.position();
+        final int count = (int) Math.min(chunkRemaining, clientReadBuffer.remaining());
+        if (chunkRejection == null) {
+            appendData(position, position + count);
+        }
+        clientReadBuffer.position(position + count);
+        chunkRemaining -= count;
+        if (chunkRemaining == 0) {
+            finishChunk();
+        }
+    }
 
-            //Speichert Nachricht im Data-Verzeichnis
+    private void finishChunk() {
+        if (chunkRejection != null) {
+            ByteBuffer response = chunkRejection;
+            chunkRejection = null;
+            setCurrentState(chunkRejectionState);
+            enqueueResponse(response);
+            return;
+        }
+        if (messageData == null) {
+            resetTransactionState();
+            setCurrentState(ClientSMTPState.WAITING_MAIL_FROM);
+            enqueueResponse(SMTPReply.LOCAL_ERROR);
+            return;
+        }
+        if (lastChunk) {
+            log.fine("Last BDAT chunk received.");
+            startStore();
+            return;
+        }
+        setCurrentState(ClientSMTPState.WAITING_CHUNK);
+        enqueueResponse(SMTPReply.CHUNK_PREFIX);
+        enqueueDecimal(chunkSize);
+        enqueueResponse(SMTPReply.CHUNK_SUFFIX);
+    }
+
+    /*Schreibt den bereits empfangenen Teil einer Datenzeile ohne Zeilenende in den Spool und gibt den neuen Zeilenanfang zurück.
+     * Ein abschließendes \r sowie ein einzelner Punkt am Zeilenanfang bleiben im Buffer, bis das nächste Byte feststeht.
+     */
+    private int processPartialDataLine(int start, int end) {
+        if (end > start && clientReadBuffer.get(end - 1) == '\r') {
+            end--;
+        }
+        if (!dataMidLine) {
+            if (end - start < 2) {
+                return start;
+            }
+            if (clientReadBuffer.get(start) == '.') {
+                appendData(start + 1, end);
+                dataMidLine = true;
+                return end;
+            }
+        }
+        if (end > start) {
+            appendData(start, end);
+            dataMidLine = true;
+        }
+        return end;
+    }
+
+    //schreibt den Bereich [start, end) des Lesepuffers in den Spool, ohne ihn zu kopieren
+    private void appendData(int start, int end) {
+        if (messageData == null) {
+            return;
+        }
+        final int position = clientReadBuffer.position();
+        final int limit = clientReadBuffer.limit();
+        try {
+            clientReadBuffer.limit(end).position(start);
+            messageData.write(clientReadBuffer);
+        } catch (IOException e) {
+            discardMessageData(e);
+        } finally {
+            clientReadBuffer.limit(limit).position(position);
+        }
+    }
+
+    private void appendDataByte(byte b) {
+        if (messageData == null) {
+            return;
+        }
+        try {
+            messageData.write(b);
+        } catch (IOException e) {
+            discardMessageData(e);
+        }
+    }
+
+    //nach einem Spool-Fehler werden die restlichen Daten verworfen und das Ende von DATA mit 451 beantwortet
+    private void discardMessageData(IOException cause) {
+        log.severe("Failed to spool message data: " + cause.getMessage());
+        closeMessageData();
+    }
+
+    private void closeMessageData() {
+        if (messageData != null) {
             try {
-                filestorage.storeMessage(clientName, mailFromSender, rcptToRecipients, messageData.toString());
+                messageData.close();
             } catch (IOException e) {
-                throw new RuntimeException(e);
+                log.warning("Failed to discard spooled message: " + e.getMessage());
             }
+            messageData = null;
+        }
+    }
 
-            //setzt Zustand zurück
-            resetTransactionState();
-            setCurrentState(ClientSMTPState.WAITING_MAIL_FROM);
-            return "250 Ok: message queued\r\n";
+    //Übergibt die gestartete Speicherung an den Event-Loop (einmalig, danach null)
+    public CompletableFuture<Void> takePendingStore() {
+        CompletableFuture<Void> store = pendingStore;
+        pendingStore = null;
+        return store;
+    }
+
+    //Wird nach Abschluss der Speicherung im Event-Loop aufgerufen und sendet die ausstehende Antwort
+    public void completeStore(Throwable failure) {
+        if (failure == null) {
+            enqueueResponse(SMTPReply.QUEUED);
         } else {
-            messageData.append(dataLine).append("\n");
-            return null;
+            log.severe("Failed to store message: " + failure.getMessage());
+            enqueueResponse(SMTPReply.LOCAL_ERROR);
         }
+
+        //setzt Zustand zurück
+        resetTransactionState();
+        setCurrentState(ClientSMTPState.WAITING_MAIL_FROM);
+    }
+
+    //Wird aufgerufen, wenn die Speicherung erst nach dem Schließen der Verbindung fertig wird: gibt nur noch
+    //die Transaktion frei, eine Antwort würde einen neuen Ausgabepuffer leihen, den niemand mehr zurückgibt
+    public void abandonStore() {
+        resetTransactionState();
+    }
+
+    public boolean isWaitingForStorage() {
+        return currentState == ClientSMTPState.WAITING_STORAGE;
     }
 
     public boolean isQuitSent() {
         return currentState == ClientSMTPState.QUIT_SENT;
     }
 
+    //Gibt Ressourcen der Sitzung frei, wenn die Verbindung geschlossen wird
+    public void close() {
+        if (currentState != ClientSMTPState.WAITING_STORAGE) {
+            closeMessageData();
+        }
+        if (clientReadBuffer != null) {
+            bufferPool.release(clientReadBuffer);
+            clientReadBuffer = null;
+        }
+        if (outboundBuffer != null) {
+            bufferPool.release(outboundBuffer);
+            outboundBuffer = null;
+        }
+        outboundOverflow = null;
+    }
+
     private void resetTransactionState() {
         mailFromSender = null;
-        rcptToRecipients.clear();
-        messageData = new StringBuilder();
-        log.info("Transaction state reset.");
+        if (rcptToRecipients != null) {
+            rcptToRecipients.clear();
+        }
+        closeMessageData();
+        dataMidLine = false;
+        log.fine("Transaction state reset.");
     }
-}
\ No newline at end of file
+}
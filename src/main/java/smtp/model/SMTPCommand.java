@@ -2,13 +2,71 @@ package smtp.model;
 
 import lombok.Getter;
 
-@Getter
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/*Wiederverwendbare Sicht auf einen geparsten SMTP-Befehl.
+ * Die Argumente werden nur als Bereich im Lesepuffer gemerkt und erst bei Bedarf (getArguments) zu einem String,
+ * sodass das Parsen selbst keine Objekte erzeugt. Die Sicht ist nur bis zum nächsten parse() bzw. bis
+ * zum Verändern des Puffers gültig.
+ */
 public class SMTPCommand {
-    private final SMTPCommandType type;
-    private final String arguments;
+    @Getter
+    private SMTPCommandType type;
+    private ByteBuffer source;
+    private int argumentStart;
+    private int argumentEnd;
+    private String arguments;
+    //nur für BDAT: angekündigte Chunk-Größe (-1 bei ungültiger Angabe) und ob es der letzte Chunk ist
+    @Getter
+    private long chunkSize = -1;
+    @Getter
+    private boolean lastChunk;
+
+    public SMTPCommand() {
+    }
 
     public SMTPCommand(SMTPCommandType type, String arguments) {
         this.type = type;
         this.arguments = arguments;
+        this.argumentStart = -1;
+    }
+
+    //setzt die Sicht auf einen neuen Befehl; argumentStart < 0 bedeutet "keine Argumente"
+    public void set(SMTPCommandType type, ByteBuffer source, int argumentStart, int argumentEnd) {
+        this.type = type;
+        this.source = source;
+        this.argumentStart = argumentStart;
+        this.argumentEnd = argumentEnd;
+        this.arguments = null;
+        this.chunkSize = -1;
+        this.lastChunk = false;
+    }
+
+    //setzt die Chunk-Angaben eines BDAT-Befehls
+    public void setChunk(long chunkSize, boolean lastChunk) {
+        this.chunkSize = chunkSize;
+        this.lastChunk = lastChunk;
+    }
+
+    public boolean hasArguments() {
+        return arguments != null || argumentStart >= 0;
+    }
+
+    //Argumente als String (null, wenn keine vorhanden); wird beim ersten Aufruf erzeugt
+    public String getArguments() {
+        if (arguments == null && argumentStart >= 0) {
+            arguments = decode(source, argumentStart, argumentEnd);
+        }
+        return arguments;
+    }
+
+    private static String decode(ByteBuffer source, int start, int end) {
+        if (source.hasArray()) {
+            return new String(source.array(), source.arrayOffset() + start, end - start, StandardCharsets.US_ASCII);
+        }
+        final byte[] bytes = new byte[end - start];
+        source.get(start, bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
     }
 }
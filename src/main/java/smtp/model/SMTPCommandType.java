@@ -1,30 +1,61 @@
 package smtp.model;
 
-import java.util.Arrays;
-import java.util.EnumSet;
-import java.util.Set;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 public enum SMTPCommandType {
     HELO("HELO"), //
+    EHLO("EHLO"), //
     MAIL_FROM("MAIL FROM:"), //
     RCPT_TO("RCPT TO:"), //
     DATA("DATA"), //
+    BDAT("BDAT"), //
     QUIT("QUIT"), //
     HELP("HELP");
 
+    private static final SMTPCommandType[] VALUES = values();
+
     public final String commandString;
+    //Befehl als US-ASCII-Bytes in Großbuchstaben, für den Vergleich direkt im Lesepuffer
+    private final byte[] commandBytes;
 
     SMTPCommandType(String commandString) {
         this.commandString = commandString;
+        this.commandBytes = commandString.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    //Länge des Befehls in Bytes (inklusive Doppelpunkt bei MAIL FROM:/RCPT TO:)
+    public int length() {
+        return commandBytes.length;
+    }
+
+    //prüft ohne Kopie und ohne Beachtung der Groß-/Kleinschreibung, ob der Befehl bei position im Puffer beginnt
+    public boolean matchesAt(ByteBuffer buffer, int position, int end) {
+        if (end - position < commandBytes.length) {
+            return false;
+        }
+        for (int i = 0; i < commandBytes.length; i++) {
+            int b = buffer.get(position + i);
+            //ASCII-Kleinbuchstaben in Großbuchstaben umwandeln
+            if (b >= 'a' && b <= 'z') {
+                b -= 'a' - 'A';
+            }
+            if (b != commandBytes[i]) {
+                return false;
+            }
+        }
+        return true;
     }
 
     //formatiert Command in einheitliches Format
     public static SMTPCommandType from(String line) {
-        final String trimmed = line.strip().toUpperCase();
-        return Arrays.stream(values()) //
-                .filter(type -> trimmed.startsWith(type.commandString)) //
-                .findFirst() //
-                .orElseThrow(() -> new IllegalArgumentException(line));
+        final String trimmed = line.strip();
+        for (SMTPCommandType type : VALUES) {
+            if (trimmed.regionMatches(true, 0, type.commandString, 0, type.commandString.length())) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException(line);
     }
 
 }
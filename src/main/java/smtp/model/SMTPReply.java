@@ -0,0 +1,61 @@
+package smtp.model;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/*Vorkodierte SMTP-Antworten als gemeinsame, schreibgeschützte ByteBuffer (US-ASCII, mit \r\n).
+ * Sitzungen kopieren sie per absolutem Bulk-Put in ihren Ausgabepuffer, Position und Limit der Konstanten ändern
+ * sich dabei nie; alle Worker-Threads können sie also gleichzeitig verwenden, ohne pro Antwort etwas zu erzeugen.
+ * Antworten mit variablem Teil (HELO/EHLO, BDAT-Bestätigung) bestehen aus einem Präfix und dem direkt als ASCII
+ * geschriebenen Rest.
+ */
+public final class SMTPReply {
+
+    public static final ByteBuffer GREETING = of("220 SMTP Server Hausaufgabe\r\n");
+    public static final ByteBuffer CLOSING = of("221 Tschau Kakao\r\n");
+    public static final ByteBuffer OK = of("250 Ok\r\n");
+    public static final ByteBuffer QUEUED = of("250 Ok: message queued\r\n");
+    public static final ByteBuffer START_DATA = of("354 Start mail input; end with <CRLF>.<CRLF>\r\n");
+    public static final ByteBuffer TIMEOUT = of("421 4.4.2 Timeout, closing connection\r\n");
+    public static final ByteBuffer LOCAL_ERROR = of("451 Requested action aborted: local error in processing\r\n");
+    public static final ByteBuffer STORAGE_FULL = of("451 Requested action aborted: storage queue full, try again later\r\n");
+    public static final ByteBuffer TOO_MANY_RECIPIENTS = of("452 Too many recipients\r\n");
+    public static final ByteBuffer INTERNAL_ERROR = of("500 Internal server error (unknown state)\r\n");
+    public static final ByteBuffer UNRECOGNIZED = of("500 Syntax error, command unrecognized\r\n");
+    public static final ByteBuffer LINE_TOO_LONG = of("500 Line too long\r\n");
+    public static final ByteBuffer BAD_PARAMETERS = of("501 Syntax error in parameters or arguments\r\n");
+    public static final ByteBuffer NOT_IMPLEMENTED = of("502 Command not implemented or wrong spelling\r\n");
+    public static final ByteBuffer BAD_SEQUENCE = of("503 Bad sequence of commands\r\n");
+    public static final ByteBuffer DUPLICATE_RECIPIENT = of("550 duplicate recipient not allowed\r\n");
+    public static final ByteBuffer UNKNOWN_RECIPIENT = of("550 recipient not found: unknown recipient\r\n");
+    public static final ByteBuffer NO_VALID_RECIPIENTS = of("554 No valid recipients\r\n");
+
+    //Präfixe und Endungen der Antworten mit variablem Teil
+    public static final ByteBuffer HELO_PREFIX = of("250 ");
+    public static final ByteBuffer EHLO_PREFIX = of("250-");
+    /*Erweiterungen, die auf EHLO angekündigt werden (RFC 1869).
+     * PIPELINING (RFC 2920): alle Antworten auf die Befehle eines Lesevorgangs werden gesammelt und gemeinsam gesendet.
+     * CHUNKING (RFC 3030): BDAT überträgt Chunks fester Länge, die ohne Zeilenprüfung in den Spool kopiert werden.
+     */
+    public static final ByteBuffer EHLO_CAPABILITIES = of("\r\n250-PIPELINING\r\n250-CHUNKING\r\n250 HELP\r\n");
+    public static final ByteBuffer CHUNK_PREFIX = of("250 Ok: ");
+    public static final ByteBuffer CHUNK_SUFFIX = of(" octets received\r\n");
+    public static final ByteBuffer CRLF = of("\r\n");
+
+    public static final ByteBuffer HELP = of("214 Supported commands: HELO, EHLO, MAIL FROM, RCPT TO, DATA, BDAT, HELP, QUIT\r\n");
+    public static final ByteBuffer HELP_HELO = of("214 HELO <hostname>: identify yourself to the server\r\n");
+    public static final ByteBuffer HELP_EHLO = of("214 EHLO <hostname>: identify yourself and list supported extensions\r\n");
+    public static final ByteBuffer HELP_MAIL = of("214 MAIL FROM:<address>: specify sender\r\n");
+    public static final ByteBuffer HELP_RCPT = of("214 RCPT TO:<address>: specify recipient\r\n");
+    public static final ByteBuffer HELP_DATA = of("214 DATA: send email body, end with <CRLF>.<CRLF>\r\n");
+    public static final ByteBuffer HELP_BDAT = of("214 BDAT <size> [LAST]: send the next <size> octets of the email body\r\n");
+    public static final ByteBuffer HELP_QUIT = of("214 QUIT: terminate the session\r\n");
+
+    private SMTPReply() {
+    }
+
+    //kodiert eine Antwort einmalig als schreibgeschützten Puffer
+    public static ByteBuffer of(String reply) {
+        return ByteBuffer.wrap(reply.getBytes(StandardCharsets.US_ASCII)).asReadOnlyBuffer();
+    }
+}
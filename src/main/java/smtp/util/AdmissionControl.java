@@ -0,0 +1,116 @@
+package smtp.util;
+
+import java.net.InetAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*Zulassung neuer Verbindungen direkt beim Accept.
+ * - Globale Obergrenze gleichzeitiger Verbindungen (smtp.maxConnections, Standard 10000).
+ * - Token Bucket je Absenderadresse (smtp.ratelimit.perSecond neue Verbindungen pro Sekunde mit
+ *   smtp.ratelimit.burst als Reserve; 0 schaltet die Begrenzung ab).
+ * Abgelehnte Verbindungen erhalten die zurückgegebene 421-Antwort und werden sofort geschlossen.
+ * admit wird von den Acceptor-Threads aufgerufen (bei mehreren Listenern gleichzeitig), release von beliebigen
+ * Worker-Threads. Die Buckets sind durch sich selbst geschützt; ohne Rate-Limit wird nicht synchronisiert.
+ */
+public class AdmissionControl {
+
+    public static final String TOO_MANY_CONNECTIONS = "421 4.7.0 Too many connections, try again later\r\n";
+    public static final String RATE_LIMITED = "421 4.7.0 Connection rate limit exceeded, try again later\r\n";
+    //obere Grenze der gemerkten Adressen, darüber wird die am längsten ungenutzte verworfen
+    private static final int MAX_TRACKED_ADDRESSES = 65536;
+
+    private final int maxConnections;
+    private final double tokensPerNano;
+    private final double burst;
+    private final AtomicInteger openConnections = new AtomicInteger();
+    //in Zugriffsreihenfolge, sodass die älteste Adresse immer vorne steht
+    private final LinkedHashMap<InetAddress, TokenBucket> buckets = new LinkedHashMap<>(1024, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<InetAddress, TokenBucket> eldest) {
+            return size() > MAX_TRACKED_ADDRESSES;
+        }
+    };
+
+    public AdmissionControl() {
+        this(Integer.getInteger("smtp.maxConnections", 10000),
+                Double.parseDouble(System.getProperty("smtp.ratelimit.perSecond", "0")),
+                Double.parseDouble(System.getProperty("smtp.ratelimit.burst", "20")));
+    }
+
+    public AdmissionControl(int maxConnections, double connectionsPerSecond, double burst) {
+        this.maxConnections = maxConnections;
+        this.tokensPerNano = connectionsPerSecond / 1_000_000_000d;
+        this.burst = Math.max(1, burst);
+    }
+
+    //Prüft eine neue Verbindung; liefert null, wenn sie angenommen ist, sonst die 421-Antwort
+    public String admit(InetAddress address, long nowNanos) {
+        if (tokensPerNano > 0 && !takeToken(address, nowNanos)) {
+            return RATE_LIMITED;
+        }
+        if (openConnections.incrementAndGet() > maxConnections) {
+            openConnections.decrementAndGet();
+            return TOO_MANY_CONNECTIONS;
+        }
+        return null;
+    }
+
+    //Meldet das Ende einer zuvor angenommenen Verbindung
+    public void release() {
+        openConnections.decrementAndGet();
+    }
+
+    public int getOpenConnections() {
+        return openConnections.get();
+    }
+
+    private boolean takeToken(InetAddress address, long nowNanos) {
+        synchronized (buckets) {
+            TokenBucket bucket = buckets.get(address);
+            if (bucket == null) {
+                bucket = new TokenBucket(burst, nowNanos);
+                buckets.put(address, bucket);
+            }
+            boolean allowed = bucket.tryTake(nowNanos);
+            evictRefilledBucket(nowNanos);
+            return allowed;
+        }
+    }
+
+    //entfernt höchstens die älteste Adresse, wenn ihr Bucket wieder voll ist (amortisiert O(1) je Accept)
+    private void evictRefilledBucket(long nowNanos) {
+        Map.Entry<InetAddress, TokenBucket> eldest = buckets.firstEntry();
+        if (eldest != null && eldest.getValue().isFull(nowNanos)) {
+            buckets.remove(eldest.getKey());
+        }
+    }
+
+    private final class TokenBucket {
+        private double tokens;
+        private long refilledAt;
+
+        private TokenBucket(double tokens, long nowNanos) {
+            this.tokens = tokens;
+            this.refilledAt = nowNanos;
+        }
+
+        private boolean tryTake(long nowNanos) {
+            refill(nowNanos);
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+
+        private boolean isFull(long nowNanos) {
+            return tokens + (nowNanos - refilledAt) * tokensPerNano >= burst;
+        }
+
+        private void refill(long nowNanos) {
+            tokens = Math.min(burst, tokens + (nowNanos - refilledAt) * tokensPerNano);
+            refilledAt = nowNanos;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package smtp.util;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/*Gemeinsamer Pool direkter ByteBuffer in festen Größenklassen (1 KiB bis 64 KiB).
+ * Sitzungen leihen sich einen Lesepuffer nur, solange sie ungelesene Bytes halten, und geben ihn danach zurück,
+ * sodass untätige Verbindungen keinen Puffer belegen. Reicht ein Puffer für eine Zeile nicht aus, wird er
+ * gegen einen der nächsten Größenklasse getauscht (grow), bis zur größten Klasse als harte Obergrenze.
+ * Der Pool ist threadsicher und kann von allen Workern gemeinsam genutzt werden.
+ */
+public class BufferPool {
+
+    private static final int[] SIZE_CLASSES = {1024, 4 * 1024, 16 * 1024, 64 * 1024};
+    //obere Grenze der im Pool gehaltenen freien Puffer je Größenklasse, darüber hinaus wird der Puffer verworfen
+    private static final int MAX_POOLED_PER_CLASS = Integer.getInteger("smtp.bufferpool.maxPooled", 4096);
+
+    private final Queue<ByteBuffer>[] freeBuffers;
+    private final AtomicInteger[] freeCounts;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public BufferPool() {
+        freeBuffers = new Queue[SIZE_CLASSES.length];
+        freeCounts = new AtomicInteger[SIZE_CLASSES.length];
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            freeBuffers[i] = new ConcurrentLinkedQueue<>();
+            freeCounts[i] = new AtomicInteger();
+        }
+    }
+
+    //größte Puffergröße und damit die maximale Länge einer Befehlszeile
+    public static int maxCapacity() {
+        return SIZE_CLASSES[SIZE_CLASSES.length - 1];
+    }
+
+    //Leiht einen leeren Puffer der kleinsten Größenklasse, die minCapacity fasst
+    public ByteBuffer acquire(int minCapacity) {
+        final int sizeClass = sizeClassFor(minCapacity);
+        if (sizeClass < 0) {
+            throw new IllegalArgumentException("Requested capacity exceeds maximum: " + minCapacity);
+        }
+
+        final ByteBuffer buffer = freeBuffers[sizeClass].poll();
+        if (buffer != null) {
+            freeCounts[sizeClass].decrementAndGet();
+            hits.increment();
+            return buffer;
+        }
+        misses.increment();
+        return ByteBuffer.allocateDirect(SIZE_CLASSES[sizeClass]);
+    }
+
+    //Gibt einen Puffer zurück; danach darf er vom Aufrufer nicht mehr verwendet werden
+    public void release(ByteBuffer buffer) {
+        final int sizeClass = sizeClassFor(buffer.capacity());
+        if (sizeClass < 0 || SIZE_CLASSES[sizeClass] != buffer.capacity() || !buffer.isDirect()) {
+            return;
+        }
+        if (freeCounts[sizeClass].incrementAndGet() > MAX_POOLED_PER_CLASS) {
+            freeCounts[sizeClass].decrementAndGet();
+            return;
+        }
+        buffer.clear();
+        freeBuffers[sizeClass].offer(buffer);
+    }
+
+    /*Tauscht einen vollen Puffer (im Schreibmodus) gegen einen der nächsten Größenklasse und übernimmt den Inhalt.
+     * Gibt null zurück, wenn der Puffer bereits die größte Klasse hat; der alte Puffer bleibt dann unverändert.
+     */
+    public ByteBuffer grow(ByteBuffer buffer) {
+        if (buffer.capacity() >= maxCapacity()) {
+            return null;
+        }
+        final ByteBuffer grown = acquire(buffer.capacity() + 1);
+        buffer.flip();
+        grown.put(buffer);
+        release(buffer);
+        return grown;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    //Anzahl der aktuell freien Puffer im Pool (alle Größenklassen)
+    public int getPooledBuffers() {
+        int pooled = 0;
+        for (AtomicInteger count : freeCounts) {
+            pooled += count.get();
+        }
+        return pooled;
+    }
+
+    private static int sizeClassFor(int capacity) {
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            if (SIZE_CLASSES[i] >= capacity) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
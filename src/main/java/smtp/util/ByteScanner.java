@@ -0,0 +1,68 @@
+package smtp.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/*Suche nach einem Byte (z.\ B. '\r' als Beginn eines Zeilenendes) in einem Bereich eines ByteBuffers.
+ * Standardmäßig per SWAR ("SIMD within a register"): je 8 Bytes werden als long gelesen, mit dem gesuchten Byte
+ * verknüpft und mit einer Bitmaske auf Null-Bytes geprüft; nur der Rest unter 8 Bytes wird einzeln gelesen.
+ * Die Maske ist exakt (keine Überträge zwischen den Bytes), daher liefert der erste gesetzte Treffer in
+ * Speicherreihenfolge direkt die Position, unabhängig von der Byte-Reihenfolge des Puffers.
+ * -Dsmtp.scan.swar=false schaltet auf die einfache Schleife über get(i) zurück.
+ */
+public final class ByteScanner {
+
+    static final boolean SWAR = Boolean.parseBoolean(System.getProperty("smtp.scan.swar", "true"));
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+
+    private ByteScanner() {
+    }
+
+    //Position des ersten value in [from, to) oder -1; Position und Limit des Puffers bleiben unverändert
+    public static int indexOf(ByteBuffer buffer, int from, int to, byte value) {
+        return SWAR ? indexOfSwar(buffer, from, to, value) : indexOfScalar(buffer, from, to, value);
+    }
+
+    static int indexOfScalar(ByteBuffer buffer, int from, int to, byte value) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static int indexOfSwar(ByteBuffer buffer, int from, int to, byte value) {
+        final long pattern = (value & 0xFFL) * ONES;
+        final boolean bigEndian = buffer.order() == ByteOrder.BIG_ENDIAN;
+        int i = from;
+        //zwei Wörter je Durchlauf, damit die Prüfungen unabhängig voneinander laufen können
+        for (; i <= to - 2 * Long.BYTES; i += 2 * Long.BYTES) {
+            final long first = matches(buffer.getLong(i) ^ pattern);
+            final long second = matches(buffer.getLong(i + Long.BYTES) ^ pattern);
+            if ((first | second) != 0) {
+                return first != 0 ? i + firstByte(first, bigEndian) : i + Long.BYTES + firstByte(second, bigEndian);
+            }
+        }
+        if (i <= to - Long.BYTES) {
+            final long found = matches(buffer.getLong(i) ^ pattern);
+            if (found != 0) {
+                return i + firstByte(found, bigEndian);
+            }
+            i += Long.BYTES;
+        }
+        return indexOfScalar(buffer, i, to, value);
+    }
+
+    //höchstes Bit eines Bytes genau dann gesetzt, wenn das Byte 0 ist (also dem gesuchten entsprach)
+    private static long matches(long word) {
+        return ~(((word & LOW_BITS) + LOW_BITS) | word | LOW_BITS);
+    }
+
+    //Index des ersten Treffers im Wort; bei Big Endian liegt das Byte mit der niedrigsten Adresse in den höchstwertigen Bits
+    private static int firstByte(long matches, boolean bigEndian) {
+        return (bigEndian ? Long.numberOfLeadingZeros(matches) : Long.numberOfTrailingZeros(matches)) >>> 3;
+    }
+}
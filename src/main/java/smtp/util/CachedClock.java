@@ -0,0 +1,70 @@
+package smtp.util;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*Uhr für Zeitstempel auf dem Hot-Path (Received-Kopfzeile).
+ * Das formatierte Datum ändert sich höchstens einmal pro Sekunde; ein Daemon-Thread ("smtp-clock") formatiert
+ * es kurz nach jedem Sekundenwechsel neu und legt es als ASCII-Bytes in einer volatilen Referenz ab.
+ * Leser vergleichen nur die aktuelle Sekunde mit der gecachten; läuft der Ticker hinterher, formatiert der
+ * Leser selbst, das Datum ist also nie veraltet. Die Zeitzone wird beim Start festgelegt.
+ */
+public final class CachedClock {
+
+    private static final DateTimeFormatter RECEIVED_FORMAT = DateTimeFormatter.ofPattern("dd MMM yy HH:mm:ss z", Locale.ENGLISH);
+    private static final CachedClock INSTANCE = new CachedClock(ZoneId.systemDefault(), true);
+
+    private final ZoneId zone;
+    private volatile Second current;
+
+    private record Second(long epochSecond, byte[] formatted) {
+    }
+
+    CachedClock(ZoneId zone, boolean startTicker) {
+        this.zone = zone;
+        this.current = format(System.currentTimeMillis() / 1000);
+        if (startTicker) {
+            startTicker();
+        }
+    }
+
+    public static CachedClock get() {
+        return INSTANCE;
+    }
+
+    /*Datum der aktuellen Sekunde im Format der Received-Kopfzeile ("16 Oct 26 23:01:24 UTC") als ASCII.
+     * Das Array wird geteilt und darf nicht verändert werden.
+     */
+    public byte[] receivedDate() {
+        final long epochSecond = System.currentTimeMillis() / 1000;
+        Second second = current;
+        if (second.epochSecond() != epochSecond) {
+            second = format(epochSecond);
+            current = second;
+        }
+        return second.formatted();
+    }
+
+    private Second format(long epochSecond) {
+        final ZonedDateTime time = ZonedDateTime.ofInstant(Instant.ofEpochSecond(epochSecond), zone);
+        return new Second(epochSecond, RECEIVED_FORMAT.format(time).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private void startTicker() {
+        final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "smtp-clock");
+            thread.setDaemon(true);
+            return thread;
+        });
+        //knapp nach dem Sekundenwechsel, damit der Hot-Path das neue Datum schon vorfindet
+        final long delayMillis = 1000 - System.currentTimeMillis() % 1000 + 1;
+        ticker.scheduleAtFixedRate(this::receivedDate, delayMillis, 1000, TimeUnit.MILLISECONDS);
+    }
+}
@@ -3,30 +3,123 @@ package smtp.util;
 import smtp.model.SMTPCommand;
 import smtp.model.SMTPCommandType;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
 //dient zum Parsen von SMTP-Befehlen
 public class SMTPCommandParser {
 
+    private static final long MAX_CHUNK_SIZE = Long.MAX_VALUE / 10;
+    private static final byte[] LAST = "LAST".getBytes(StandardCharsets.US_ASCII);
+
+    /*parst Befehlstyp und Argumente der Zeile [start, end) direkt aus dem Puffer in die wiederverwendbare Sicht command.
+     * Der Befehl wird über das erste Byte ausgewählt und ohne Beachtung der Groß-/Kleinschreibung verglichen.
+     * Gibt false zurück, wenn der Befehl unbekannt ist; dabei wird nichts allokiert.
+     */
+    public static boolean parse(ByteBuffer buffer, int start, int end, SMTPCommand command) {
+        start = skipWhitespace(buffer, start, end);
+        end = trimWhitespace(buffer, start, end);
+        if (start >= end) {
+            return false;
+        }
+
+        final SMTPCommandType type = switch (buffer.get(start) | 0x20) {
+            case 'h' -> SMTPCommandType.HELO.matchesAt(buffer, start, end) ? SMTPCommandType.HELO
+                    : SMTPCommandType.HELP.matchesAt(buffer, start, end) ? SMTPCommandType.HELP : null;
+            case 'e' -> SMTPCommandType.EHLO.matchesAt(buffer, start, end) ? SMTPCommandType.EHLO : null;
+            case 'm' -> SMTPCommandType.MAIL_FROM.matchesAt(buffer, start, end) ? SMTPCommandType.MAIL_FROM : null;
+            case 'r' -> SMTPCommandType.RCPT_TO.matchesAt(buffer, start, end) ? SMTPCommandType.RCPT_TO : null;
+            case 'd' -> SMTPCommandType.DATA.matchesAt(buffer, start, end) ? SMTPCommandType.DATA : null;
+            case 'b' -> SMTPCommandType.BDAT.matchesAt(buffer, start, end) ? SMTPCommandType.BDAT : null;
+            case 'q' -> SMTPCommandType.QUIT.matchesAt(buffer, start, end) ? SMTPCommandType.QUIT : null;
+            default -> null;
+        };
+        if (type == null) {
+            return false;
+        }
+
+        final int argumentStart = skipWhitespace(buffer, start + type.length(), end);
+        switch (type) {
+            case HELO, EHLO, HELP -> command.set(type, buffer, argumentStart < end ? argumentStart : -1, end);
+            case MAIL_FROM, RCPT_TO -> setAddress(command, type, buffer, argumentStart, end);
+            case DATA, QUIT -> command.set(type, buffer, -1, -1);
+            case BDAT -> setChunk(command, buffer, argumentStart, end);
+        }
+        return true;
+    }
+
     //parst Befehlstyp und Argumente aus der Eingabezeile und gibt ein SMTPCommand-Objekt zurück
     public static SMTPCommand parse(String line) {
-        final String trimmed = line.strip();
-        final SMTPCommandType type = SMTPCommandType.from(trimmed);
-        final String args = switch (type) {
-            case HELO -> trimmed.substring(type.commandString.length()+1);
-            case MAIL_FROM, RCPT_TO -> extractAddress(line, type.commandString.length()+1);
-            case DATA, QUIT -> null;
-            case HELP -> trimmed.length() > type.commandString.length()
-                         ? trimmed.substring(type.commandString.length()+1)
-                         : null;
-        };
-        return new SMTPCommand(type, args);
+        final byte[] bytes = line.getBytes(StandardCharsets.US_ASCII);
+        final SMTPCommand command = new SMTPCommand();
+        if (!parse(ByteBuffer.wrap(bytes), 0, bytes.length, command)) {
+            throw new IllegalArgumentException(line);
+        }
+        return command;
     }
 
     //für den Fall das '<' und '>' in der Adresse sind, werden diese entfernt
-    private static String extractAddress(String line, int offset) {
-        final String address = line.substring(offset);
-        if (address.startsWith("<") && address.endsWith(">")) {
-            return address.substring(1, address.length() - 1);
+    private static void setAddress(SMTPCommand command, SMTPCommandType type, ByteBuffer buffer, int start, int end) {
+        if (start < end && buffer.get(start) == '<') {
+            for (int i = start + 1; i < end; i++) {
+                if (buffer.get(i) == '>') {
+                    command.set(type, buffer, start + 1, i);
+                    return;
+                }
+            }
+        }
+        command.set(type, buffer, start < end ? start : -1, end);
+    }
+
+    //BDAT <chunk-size> [LAST] (RFC 3030); bei ungültigen Angaben bleibt die Chunk-Größe -1
+    private static void setChunk(SMTPCommand command, ByteBuffer buffer, int start, int end) {
+        command.set(SMTPCommandType.BDAT, buffer, start < end ? start : -1, end);
+
+        long size = 0;
+        int position = start;
+        while (position < end && buffer.get(position) >= '0' && buffer.get(position) <= '9') {
+            size = size * 10 + (buffer.get(position) - '0');
+            if (size > MAX_CHUNK_SIZE) {
+                return;
+            }
+            position++;
+        }
+        if (position == start) {
+            return;
+        }
+
+        final int lastStart = skipWhitespace(buffer, position, end);
+        if (lastStart == end) {
+            command.setChunk(size, false);
+        } else if (lastStart > position && end - lastStart == LAST.length && matchesIgnoreCase(buffer, lastStart, LAST)) {
+            command.setChunk(size, true);
         }
-        return address;
+    }
+
+    private static boolean matchesIgnoreCase(ByteBuffer buffer, int position, byte[] upperCase) {
+        for (int i = 0; i < upperCase.length; i++) {
+            if ((buffer.get(position + i) & ~0x20) != upperCase[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int skipWhitespace(ByteBuffer buffer, int position, int end) {
+        while (position < end && isWhitespace(buffer.get(position))) {
+            position++;
+        }
+        return position;
+    }
+
+    private static int trimWhitespace(ByteBuffer buffer, int start, int end) {
+        while (end > start && isWhitespace(buffer.get(end - 1))) {
+            end--;
+        }
+        return end;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t';
     }
 }
@@ -0,0 +1,166 @@
+package smtp.util;
+
+/*Hierarchisches Timing Wheel (Varghese/Lauck, wie die Timer im Linux-Kernel) für die Timeouts eines Workers.
+ * Vier Ebenen mit je 64 Slots decken bei 100 ms Tick-Länge rund 19 Tage ab. Ein Timeout liegt in einem
+ * Slot der Ebene, deren Auflösung zu seinem Abstand passt, und rutscht beim Weiterdrehen eine Ebene tiefer,
+ * bis er in Ebene 0 abläuft. Die Einträge sind intrusive, doppelt verkettete Listen, daher sind schedule,
+ * cancel und das Neuplanen bei jeder Aktivität O(1) und allokieren nichts.
+ * Nicht threadsicher: jedes Wheel gehört genau einem Event-Loop.
+ */
+public final class TimingWheel {
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    private static final long MAX_TICKS = (1L << (SLOT_BITS * LEVELS)) - 1;
+
+    private final long tickNanos;
+    private final long startNanos;
+    //Kopf-Einträge (ohne Aufgabe) jeder Slot-Liste, [Ebene][Slot]
+    private final Timeout[][] slots = new Timeout[LEVELS][SLOTS];
+    private long currentTick;
+    private int size;
+
+    public TimingWheel(long tickNanos, long nowNanos) {
+        if (tickNanos <= 0) {
+            throw new IllegalArgumentException("tickNanos must be positive: " + tickNanos);
+        }
+        this.tickNanos = tickNanos;
+        this.startNanos = nowNanos;
+        for (int level = 0; level < LEVELS; level++) {
+            for (int slot = 0; slot < SLOTS; slot++) {
+                Timeout head = new Timeout(null);
+                head.prev = head;
+                head.next = head;
+                slots[level][slot] = head;
+            }
+        }
+    }
+
+    //Plant timeout für deadlineNanos (System.nanoTime) ein; ein bereits geplanter Timeout wird verschoben
+    public void schedule(Timeout timeout, long deadlineNanos) {
+        unlink(timeout);
+        //frühestens beim nächsten Tick, auch wenn die Frist schon verstrichen ist
+        timeout.deadlineTick = Math.max(currentTick + 1, ceilTick(deadlineNanos));
+        insert(timeout);
+    }
+
+    public void cancel(Timeout timeout) {
+        unlink(timeout);
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    //Wartezeit für select(timeout) bis zum nächsten Tick; 0 (unbegrenzt), wenn kein Timeout geplant ist
+    public long millisUntilNextTick(long nowNanos) {
+        if (size == 0) {
+            return 0;
+        }
+        long nextTickNanos = startNanos + (currentTick + 1) * tickNanos;
+        return Math.max(1, (nextTickNanos - nowNanos + 999_999) / 1_000_000);
+    }
+
+    //Dreht das Rad bis nowNanos weiter und führt alle abgelaufenen Timeouts aus
+    public void advance(long nowNanos) {
+        final long targetTick = (nowNanos - startNanos) / tickNanos;
+        while (currentTick < targetTick) {
+            if (size == 0) {
+                //ohne Einträge gibt es nichts umzuhängen, das Rad springt direkt auf den Ziel-Tick
+                currentTick = targetTick;
+                return;
+            }
+            currentTick++;
+            cascade();
+            expire(slots[0][(int) (currentTick & SLOT_MASK)]);
+        }
+    }
+
+    //hängt beim Überlauf einer Ebene den nun fälligen Slot der nächsthöheren Ebene eine Ebene tiefer
+    private void cascade() {
+        int level = 1;
+        while (level < LEVELS && (currentTick & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+            level++;
+        }
+        //von oben nach unten, damit Einträge in einem Durchgang bis in Ebene 0 wandern können
+        for (int l = level - 1; l >= 1; l--) {
+            Timeout head = slots[l][(int) ((currentTick >>> (SLOT_BITS * l)) & SLOT_MASK)];
+            while (head.next != head) {
+                Timeout timeout = head.next;
+                unlink(timeout);
+                insert(timeout);
+            }
+        }
+    }
+
+    /*Entnimmt die Einträge einzeln, damit eine Aufgabe andere Timeouts desselben Slots noch abbrechen kann.
+     * Neu geplante Einträge landen immer in einem anderen Slot, die Schleife endet also.
+     */
+    private void expire(Timeout head) {
+        while (head.next != head) {
+            Timeout timeout = head.next;
+            unlink(timeout);
+            if (timeout.deadlineTick <= currentTick) {
+                timeout.task.run();
+            } else {
+                insert(timeout);
+            }
+        }
+    }
+
+    private void insert(Timeout timeout) {
+        long delta = Math.min(Math.max(0, timeout.deadlineTick - currentTick), MAX_TICKS);
+        long tick = currentTick + delta;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= (1L << (SLOT_BITS * (level + 1)))) {
+            level++;
+        }
+        Timeout head = slots[level][(int) ((tick >>> (SLOT_BITS * level)) & SLOT_MASK)];
+        timeout.prev = head.prev;
+        timeout.next = head;
+        head.prev.next = timeout;
+        head.prev = timeout;
+        timeout.scheduled = true;
+        size++;
+    }
+
+    private void unlink(Timeout timeout) {
+        if (!timeout.scheduled) {
+            return;
+        }
+        timeout.prev.next = timeout.next;
+        timeout.next.prev = timeout.prev;
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.scheduled = false;
+        size--;
+    }
+
+    private long ceilTick(long deadlineNanos) {
+        long offset = deadlineNanos - startNanos;
+        return offset <= 0 ? 0 : (offset + tickNanos - 1) / tickNanos;
+    }
+
+    //Eintrag im Wheel; wird einmal pro Verbindung angelegt und bei jeder Aktivität neu geplant
+    public static final class Timeout {
+        private final Runnable task;
+        private Timeout prev;
+        private Timeout next;
+        private long deadlineTick;
+        private boolean scheduled;
+
+        public Timeout(Runnable task) {
+            this.task = task;
+        }
+
+        public boolean isScheduled() {
+            return scheduled;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package file;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AsyncMailStorageServiceTest {
+
+    @TempDir
+    Path spoolDir;
+
+    //ein Error beim Schreiben muss das Future abschließen, sonst wartet die Sitzung für immer
+    @Test
+    void errorInWriterCompletesFutureExceptionally() throws Exception {
+        final AsyncMailStorageService storage = new AsyncMailStorageService(new FailingMailStorageService(), 1, 4);
+        try {
+            final ExecutionException failure = assertThrows(ExecutionException.class,
+                    () -> store(storage).get(10, TimeUnit.SECONDS));
+            assertInstanceOf(AssertionError.class, failure.getCause());
+
+            //der Writer-Thread läuft weiter und nimmt die nächste Nachricht an
+            assertThrows(ExecutionException.class, () -> store(storage).get(10, TimeUnit.SECONDS));
+        } finally {
+            storage.shutdown();
+        }
+    }
+
+    @Test
+    void ioExceptionCompletesFutureExceptionally() throws Exception {
+        final FailingMailStorageService failing = new FailingMailStorageService();
+        failing.ioFailure = true;
+        final AsyncMailStorageService storage = new AsyncMailStorageService(failing, 1, 4);
+        try {
+            final ExecutionException failure = assertThrows(ExecutionException.class,
+                    () -> store(storage).get(10, TimeUnit.SECONDS));
+            assertInstanceOf(IOException.class, failure.getCause());
+        } finally {
+            storage.shutdown();
+        }
+    }
+
+    private CompletableFuture<Void> store(AsyncMailStorageService storage) throws IOException {
+        final MessageSpool spool = new MessageSpool(spoolDir);
+        spool.write(ByteBuffer.wrap("Subject: x\r\n\r\nbody\r\n".getBytes(StandardCharsets.US_ASCII)));
+        return storage.storeMessage("client", "a@b.c", List.of("abc@def.edu"), spool);
+    }
+
+    private static final class FailingMailStorageService extends MailStorageService {
+        private boolean ioFailure;
+
+        @Override
+        protected void storeMessage(String client, String sender, List<String> recipients, MessageSpool messageBody,
+                                    SyncBatch sync) throws IOException {
+            if (ioFailure) {
+                throw new IOException("disk full");
+            }
+            throw new AssertionError("simulated writer failure");
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package file;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DeduplicationCacheTest {
+
+    private static final long TTL = 1_000_000_000L;
+
+    @Test
+    void remembersKeysForTheTtl() {
+        final DeduplicationCache cache = new DeduplicationCache(1024, TTL);
+        final long start = 5_000_000_000L;
+        assertFalse(cache.contains(42, start));
+
+        assertFalse(cache.remember(42, start));
+
+        assertTrue(cache.contains(42, start));
+        assertTrue(cache.contains(42, start + TTL - 1));
+        assertFalse(cache.contains(42, start + TTL));
+        //erneutes Speichern verlängert die Frist
+        cache.remember(42, start + TTL);
+        assertTrue(cache.contains(42, start + 2 * TTL - 1));
+    }
+
+    //bei halber Auslastung bleiben (bis auf wenige) alle Einträge erhalten
+    @Test
+    void keepsNearlyAllEntriesAtHalfLoad() {
+        final DeduplicationCache cache = new DeduplicationCache(1 << 16, TTL);
+        final long[] keys = randomKeys(cache.capacity() / 2, 1);
+        int evicted = 0;
+        for (final long key : keys) {
+            if (cache.remember(key, 0)) {
+                evicted++;
+            }
+        }
+        int missing = 0;
+        for (final long key : keys) {
+            if (!cache.contains(key, 1)) {
+                missing++;
+            }
+        }
+        assertEquals(evicted, missing);
+        assertTrue(missing < keys.length / 1000, missing + " of " + keys.length + " entries lost");
+    }
+
+    //ist die Tabelle voll, verdrängt ein neuer Schlüssel den ältesten, nie einen jüngeren
+    @Test
+    void evictsTheOldestEntryWhenFull() {
+        final DeduplicationCache cache = new DeduplicationCache(64, TTL);
+        final long[] keys = randomKeys(cache.capacity() * 4, 2);
+        for (int i = 0; i < keys.length; i++) {
+            cache.remember(keys[i], i);
+        }
+        //die zuletzt gespeicherten Schlüssel sind noch da, die ersten längst verdrängt
+        final long now = keys.length;
+        assertTrue(cache.contains(keys[keys.length - 1], now));
+        int oldestRemaining = 0;
+        for (int i = 0; i < cache.capacity(); i++) {
+            if (cache.contains(keys[i], now)) {
+                oldestRemaining++;
+            }
+        }
+        assertEquals(0, oldestRemaining);
+    }
+
+    //abgelaufene Einträge werden wiederverwendet und zählen nicht als Verdrängung
+    @Test
+    void expiredEntriesAreReusedWithoutEviction() {
+        final DeduplicationCache cache = new DeduplicationCache(1 << 16, TTL);
+        final int half = cache.capacity() / 2;
+        final long[] keys = randomKeys(2 * half, 3);
+        for (int i = 0; i < half; i++) {
+            cache.remember(keys[i], 0);
+        }
+        int evicted = 0;
+        for (int i = half; i < keys.length; i++) {
+            if (cache.remember(keys[i], TTL)) {
+                evicted++;
+            }
+        }
+        //gemeldet werden nur verdrängte gültige Einträge, also solche aus dem zweiten Durchgang
+        int missing = 0;
+        for (int i = 0; i < keys.length; i++) {
+            assertFalse(i < half && cache.contains(keys[i], TTL), "expired key " + i + " still present");
+            if (i >= half && !cache.contains(keys[i], TTL)) {
+                missing++;
+            }
+        }
+        assertEquals(missing, evicted);
+        assertTrue(evicted < half / 1000, evicted + " of " + half + " entries evicted");
+    }
+
+    //der Schlüssel hängt von Absender, Empfängermenge und Inhalt ab, nicht von der Reihenfolge der RCPT-Befehle
+    @Test
+    void keyIgnoresRecipientOrder() throws IOException {
+        final long key = DeduplicationCache.key("a@b.c", List.of("abc@def.edu", "stu@vwx.de"), spool("body"));
+
+        assertEquals(key, DeduplicationCache.key("a@b.c", List.of("stu@vwx.de", "abc@def.edu"), spool("body")));
+        assertNotEquals(key, DeduplicationCache.key("", List.of("abc@def.edu", "stu@vwx.de"), spool("body")));
+        assertNotEquals(key, DeduplicationCache.key("a@b.c", List.of("abc@def.edu"), spool("body")));
+        assertNotEquals(key, DeduplicationCache.key("a@b.c", List.of("abc@def.edu", "stu@vwx.de"), spool("body2")));
+        //die Trennbytes verhindern, dass sich Adressen gegenseitig verschieben
+        assertNotEquals(DeduplicationCache.key("a", List.of("bc"), spool("x")),
+                DeduplicationCache.key("ab", List.of("c"), spool("x")));
+        assertNotEquals(0, key);
+    }
+
+    @Test
+    void rejectsInvalidCapacity() {
+        assertThrows(IllegalArgumentException.class, () -> new DeduplicationCache(0, TTL));
+        assertThrows(IllegalArgumentException.class, () -> new DeduplicationCache((1 << 26) + 1, TTL));
+    }
+
+    private static long[] randomKeys(int count, long seed) {
+        final SplittableRandom random = new SplittableRandom(seed);
+        final long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            do {
+                keys[i] = random.nextLong();
+            } while (keys[i] == 0);
+        }
+        return keys;
+    }
+
+    private static MessageSpool spool(String content) throws IOException {
+        final MessageSpool spool = new MessageSpool(null);
+        spool.write(ByteBuffer.wrap(content.getBytes(StandardCharsets.US_ASCII)));
+        return spool;
+    }
+}
@@ -0,0 +1,208 @@
+package file;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MailboxLogTest {
+
+    //Platz für drei Nachrichten dieses Tests je Segment
+    private static final long SEGMENT_SIZE = MailboxLog.FILE_HEADER_SIZE + 3 * (MailboxLog.RECORD_HEADER_SIZE + 100);
+
+    @TempDir
+    Path dir;
+
+    @TempDir
+    Path spoolDir;
+
+    private MailboxLog log;
+
+    @AfterEach
+    void closeLog() throws IOException {
+        log.close();
+    }
+
+    @Test
+    void appendedMessagesAreIndexedAcrossSegments() throws IOException {
+        log = new MailboxLog(dir, SEGMENT_SIZE);
+        for (long id = 1; id <= 7; id++) {
+            append(id);
+        }
+
+        final List<MailboxLog.IndexEntry> entries = log.entries();
+        assertEquals(7, entries.size());
+        assertEquals(3, countFiles(MailboxLog.SEGMENT_SUFFIX));
+        for (int i = 0; i < entries.size(); i++) {
+            assertEquals(i + 1, entries.get(i).messageId());
+            assertEquals(i / 3 + 1, entries.get(i).sequence());
+            assertEquals(content(i + 1), read(entries.get(i)));
+        }
+    }
+
+    @Test
+    void deleteMarksIndexAndSegment() throws IOException {
+        log = new MailboxLog(dir, SEGMENT_SIZE);
+        for (long id = 1; id <= 4; id++) {
+            append(id);
+        }
+
+        assertTrue(log.delete(2));
+        assertFalse(log.delete(2), "already deleted");
+        assertFalse(log.delete(99), "unknown message");
+        assertTrue(log.entries().get(1).isDeleted());
+
+        //auch das Segment trägt die Markierung: ein aus ihm neu aufgebauter Index kennt sie ebenfalls
+        log.close();
+        deleteFiles(MailboxLog.INDEX_SUFFIX);
+        final List<MailboxLog.IndexEntry> rebuilt = log.entries();
+        assertEquals(4, rebuilt.size());
+        assertTrue(rebuilt.get(1).isDeleted());
+        assertFalse(rebuilt.get(0).isDeleted());
+    }
+
+    //kompaktiert werden nur abgeschlossene Segmente ab dem Anteil threshold gelöschter Bytes
+    @Test
+    void compactRewritesSegmentsAboveTheThreshold() throws IOException {
+        log = new MailboxLog(dir, SEGMENT_SIZE);
+        for (long id = 1; id <= 7; id++) {
+            append(id);
+        }
+        final long segmentBefore = Files.size(log.segmentPath(1));
+        log.delete(2);
+        //Segment 3 ist das aktive und wird nie angefasst
+        log.delete(7);
+
+        assertEquals(0, log.compact(0.5), "a third deleted is below the threshold");
+        assertEquals(segmentBefore, Files.size(log.segmentPath(1)));
+
+        final long reclaimed = log.compact(0.3);
+
+        final long recordSize = MailboxLog.RECORD_HEADER_SIZE + content(2).length();
+        assertEquals(recordSize, reclaimed);
+        assertEquals(segmentBefore - recordSize, Files.size(log.segmentPath(1)));
+        final List<MailboxLog.IndexEntry> entries = log.entries();
+        assertEquals(List.of(1L, 3L, 4L, 5L, 6L, 7L), entries.stream().map(MailboxLog.IndexEntry::messageId).toList());
+        for (final MailboxLog.IndexEntry entry : entries) {
+            assertEquals(content(entry.messageId()), read(entry));
+        }
+        assertTrue(entries.get(5).isDeleted());
+        assertEquals(0, countFiles(".tmp"));
+    }
+
+    @Test
+    void fullyDeletedSegmentsAreRemoved() throws IOException {
+        log = new MailboxLog(dir, SEGMENT_SIZE);
+        for (long id = 1; id <= 4; id++) {
+            append(id);
+        }
+        for (long id = 1; id <= 3; id++) {
+            log.delete(id);
+        }
+
+        assertTrue(log.compact(1.0) > 0);
+
+        assertFalse(Files.exists(log.segmentPath(1)));
+        assertEquals(1, countFiles(MailboxLog.INDEX_SUFFIX));
+        assertEquals(List.of(4L), log.entries().stream().map(MailboxLog.IndexEntry::messageId).toList());
+        //weitere Nachrichten landen im aktiven Segment
+        append(5);
+        assertEquals(2, log.entries().size());
+    }
+
+    //Absturz zwischen dem Umbenennen von Segment und Index: der alte Index trägt die alte Generation und wird neu aufgebaut
+    @Test
+    void staleIndexAfterCompactionIsRebuilt() throws IOException {
+        log = new MailboxLog(dir, SEGMENT_SIZE);
+        for (long id = 1; id <= 4; id++) {
+            append(id);
+        }
+        log.delete(1);
+        final Path index = dir.resolve(String.format("%020d", 1) + MailboxLog.INDEX_SUFFIX);
+        final Path staleIndex = spoolDir.resolve("stale.idx");
+        Files.copy(index, staleIndex);
+        log.compact(0.1);
+        Files.copy(staleIndex, index, StandardCopyOption.REPLACE_EXISTING);
+
+        final List<MailboxLog.IndexEntry> entries = log.entries();
+
+        assertEquals(List.of(2L, 3L, 4L), entries.stream().map(MailboxLog.IndexEntry::messageId).toList());
+        for (final MailboxLog.IndexEntry entry : entries) {
+            assertEquals(content(entry.messageId()), read(entry));
+        }
+    }
+
+    //Bytes hinter dem letzten indizierten Datensatz (abgebrochenes Schreiben) werden beim Öffnen verworfen
+    @Test
+    void unindexedTailIsDiscardedOnOpen() throws IOException {
+        log = new MailboxLog(dir, SEGMENT_SIZE);
+        append(1);
+        log.close();
+        final Path segment = log.segmentPath(1);
+        final long validSize = Files.size(segment);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap("half a record".getBytes(StandardCharsets.US_ASCII)));
+        }
+
+        append(2);
+
+        final List<MailboxLog.IndexEntry> entries = log.entries();
+        assertEquals(2, entries.size());
+        assertEquals(validSize, entries.get(1).offset());
+        assertEquals(content(2), read(entries.get(1)));
+    }
+
+    private void append(long id) throws IOException {
+        final String text = content(id);
+        final int split = text.indexOf('\n') + 1;
+        try (MessageSpool spool = new MessageSpool(spoolDir)) {
+            spool.write(ByteBuffer.wrap(text.substring(split).getBytes(StandardCharsets.US_ASCII)));
+            log.append(id, ByteBuffer.wrap(text.substring(0, split).getBytes(StandardCharsets.US_ASCII)), spool,
+                    new SyncBatch());
+        }
+    }
+
+    //Kopfzeile und Inhalt, zusammen 100 Bytes
+    private static String content(long id) {
+        final String header = "Received: message " + id + "\n";
+        return header + "x".repeat(100 - header.length());
+    }
+
+    private String read(MailboxLog.IndexEntry entry) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(entry.length());
+        try (FileChannel channel = FileChannel.open(log.segmentPath(entry.sequence()), StandardOpenOption.READ)) {
+            while (buffer.hasRemaining() && channel.read(buffer, entry.bodyOffset() + buffer.position()) > 0) {
+                //liest die Nachricht vollständig
+            }
+        }
+        return new String(buffer.array(), 0, buffer.position(), StandardCharsets.US_ASCII);
+    }
+
+    private long countFiles(String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(file -> file.toString().endsWith(suffix)).count();
+        }
+    }
+
+    private void deleteFiles(String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            for (final Path file : files.filter(path -> path.toString().endsWith(suffix)).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+}
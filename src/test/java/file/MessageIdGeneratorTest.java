@@ -0,0 +1,87 @@
+package file;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageIdGeneratorTest {
+
+    private static final int THREADS = 8;
+    private static final int IDS_PER_THREAD = 500_000;
+
+    //4 Mio. IDs aus 8 Threads gleichzeitig: keine Kollision, je Thread streng monoton
+    @Test
+    void concurrentIdsAreUniqueAndMonotonicPerThread() throws InterruptedException {
+        final MessageIdGenerator generator = new MessageIdGenerator(7);
+        final long[][] ids = new long[THREADS][IDS_PER_THREAD];
+        final CountDownLatch start = new CountDownLatch(1);
+        final Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final long[] own = ids[t];
+            threads[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int i = 0; i < own.length; i++) {
+                    own[i] = generator.nextId();
+                }
+            });
+            threads[t].start();
+        }
+        start.countDown();
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        final long[] all = new long[THREADS * IDS_PER_THREAD];
+        for (int t = 0; t < THREADS; t++) {
+            for (int i = 1; i < IDS_PER_THREAD; i++) {
+                assertTrue(ids[t][i] > ids[t][i - 1], "IDs of thread " + t + " not increasing at " + i);
+            }
+            System.arraycopy(ids[t], 0, all, t * IDS_PER_THREAD, IDS_PER_THREAD);
+        }
+        Arrays.sort(all);
+        for (int i = 1; i < all.length; i++) {
+            assertTrue(all[i] != all[i - 1], "Duplicate ID " + all[i]);
+        }
+    }
+
+    //die Knoten-ID liegt direkt über den 12 Bit der Sequenz
+    @Test
+    void idsCarryTheNodeId() {
+        final MessageIdGenerator generator = new MessageIdGenerator(MessageIdGenerator.MAX_NODE_ID);
+        for (int i = 0; i < 10_000; i++) {
+            assertEquals(MessageIdGenerator.MAX_NODE_ID, (generator.nextId() >>> 12) & MessageIdGenerator.MAX_NODE_ID);
+        }
+    }
+
+    //verschiedene Knoten vergeben nie dieselbe ID, auch nicht in derselben Millisekunde
+    @Test
+    void differentNodesNeverCollide() {
+        final MessageIdGenerator first = new MessageIdGenerator(1);
+        final MessageIdGenerator second = new MessageIdGenerator(2);
+        final long[] ids = new long[200_000];
+        for (int i = 0; i < ids.length; i += 2) {
+            ids[i] = first.nextId();
+            ids[i + 1] = second.nextId();
+        }
+        Arrays.sort(ids);
+        for (int i = 1; i < ids.length; i++) {
+            assertTrue(ids[i] != ids[i - 1], "Duplicate ID " + ids[i]);
+        }
+    }
+
+    @Test
+    void rejectsNodeIdsOutOfRange() {
+        assertThrows(IllegalArgumentException.class, () -> new MessageIdGenerator(-1));
+        assertThrows(IllegalArgumentException.class, () -> new MessageIdGenerator(MessageIdGenerator.MAX_NODE_ID + 1));
+    }
+}
@@ -0,0 +1,31 @@
+package file;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+//Speicher-Attrappe für Sitzungstests: hält jede Nachricht samt Received-Kopfzeile im Speicher, statt sie zu schreiben
+public class RecordingMailStorageService extends MailStorageService {
+
+    public record Message(String receivedHeader, String sender, List<String> recipients, byte[] body) {
+    }
+
+    private final List<Message> messages = new CopyOnWriteArrayList<>();
+
+    @Override
+    protected void storeMessage(String client, String sender, List<String> recipients, MessageSpool messageBody, SyncBatch sync)
+            throws IOException {
+        //dieselbe Kopfzeile wie beim echten Speichern, damit Fehler beim Erzeugen auch hier auffallen
+        final String header = new String(receivedHeader(client).array(), StandardCharsets.US_ASCII);
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        messageBody.transferTo(Channels.newChannel(body));
+        messages.add(new Message(header, sender, List.copyOf(recipients), body.toByteArray()));
+    }
+
+    public List<Message> getMessages() {
+        return messages;
+    }
+}
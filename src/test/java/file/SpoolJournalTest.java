@@ -0,0 +1,255 @@
+package file;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SpoolJournalTest {
+
+    private static final long SEGMENT_SIZE = 1024 * 1024;
+
+    @TempDir
+    Path dir;
+
+    @TempDir
+    Path spoolDir;
+
+    private SpoolJournal journal;
+
+    @AfterEach
+    void closeJournal() throws IOException {
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    //nach einem Neustart kommen alle nicht zugestellten Nachrichten vollständig und in Annahmereihenfolge zurück
+    @Test
+    void replayRecoversUndeliveredMessagesInOrder() throws IOException {
+        final byte[] binary = new byte[70_000];
+        for (int i = 0; i < binary.length; i++) {
+            binary[i] = (byte) (i * 31);
+        }
+        journal = open(SEGMENT_SIZE, new ArrayList<>());
+        append("Received: from a\r\n", "a@b.c", List.of("abc@def.edu"), "first\r\n".getBytes(StandardCharsets.US_ASCII));
+        //leerer Rückweg (MAIL FROM:<>) und ein Inhalt über der Speichergrenze des Spools
+        append("Received: from b\r\n", "", List.of("abc@def.edu", "stu@vwx.de"), binary);
+        append("Received: from c\r\n", "ümlaut@b.c", List.of("ghi@jkl.com"), new byte[0]);
+
+        final List<SpoolJournal.Message> recovered = reopen(SEGMENT_SIZE);
+
+        assertEquals(3, recovered.size());
+        assertEquals(3, journal.getPendingMessages());
+        assertMessage(recovered.get(0), "Received: from a\r\n", "a@b.c", List.of("abc@def.edu"),
+                "first\r\n".getBytes(StandardCharsets.US_ASCII));
+        assertMessage(recovered.get(1), "Received: from b\r\n", "", List.of("abc@def.edu", "stu@vwx.de"), binary);
+        assertMessage(recovered.get(2), "Received: from c\r\n", "ümlaut@b.c", List.of("ghi@jkl.com"), new byte[0]);
+        assertTrue(recovered.get(0).id < recovered.get(1).id && recovered.get(1).id < recovered.get(2).id);
+    }
+
+    //zugestellte Empfänger werden beim Replay übernommen, vollständig zugestellte Nachrichten fallen weg
+    @Test
+    void markDeliveredSurvivesRestart() throws IOException {
+        journal = open(SEGMENT_SIZE, new ArrayList<>());
+        final SpoolJournal.Message partly = append("H\r\n", "a@b.c", List.of("abc@def.edu", "stu@vwx.de"), body("x"));
+        final SpoolJournal.Message fully = append("H\r\n", "a@b.c", List.of("abc@def.edu"), body("y"));
+
+        assertFalse(journal.markDelivered(partly, 1));
+        assertTrue(journal.markDelivered(fully, 0));
+        //doppelte Meldung ändert nichts
+        assertTrue(journal.markDelivered(fully, 0));
+        assertEquals(1, journal.getPendingMessages());
+
+        final List<SpoolJournal.Message> recovered = reopen(SEGMENT_SIZE);
+
+        assertEquals(1, recovered.size());
+        assertEquals(partly.id, recovered.get(0).id);
+        assertFalse(recovered.get(0).delivered.get(0));
+        assertTrue(recovered.get(0).delivered.get(1));
+
+        assertTrue(journal.markDelivered(recovered.get(0), 0));
+        assertEquals(0, journal.getPendingMessages());
+        assertTrue(reopen(SEGMENT_SIZE).isEmpty());
+    }
+
+    //Empfängerindizes über 32767 werden beim Replay vorzeichenlos gelesen
+    @Test
+    void largeRecipientIndexSurvivesRestart() throws IOException {
+        final List<String> recipients = new ArrayList<>();
+        for (int i = 0; i < 40_000; i++) {
+            recipients.add("r" + i + "@def.edu");
+        }
+        journal = open(SEGMENT_SIZE, new ArrayList<>());
+        final SpoolJournal.Message message = append("H\r\n", "a@b.c", recipients, body("x"));
+        assertFalse(journal.markDelivered(message, 39_999));
+
+        final List<SpoolJournal.Message> recovered = reopen(SEGMENT_SIZE);
+
+        assertEquals(1, recovered.size());
+        assertEquals(recipients, recovered.get(0).recipients);
+        assertTrue(recovered.get(0).delivered.get(39_999));
+        assertEquals(1, recovered.get(0).delivered.cardinality());
+    }
+
+    //Werte, die nicht in die 16-Bit-Längenfelder passen, werden abgelehnt statt abgeschnitten
+    @Test
+    void oversizedMetadataIsRejected() throws IOException {
+        journal = open(SEGMENT_SIZE, new ArrayList<>());
+
+        assertThrows(IOException.class, () -> append("H\r\n", "a".repeat(0x10000), List.of("abc@def.edu"), body("x")));
+        assertThrows(IOException.class, () -> append("H\r\n", "a@b.c", Collections.nCopies(0x10000, "abc@def.edu"),
+                body("x")));
+        assertEquals(0, journal.getPendingMessages());
+    }
+
+    //ein beim Absturz halb geschriebener Datensatz am Ende wird abgeschnitten, die Nachrichten davor bleiben
+    @Test
+    void tornTailIsTruncated() throws IOException {
+        journal = open(SEGMENT_SIZE, new ArrayList<>());
+        final SpoolJournal.Message kept = append("H\r\n", "a@b.c", List.of("abc@def.edu"), body("kept"));
+        append("H\r\n", "a@b.c", List.of("abc@def.edu"), body("torn message body"));
+        journal.close();
+        journal = null;
+        final Path segment = lastSegment();
+        final long fullSize = Files.size(segment);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(fullSize - 5);
+        }
+
+        final List<SpoolJournal.Message> recovered = reopen(SEGMENT_SIZE);
+
+        assertEquals(1, recovered.size());
+        assertEquals(kept.id, recovered.get(0).id);
+        assertTrue(Files.size(segment) < fullSize - 5, "torn record was not cut off");
+        //das Journal bleibt beschreibbar, neue IDs liegen über den gelesenen
+        final SpoolJournal.Message next = append("H\r\n", "a@b.c", List.of("abc@def.edu"), body("next"));
+        assertTrue(next.id > kept.id);
+    }
+
+    //ein beschädigter Kopf (CRC passt nicht) beendet das Lesen des Segments an dieser Stelle
+    @Test
+    void corruptRecordIsDropped() throws IOException {
+        journal = open(SEGMENT_SIZE, new ArrayList<>());
+        append("H\r\n", "a@b.c", List.of("abc@def.edu"), body("good"));
+        final long secondRecord = Files.size(lastSegment());
+        append("H\r\n", "a@b.c", List.of("abc@def.edu"), body("bad"));
+        journal.close();
+        journal = null;
+        try (FileChannel channel = FileChannel.open(lastSegment(), StandardOpenOption.WRITE)) {
+            //erstes Byte der Metadaten des zweiten Datensatzes
+            channel.write(ByteBuffer.wrap(new byte[]{0x7F}), secondRecord + 32);
+        }
+
+        final List<SpoolJournal.Message> recovered = reopen(SEGMENT_SIZE);
+
+        assertEquals(1, recovered.size());
+        assertArrayEquals(body("good"), read(recovered.get(0).body));
+    }
+
+    //Segmente werden nur vom ältesten her gelöscht, sobald alle ihre Nachrichten zugestellt sind
+    @Test
+    void deliveredSegmentsAreDeletedOldestFirst() throws IOException {
+        //so klein, dass jede Nachricht ein eigenes Segment bekommt
+        journal = open(64, new ArrayList<>());
+        final List<SpoolJournal.Message> messages = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            messages.add(append("H\r\n", "a@b.c", List.of("abc@def.edu"), body("message " + i)));
+        }
+        final int initialSegments = segmentCount();
+        assertTrue(initialSegments >= 4, "expected one segment per message, got " + initialSegments);
+
+        //jüngere Nachrichten zuerst: ihre Segmente bleiben, solange das älteste noch aussteht
+        journal.markDelivered(messages.get(3), 0);
+        journal.markDelivered(messages.get(2), 0);
+        assertEquals(initialSegments, segmentCount());
+
+        journal.markDelivered(messages.get(0), 0);
+        assertEquals(initialSegments - 1, segmentCount());
+        journal.markDelivered(messages.get(1), 0);
+        //übrig bleibt nur das aktive Segment mit den DELIVERED-Datensätzen
+        assertEquals(1, segmentCount());
+
+        assertTrue(reopen(64).isEmpty());
+    }
+
+    private SpoolJournal open(long maxSegmentSize, List<SpoolJournal.Message> recovered) throws IOException {
+        return SpoolJournal.open(dir, maxSegmentSize, recovered);
+    }
+
+    private List<SpoolJournal.Message> reopen(long maxSegmentSize) throws IOException {
+        if (journal != null) {
+            journal.close();
+        }
+        final List<SpoolJournal.Message> recovered = new ArrayList<>();
+        journal = open(maxSegmentSize, recovered);
+        return recovered;
+    }
+
+    private SpoolJournal.Message append(String header, String sender, List<String> recipients, byte[] content)
+            throws IOException {
+        try (MessageSpool spool = new MessageSpool(spoolDir)) {
+            spool.write(ByteBuffer.wrap(content));
+            return journal.append(ByteBuffer.wrap(header.getBytes(StandardCharsets.US_ASCII)), sender, recipients,
+                    spool, new SyncBatch());
+        }
+    }
+
+    private static void assertMessage(SpoolJournal.Message message, String header, String sender, List<String> recipients,
+                                      byte[] content) throws IOException {
+        assertEquals(header, StandardCharsets.US_ASCII.decode(message.receivedHeader.duplicate()).toString());
+        assertEquals(sender, message.sender);
+        assertEquals(recipients, message.recipients);
+        assertTrue(message.delivered.isEmpty());
+        assertArrayEquals(content, read(message.body));
+        try {
+            assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(content), message.body.fingerprint());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] read(MessageSpool spool) throws IOException {
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        spool.transferTo(Channels.newChannel(content));
+        return content.toByteArray();
+    }
+
+    private static byte[] body(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private Path lastSegment() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(file -> file.toString().endsWith(SpoolJournal.SUFFIX)).sorted()
+                    .reduce((first, second) -> second).orElseThrow();
+        }
+    }
+
+    private int segmentCount() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return (int) files.filter(file -> file.toString().endsWith(SpoolJournal.SUFFIX)).count();
+        }
+    }
+}
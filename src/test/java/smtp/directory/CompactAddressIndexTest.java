@@ -0,0 +1,95 @@
+package smtp.directory;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CompactAddressIndexTest {
+
+    private static final int ADDRESSES = 100_000;
+
+    @Test
+    void findsEveryAddressWithAndWithoutBloomFilter() {
+        final List<String> addresses = addresses(ADDRESSES, "user");
+        for (final double fpp : new double[]{0, 0.01, 0.0001}) {
+            final CompactAddressIndex index = CompactAddressIndex.build(addresses, fpp);
+            assertEquals(fpp > 0, index.hasBloomFilter());
+            assertEquals(ADDRESSES, index.size());
+            for (final String address : addresses) {
+                assertTrue(index.contains(address), address);
+            }
+            for (final String unknown : addresses(10_000, "other")) {
+                assertFalse(index.contains(unknown), unknown);
+            }
+        }
+    }
+
+    @Test
+    void skipsInvalidAndDuplicateAddresses() {
+        final String tooLong = "a".repeat(CompactAddressIndex.MAX_ADDRESS_LENGTH) + "@b.c";
+        final CompactAddressIndex index = CompactAddressIndex.build(
+                List.of("abc@def.edu", "abc@def.edu", "", "müller@x.de", tooLong), 0.01);
+        assertEquals(1, index.size());
+        assertEquals(3, index.skipped());
+        assertTrue(index.contains("abc@def.edu"));
+        assertFalse(index.contains(""));
+        assertFalse(index.contains("müller@x.de"));
+        assertFalse(index.contains(tooLong));
+        //Adressen werden exakt verglichen
+        assertFalse(index.contains("ABC@def.edu"));
+    }
+
+    @Test
+    void emptyIndexContainsNothing() {
+        final CompactAddressIndex index = CompactAddressIndex.build(List.of(), 0.01);
+        assertEquals(0, index.size());
+        assertFalse(index.contains("abc@def.edu"));
+    }
+
+    //RecipientDirectory verlangt Lookups ohne Allokation, auch mit Bloom-Filter
+    @Test
+    void lookupsDoNotAllocate() {
+        final List<String> addresses = addresses(ADDRESSES, "user");
+        final List<String> unknown = addresses(ADDRESSES, "other");
+        final CompactAddressIndex index = CompactAddressIndex.build(addresses, 0.01);
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().threadId();
+
+        int found = lookUpAll(index, addresses, unknown);
+        final long before = threads.getThreadAllocatedBytes(threadId);
+        found += lookUpAll(index, addresses, unknown);
+        final long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        assertEquals(2 * ADDRESSES, found);
+        //Spielraum für Allokationen der JVM selbst (z.\ B. beim Kompilieren), weit unter einem Objekt je Lookup
+        assertTrue(allocated < 64 * 1024, "Lookups allocated " + allocated + " bytes");
+    }
+
+    private static int lookUpAll(CompactAddressIndex index, List<String> known, List<String> unknown) {
+        int found = 0;
+        for (int i = 0; i < known.size(); i++) {
+            if (index.contains(known.get(i))) {
+                found++;
+            }
+            if (index.contains(unknown.get(i))) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    private static List<String> addresses(int count, String prefix) {
+        final List<String> addresses = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            addresses.add(prefix + i + "@example.org");
+        }
+        return addresses;
+    }
+}
@@ -0,0 +1,133 @@
+package smtp.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LatencyHistogramTest {
+
+    //jeder Wert liegt in genau dem Bucket, dessen Grenzen ihn einschließen, um jede Zweierpotenz herum
+    @Test
+    void bucketBoundsEncloseEveryValue() {
+        for (int exponent = 0; exponent < 63; exponent++) {
+            final long power = 1L << exponent;
+            for (final long value : new long[]{power - 1, power, power + 1, power + power / 3, 2 * power - 1}) {
+                if (value < 0) {
+                    continue;
+                }
+                assertEnclosed(value);
+            }
+        }
+        assertEnclosed(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.bucketUpperBound(LatencyHistogram.bucketIndex(Long.MAX_VALUE)));
+    }
+
+    //Werte unter 32 werden exakt gezählt, darüber ist ein Bucket höchstens 1/32 des Werts breit
+    @Test
+    void resolutionIsExactBelow32AndAboutThreePercentAbove() {
+        for (long value = 0; value < 32; value++) {
+            assertEquals(value, LatencyHistogram.bucketIndex(value));
+            assertEquals(value, LatencyHistogram.bucketUpperBound((int) value));
+        }
+        int previous = LatencyHistogram.bucketIndex(31);
+        for (long value = 32; value < 1_000_000; value++) {
+            final int index = LatencyHistogram.bucketIndex(value);
+            assertTrue(index == previous || index == previous + 1, "buckets not contiguous at " + value);
+            previous = index;
+            final long upper = LatencyHistogram.bucketUpperBound(index);
+            assertTrue(upper - value < value / 32.0, "bucket too wide at " + value + ": upper bound " + upper);
+        }
+    }
+
+    @Test
+    void percentilesMeanAndMax() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 10_000; value++) {
+            histogram.record(value);
+        }
+
+        assertEquals(10_000, histogram.getCount());
+        assertEquals(10_000, histogram.getMax());
+        assertEquals(5_000, histogram.getMean());
+        assertWithinResolution(5_000, histogram.getPercentile(50));
+        assertWithinResolution(9_900, histogram.getPercentile(99));
+        assertEquals(10_000, histogram.getPercentile(100));
+        assertEquals(1, histogram.getPercentile(0));
+    }
+
+    @Test
+    void negativeValuesCountAsZero() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(100));
+    }
+
+    //ein Wert von 100 bei erwartetem Abstand 10 trägt die verdeckten Messungen 90, 80, ..., 10 nach
+    @Test
+    void expectedIntervalBackfillsCoordinatedOmission() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordWithExpectedInterval(100, 10);
+        assertEquals(10, histogram.getCount());
+        assertEquals(55, histogram.getMean());
+
+        histogram.reset();
+        histogram.recordWithExpectedInterval(5, 10);
+        assertEquals(1, histogram.getCount());
+    }
+
+    @Test
+    void concurrentRecordsAreNotLost() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final int threads = 4;
+        final int perThread = 200_000;
+        final CountDownLatch start = new CountDownLatch(1);
+        final Thread[] recorders = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            recorders[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int i = 0; i < perThread; i++) {
+                    histogram.record(i % 1000);
+                }
+            });
+            recorders[t].start();
+        }
+        start.countDown();
+        for (final Thread recorder : recorders) {
+            recorder.join();
+        }
+
+        assertEquals((long) threads * perThread, histogram.getCount());
+        assertEquals(999, histogram.getMax());
+        assertEquals(499, histogram.getMean());
+    }
+
+    @Test
+    void resetClearsEverything() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(123_456);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getMean());
+        assertEquals(0, histogram.getPercentile(99));
+    }
+
+    private static void assertEnclosed(long value) {
+        final int index = LatencyHistogram.bucketIndex(value);
+        assertTrue(LatencyHistogram.bucketUpperBound(index) >= value, "upper bound below " + value);
+        assertTrue(index == 0 || LatencyHistogram.bucketUpperBound(index - 1) < value, "lower bound above " + value);
+    }
+
+    private static void assertWithinResolution(long expected, long actual) {
+        assertTrue(actual >= expected && actual - expected <= expected / 32, "expected about " + expected + " but was " + actual);
+    }
+}
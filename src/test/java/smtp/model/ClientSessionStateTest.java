@@ -0,0 +1,172 @@
+package smtp.model;
+
+import file.RecordingMailStorageService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import smtp.directory.StaticRecipientDirectory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClientSessionStateTest {
+
+    private final SessionTester tester = new SessionTester();
+
+    @AfterEach
+    void shutdown() {
+        tester.close();
+    }
+
+    //ein bloßes HELO ohne Namen wird angenommen, die Nachricht trägt dann "localhost" als Client
+    @Test
+    void bareHeloThenDataStoresMessage() throws IOException {
+        final String replies = tester.run("HELO\r\nMAIL FROM:<a@b.c>\r\nRCPT TO:<abc@def.edu>\r\nDATA\r\n"
+                + "Hello\r\n.\r\nQUIT\r\n", 7);
+
+        assertEquals("250 localhost\r\n250 Ok\r\n250 Ok\r\n354 Start mail input; end with <CRLF>.<CRLF>\r\n"
+                + "250 Ok: message queued\r\n221 Tschau Kakao\r\n", replies);
+        final List<RecordingMailStorageService.Message> messages = tester.getRecorder().getMessages();
+        assertEquals(1, messages.size());
+        assertTrue(messages.get(0).receivedHeader().startsWith("Received: FROM localhost BY SMTPServer ; "),
+                messages.get(0).receivedHeader());
+        assertEquals("Hello\n", new String(messages.get(0).body(), StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    void bareEhloThenDataStoresMessage() throws IOException {
+        final String replies = tester.run("EHLO\r\nMAIL FROM:<a@b.c>\r\nRCPT TO:<abc@def.edu>\r\nDATA\r\n"
+                + "Hello\r\n.\r\nQUIT\r\n", 1024);
+
+        assertTrue(replies.startsWith("250-localhost\r\n"), replies);
+        assertTrue(replies.contains("250 Ok: message queued\r\n"), replies);
+        assertEquals(1, tester.getRecorder().getMessages().size());
+        assertTrue(tester.getRecorder().getMessages().get(0).receivedHeader().startsWith("Received: FROM localhost "));
+    }
+
+    //MAIL FROM:<> (leerer Rückweg, RFC 5321 4.5.5) wird angenommen und mit leerem Absender gespeichert
+    @Test
+    void nullReversePathIsAccepted() throws IOException {
+        final String replies = tester.run("HELO mx\r\nMAIL FROM:<>\r\nRCPT TO:<abc@def.edu>\r\nDATA\r\n"
+                + "bounce\r\n.\r\nQUIT\r\n", 1024);
+
+        assertTrue(replies.contains("250 Ok\r\n250 Ok\r\n354 "), replies);
+        assertTrue(replies.contains("250 Ok: message queued\r\n"), replies);
+        assertEquals("", tester.getRecorder().getMessages().get(0).sender());
+    }
+
+    @Test
+    void mailFromWithoutAddressIsRejected() throws IOException {
+        final String replies = tester.run("HELO mx\r\nMAIL FROM:\r\nQUIT\r\n", 1024);
+
+        assertEquals("250 mx\r\n501 Syntax error in parameters or arguments\r\n221 Tschau Kakao\r\n", replies);
+    }
+
+    //mehr als 1000 Empfänger je Nachricht werden mit 452 abgewiesen, die angenommenen bleiben erhalten
+    @Test
+    void recipientsBeyondTheLimitAreRejected() throws IOException {
+        final Set<String> addresses = new HashSet<>();
+        final StringBuilder transcript = new StringBuilder("HELO mx\r\nMAIL FROM:<a@b.c>\r\n");
+        for (int i = 0; i <= 1000; i++) {
+            addresses.add("user" + i + "@def.edu");
+            transcript.append("RCPT TO:<user").append(i).append("@def.edu>\r\n");
+        }
+        transcript.append("DATA\r\nHello\r\n.\r\nQUIT\r\n");
+
+        try (SessionTester session = new SessionTester(new StaticRecipientDirectory(addresses))) {
+            final String replies = session.run(transcript.toString(), 4096);
+
+            assertEquals("250 mx\r\n" + "250 Ok\r\n".repeat(1001) + "452 Too many recipients\r\n"
+                    + "354 Start mail input; end with <CRLF>.<CRLF>\r\n250 Ok: message queued\r\n"
+                    + "221 Tschau Kakao\r\n", replies);
+            assertEquals(1000, session.getRecorder().getMessages().get(0).recipients().size());
+        }
+    }
+
+    //endet die Speicherung erst nach dem Schließen der Verbindung, bleibt kein Puffer geliehen
+    @Test
+    void storeCompletingAfterCloseReleasesAllBuffers() {
+        final long borrowed = tester.closeBeforeStoreCompletes("HELO mx\r\nMAIL FROM:<a@b.c>\r\n"
+                + "RCPT TO:<abc@def.edu>\r\nDATA\r\nHello\r\n.\r\n");
+
+        assertEquals(0, borrowed);
+        assertEquals(1, tester.getRecorder().getMessages().size());
+    }
+
+    private static final String BDAT_ENVELOPE = "EHLO mx\r\nMAIL FROM:<a@b.c>\r\nRCPT TO:<abc@def.edu>\r\n";
+    private static final String EHLO_AND_ENVELOPE_REPLIES =
+            "250-mx\r\n250-PIPELINING\r\n250-CHUNKING\r\n250 HELP\r\n250 Ok\r\n250 Ok\r\n";
+
+    //BDAT-Chunks werden byte-genau übernommen, unabhängig davon, wie read() sie zerteilt
+    @Test
+    void bdatChunksAreStoredVerbatim() throws IOException {
+        final byte[] binary = new byte[256];
+        for (int i = 0; i < binary.length; i++) {
+            binary[i] = (byte) i;
+        }
+        //ein Chunk mit allen Bytewerten, einer mit Zeilenenden und Punkt, die bei DATA umgeschrieben würden
+        final byte[] text = "line\r\n.\r\n..x\n".getBytes(StandardCharsets.US_ASCII);
+        final ByteArrayOutputStream transcript = new ByteArrayOutputStream();
+        transcript.writeBytes((BDAT_ENVELOPE + "BDAT 256\r\n").getBytes(StandardCharsets.US_ASCII));
+        transcript.writeBytes(binary);
+        transcript.writeBytes(("BDAT " + text.length + " LAST\r\n").getBytes(StandardCharsets.US_ASCII));
+        transcript.writeBytes(text);
+        transcript.writeBytes("QUIT\r\n".getBytes(StandardCharsets.US_ASCII));
+        final ByteArrayOutputStream expectedBody = new ByteArrayOutputStream();
+        expectedBody.writeBytes(binary);
+        expectedBody.writeBytes(text);
+
+        for (final int fragmentSize : new int[]{1, 3, 7, 300, 4096}) {
+            try (SessionTester session = new SessionTester()) {
+                final String replies = session.run(transcript.toByteArray(), fragmentSize);
+
+                assertEquals(EHLO_AND_ENVELOPE_REPLIES + "250 Ok: 256 octets received\r\n"
+                        + "250 Ok: message queued\r\n221 Tschau Kakao\r\n", replies, "fragment size " + fragmentSize);
+                assertEquals(1, session.getRecorder().getMessages().size());
+                assertArrayEquals(expectedBody.toByteArray(), session.getRecorder().getMessages().get(0).body());
+            }
+        }
+    }
+
+    //"BDAT 0 LAST" schließt eine Nachricht ab, ohne weitere Bytes zu lesen
+    @Test
+    void emptyLastChunkCompletesTheMessage() throws IOException {
+        final String replies = tester.run(BDAT_ENVELOPE + "BDAT 2\r\nabBDAT 0 LAST\r\nQUIT\r\n", 5);
+
+        assertEquals(EHLO_AND_ENVELOPE_REPLIES + "250 Ok: 2 octets received\r\n250 Ok: message queued\r\n"
+                + "221 Tschau Kakao\r\n", replies);
+        assertArrayEquals("ab".getBytes(StandardCharsets.US_ASCII), tester.getRecorder().getMessages().get(0).body());
+    }
+
+    //ein abgelehnter Chunk wird trotzdem vollständig gelesen, seine Bytes gelten nicht als Befehle (RFC 3030)
+    @Test
+    void rejectedChunksAreSkippedEntirely() throws IOException {
+        final String withoutRecipients = tester.run("HELO mx\r\nMAIL FROM:<a@b.c>\r\nBDAT 6 LAST\r\nQUIT\r\n"
+                + "HELP QUIT\r\nQUIT\r\n", 4);
+        assertEquals("250 mx\r\n250 Ok\r\n554 No valid recipients\r\n"
+                + "214 QUIT: terminate the session\r\n221 Tschau Kakao\r\n", withoutRecipients);
+
+        final String beforeMail = tester.run("HELO mx\r\nBDAT 6\r\nQUIT\r\nQUIT\r\n", 4);
+        assertEquals("250 mx\r\n503 Bad sequence of commands\r\n221 Tschau Kakao\r\n", beforeMail);
+        assertTrue(tester.getRecorder().getMessages().isEmpty());
+    }
+
+    //nach einem Chunk ohne LAST ist nur BDAT erlaubt; ungültige Größen werden abgelehnt, ohne Daten zu lesen
+    @Test
+    void invalidChunkCommandsAreRejected() throws IOException {
+        final String replies = tester.run(BDAT_ENVELOPE + "BDAT x\r\nBDAT -1\r\nBDAT 1\r\nzDATA\r\n"
+                + "BDAT 1 LAST\r\nyQUIT\r\n", 1024);
+
+        assertEquals(EHLO_AND_ENVELOPE_REPLIES + "501 Syntax error in parameters or arguments\r\n"
+                + "501 Syntax error in parameters or arguments\r\n250 Ok: 1 octets received\r\n"
+                + "503 Bad sequence of commands\r\n250 Ok: message queued\r\n221 Tschau Kakao\r\n", replies);
+        assertArrayEquals("zy".getBytes(StandardCharsets.US_ASCII), tester.getRecorder().getMessages().get(0).body());
+    }
+}
@@ -0,0 +1,129 @@
+package smtp.model;
+
+import file.AsyncMailStorageService;
+import file.RecordingMailStorageService;
+import smtp.directory.RecipientDirectory;
+import smtp.directory.StaticRecipientDirectory;
+import smtp.util.BufferPool;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/*Spielt ein Transkript in Fragmenten fester Größe durch eine Sitzung, so wie es der Worker mit den Bytes aus
+ * read() tun würde, und sammelt alle Antworten als Text. Nachrichten landen im RecordingMailStorageService.
+ */
+final class SessionTester implements AutoCloseable {
+
+    private final RecordingMailStorageService recorder = new RecordingMailStorageService();
+    private final AsyncMailStorageService storage = new AsyncMailStorageService(recorder, 1, 16);
+    private final BufferPool bufferPool = new BufferPool();
+    private final RecipientDirectory recipientDirectory;
+
+    SessionTester() {
+        this(StaticRecipientDirectory.defaults());
+    }
+
+    SessionTester(RecipientDirectory recipientDirectory) {
+        this.recipientDirectory = recipientDirectory;
+    }
+
+    String run(String transcript, int fragmentSize) throws IOException {
+        return run(transcript.getBytes(StandardCharsets.ISO_8859_1), fragmentSize);
+    }
+
+    String run(byte[] transcript, int fragmentSize) throws IOException {
+        final ClientSessionState session = new ClientSessionState(bufferPool, storage, recipientDirectory);
+        final ByteArrayOutputStream replies = new ByteArrayOutputStream();
+        final ReplyChannel sink = new ReplyChannel(Channels.newChannel(replies));
+        try {
+            int offset = 0;
+            while (offset < transcript.length && !session.isQuitSent()) {
+                final ByteBuffer readBuffer = session.acquireReadBuffer();
+                final int length = Math.min(Math.min(fragmentSize, readBuffer.remaining()), transcript.length - offset);
+                readBuffer.put(transcript, offset, length);
+                offset += length;
+
+                session.processReadBuffer();
+                CompletableFuture<Void> store;
+                while ((store = session.takePendingStore()) != null) {
+                    Throwable failure = null;
+                    try {
+                        store.join();
+                    } catch (CompletionException e) {
+                        failure = e.getCause();
+                    }
+                    session.completeStore(failure);
+                    session.processReadBuffer();
+                }
+                session.releaseReadBufferIfEmpty();
+                session.flushOutbound(sink);
+            }
+        } finally {
+            session.close();
+        }
+        return replies.toString(StandardCharsets.US_ASCII);
+    }
+
+    /*Spielt das Transkript bis zur gestarteten Speicherung, schließt die Sitzung wie bei einem Verbindungsabbruch
+     * und meldet die Speicherung erst danach zurück, so wie es der Worker für einen ungültigen Key tut.
+     * Liefert die Zahl der danach noch aus dem Pool geliehenen Puffer.
+     */
+    long closeBeforeStoreCompletes(String transcript) {
+        final ClientSessionState session = new ClientSessionState(bufferPool, storage, recipientDirectory);
+        session.acquireReadBuffer().put(transcript.getBytes(StandardCharsets.ISO_8859_1));
+        session.processReadBuffer();
+        final CompletableFuture<Void> store = session.takePendingStore();
+        session.close();
+        store.join();
+        session.abandonStore();
+        return bufferPool.getMisses() - bufferPool.getPooledBuffers();
+    }
+
+    RecordingMailStorageService getRecorder() {
+        return recorder;
+    }
+
+    @Override
+    public void close() {
+        storage.shutdown();
+    }
+
+    //leitet Gathering-Writes an einen einfachen Channel weiter
+    private record ReplyChannel(WritableByteChannel target) implements GatheringByteChannel {
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            long total = 0;
+            for (int i = offset; i < offset + length; i++) {
+                total += target.write(srcs[i]);
+            }
+            return total;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) throws IOException {
+            return write(srcs, 0, srcs.length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            return target.write(src);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package smtp.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ByteScannerTest {
+
+    //gesuchte Werte, darunter solche mit gesetztem höchsten Bit und 0, die eine fehlerhafte Maske verraten würden
+    private static final byte[] VALUES = {'\r', '\n', 0, (byte) 0x80, (byte) 0xFF, 0x7F, 0x01};
+
+    //alle Bereiche [from, to) bis 40 Bytes: deckt Doppelwort, Einzelwort und Rest ab, jede Trefferposition einmal
+    @Test
+    void findsEveryPositionAtWordAndTailBoundaries() {
+        for (final boolean direct : new boolean[]{false, true}) {
+            for (final ByteOrder order : new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+                for (final byte value : VALUES) {
+                    final ByteBuffer buffer = allocate(40, direct, order);
+                    fill(buffer, (byte) (value ^ 0x80));
+                    for (int from = 0; from <= 16; from++) {
+                        for (int to = from; to <= 40; to++) {
+                            assertEquals(-1, ByteScanner.indexOfSwar(buffer, from, to, value),
+                                    describe(direct, order, value, from, to));
+                            for (int match = from; match < to; match++) {
+                                buffer.put(match, value);
+                                assertEquals(match, ByteScanner.indexOfSwar(buffer, from, to, value),
+                                        describe(direct, order, value, from, to) + " match=" + match);
+                                buffer.put(match, (byte) (value ^ 0x80));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    //Treffer außerhalb von [from, to) zählen nicht, auch wenn sie im selben Wort liegen
+    @Test
+    void ignoresMatchesOutsideTheRange() {
+        final ByteBuffer buffer = allocate(32, true, ByteOrder.BIG_ENDIAN);
+        fill(buffer, (byte) 'a');
+        buffer.put(3, (byte) '\r');
+        buffer.put(20, (byte) '\r');
+        assertEquals(-1, ByteScanner.indexOfSwar(buffer, 4, 20, (byte) '\r'));
+        assertEquals(20, ByteScanner.indexOfSwar(buffer, 4, 21, (byte) '\r'));
+        assertEquals(3, ByteScanner.indexOfSwar(buffer, 0, 32, (byte) '\r'));
+    }
+
+    //mehrere Treffer: immer der erste, auch wenn ein späterer im selben oder im vorderen Wort des Paars liegt
+    @Test
+    void returnsTheFirstOfSeveralMatches() {
+        final Random random = new Random(7);
+        for (int round = 0; round < 20_000; round++) {
+            final int length = random.nextInt(200);
+            final ByteBuffer buffer = allocate(length, random.nextBoolean(),
+                    random.nextBoolean() ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < length; i++) {
+                //kleines Alphabet, damit Treffer häufig und oft mehrfach in einem Wort vorkommen
+                buffer.put(i, (byte) ('\n' + random.nextInt(5)));
+            }
+            final int from = length == 0 ? 0 : random.nextInt(length);
+            final int to = from + random.nextInt(length - from + 1);
+            assertEquals(ByteScanner.indexOfScalar(buffer, from, to, (byte) '\r'),
+                    ByteScanner.indexOfSwar(buffer, from, to, (byte) '\r'), "round " + round);
+        }
+    }
+
+    @Test
+    void leavesPositionAndLimitUnchanged() {
+        final ByteBuffer buffer = allocate(64, true, ByteOrder.BIG_ENDIAN);
+        fill(buffer, (byte) 'x');
+        buffer.put(50, (byte) '\r');
+        buffer.position(5).limit(60);
+        assertEquals(50, ByteScanner.indexOf(buffer, 5, 60, (byte) '\r'));
+        assertEquals(5, buffer.position());
+        assertEquals(60, buffer.limit());
+    }
+
+    private static ByteBuffer allocate(int capacity, boolean direct, ByteOrder order) {
+        return (direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity)).order(order);
+    }
+
+    private static void fill(ByteBuffer buffer, byte filler) {
+        for (int i = 0; i < buffer.capacity(); i++) {
+            buffer.put(i, filler);
+        }
+    }
+
+    private static String describe(boolean direct, ByteOrder order, byte value, int from, int to) {
+        return (direct ? "direct " : "heap ") + order + " value=" + value + " from=" + from + " to=" + to;
+    }
+}
@@ -0,0 +1,147 @@
+package smtp.util;
+
+import org.junit.jupiter.api.Test;
+import smtp.model.SMTPCommand;
+import smtp.model.SMTPCommandType;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SMTPCommandParserTest {
+
+    private final SMTPCommand command = new SMTPCommand();
+
+    //parst die Zeile aus einem direkten Puffer, umgeben von fremden Bytes wie im Lesepuffer
+    private boolean parse(String line) {
+        final byte[] bytes = ("xx" + line + "\r\nyy").getBytes(StandardCharsets.US_ASCII);
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+        return SMTPCommandParser.parse(buffer, 2, 2 + line.length(), command);
+    }
+
+    @Test
+    void verbsAreCaseInsensitive() {
+        assertTrue(parse("helo client.example.org"));
+        assertEquals(SMTPCommandType.HELO, command.getType());
+        assertEquals("client.example.org", command.getArguments());
+
+        assertTrue(parse("eHlO mx"));
+        assertEquals(SMTPCommandType.EHLO, command.getType());
+        assertTrue(parse("Data"));
+        assertEquals(SMTPCommandType.DATA, command.getType());
+        assertTrue(parse("quit"));
+        assertEquals(SMTPCommandType.QUIT, command.getType());
+    }
+
+    @Test
+    void surroundingWhitespaceIsIgnored() {
+        assertTrue(parse(" \tHELO   client  \t"));
+        assertEquals("client", command.getArguments());
+        assertTrue(parse("DATA  "));
+        assertFalse(command.hasArguments());
+    }
+
+    @Test
+    void unknownOrEmptyLinesAreRejected() {
+        assertFalse(parse("NOOP"));
+        assertFalse(parse("HEL"));
+        assertFalse(parse(""));
+        assertFalse(parse("   "));
+        assertFalse(parse("MAIL TO:<a@b.c>"));
+    }
+
+    @Test
+    void addressesWithAndWithoutBrackets() {
+        assertTrue(parse("MAIL FROM:<a@b.c>"));
+        assertEquals(SMTPCommandType.MAIL_FROM, command.getType());
+        assertEquals("a@b.c", command.getArguments());
+
+        assertTrue(parse("RCPT TO: <abc@def.edu>"));
+        assertEquals(SMTPCommandType.RCPT_TO, command.getType());
+        assertEquals("abc@def.edu", command.getArguments());
+
+        assertTrue(parse("rcpt to:abc@def.edu"));
+        assertEquals("abc@def.edu", command.getArguments());
+    }
+
+    //Parameter nach der spitzen Klammer (z.\ B. SIZE=) gehören nicht zur Adresse
+    @Test
+    void parametersAfterTheAddressAreIgnored() {
+        assertTrue(parse("MAIL FROM:<a@b.c> SIZE=1000 BODY=8BITMIME"));
+        assertEquals("a@b.c", command.getArguments());
+    }
+
+    //der leere Rückweg "<>" ergibt einen leeren, aber vorhandenen Absender
+    @Test
+    void nullReversePathIsAnEmptySender() {
+        assertTrue(parse("MAIL FROM:<>"));
+        assertTrue(command.hasArguments());
+        assertEquals("", command.getArguments());
+    }
+
+    @Test
+    void missingAddressHasNoArguments() {
+        assertTrue(parse("MAIL FROM:"));
+        assertFalse(command.hasArguments());
+        assertNull(command.getArguments());
+        assertTrue(parse("RCPT TO:   "));
+        assertFalse(command.hasArguments());
+    }
+
+    @Test
+    void helpWithAndWithoutTopic() {
+        assertTrue(parse("HELP"));
+        assertEquals(SMTPCommandType.HELP, command.getType());
+        assertFalse(command.hasArguments());
+        assertTrue(parse("help  mail"));
+        assertEquals("mail", command.getArguments());
+    }
+
+    @Test
+    void bdatChunkSizes() {
+        assertTrue(parse("BDAT 65536"));
+        assertEquals(SMTPCommandType.BDAT, command.getType());
+        assertEquals(65536, command.getChunkSize());
+        assertFalse(command.isLastChunk());
+
+        assertTrue(parse("bdat 0 last"));
+        assertEquals(0, command.getChunkSize());
+        assertTrue(command.isLastChunk());
+
+        assertTrue(parse("BDAT 12   LAST  "));
+        assertEquals(12, command.getChunkSize());
+        assertTrue(command.isLastChunk());
+    }
+
+    //ungültige Angaben werden als Befehl erkannt, die Chunk-Größe bleibt aber -1 (Antwort 501)
+    @Test
+    void invalidBdatArgumentsLeaveChunkSizeUnset() {
+        for (String line : new String[]{"BDAT", "BDAT x", "BDAT -1", "BDAT 12LAST", "BDAT 12 LAS", "BDAT 12 LAST x",
+                "BDAT 99999999999999999999"}) {
+            assertTrue(parse(line), line);
+            assertEquals(-1, command.getChunkSize(), line);
+            assertFalse(command.isLastChunk(), line);
+        }
+    }
+
+    //die Sicht wird bei jedem parse vollständig zurückgesetzt
+    @Test
+    void reusedCommandDoesNotKeepOldValues() {
+        assertTrue(parse("BDAT 5 LAST"));
+        assertTrue(parse("DATA"));
+        assertEquals(-1, command.getChunkSize());
+        assertFalse(command.isLastChunk());
+        assertNull(command.getArguments());
+    }
+
+    @Test
+    void heapBufferAndStringVariantsAgree() {
+        final SMTPCommand parsed = SMTPCommandParser.parse("RCPT TO:<stu@vwx.de>");
+        assertEquals(SMTPCommandType.RCPT_TO, parsed.getType());
+        assertEquals("stu@vwx.de", parsed.getArguments());
+    }
+}
@@ -0,0 +1,155 @@
+package smtp.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TimingWheelTest {
+
+    //1 µs je Tick, die Zeit beginnt bei 0
+    private static final long TICK = 1_000;
+
+    private final TimingWheel wheel = new TimingWheel(TICK, 0);
+    private long currentTick;
+
+    @Test
+    void firesAtTheDeadlineTickAndNotBefore() {
+        final List<Long> fired = new ArrayList<>();
+        wheel.schedule(new TimingWheel.Timeout(() -> fired.add(currentTick)), 10 * TICK);
+
+        advanceTo(9);
+        assertTrue(fired.isEmpty());
+        assertEquals(1, wheel.size());
+        advanceTo(10);
+        assertEquals(List.of(10L), fired);
+        assertTrue(wheel.isEmpty());
+    }
+
+    //Fristen über alle vier Ebenen laufen beim Weiterdrehen Ebene für Ebene nach unten und feuern genau pünktlich
+    @Test
+    void cascadedTimeoutsFireOnTime() {
+        final Random random = new Random(42);
+        final int count = 3_000;
+        final long[] deadlines = new long[count];
+        final long[] firedAt = new long[count];
+        for (int i = 0; i < count; i++) {
+            //bis 2^19 Ticks, also bis in Ebene 3 (ab 2^18 Ticks)
+            deadlines[i] = 1 + random.nextInt(1 << 19);
+            final int index = i;
+            wheel.schedule(new TimingWheel.Timeout(() -> firedAt[index] = currentTick), deadlines[i] * TICK);
+        }
+        //in unregelmäßigen Schritten, wie ein Event-Loop, der nicht jeden Tick aufwacht
+        while (!wheel.isEmpty()) {
+            advanceTo(currentTick + 1 + random.nextInt(3));
+        }
+        for (int i = 0; i < count; i++) {
+            assertTrue(firedAt[i] >= deadlines[i], "Timeout " + i + " fired early");
+            assertTrue(firedAt[i] - deadlines[i] < 3, "Timeout " + i + " fired late");
+        }
+    }
+
+    @Test
+    void farDeadlinesAreClampedToTheWheelRange() {
+        final boolean[] fired = new boolean[1];
+        final TimingWheel.Timeout timeout = new TimingWheel.Timeout(() -> fired[0] = true);
+        wheel.schedule(timeout, Long.MAX_VALUE / 2);
+        advanceTo(1L << 20);
+        assertFalse(fired[0]);
+        assertTrue(timeout.isScheduled());
+    }
+
+    @Test
+    void cancelledTimeoutsNeverFire() {
+        final boolean[] fired = new boolean[2];
+        final TimingWheel.Timeout near = new TimingWheel.Timeout(() -> fired[0] = true);
+        final TimingWheel.Timeout far = new TimingWheel.Timeout(() -> fired[1] = true);
+        wheel.schedule(near, 5 * TICK);
+        wheel.schedule(far, 5_000 * TICK);
+        wheel.cancel(near);
+        advanceTo(100);
+        wheel.cancel(far);
+        //doppeltes Abbrechen ist erlaubt
+        wheel.cancel(far);
+
+        assertTrue(wheel.isEmpty());
+        assertFalse(near.isScheduled());
+        advanceTo(10_000);
+        assertFalse(fired[0]);
+        assertFalse(fired[1]);
+    }
+
+    //neu planen verschiebt die Frist, wie bei jeder Aktivität einer Verbindung
+    @Test
+    void reschedulingMovesTheDeadline() {
+        final List<Long> fired = new ArrayList<>();
+        final TimingWheel.Timeout timeout = new TimingWheel.Timeout(() -> fired.add(currentTick));
+        wheel.schedule(timeout, 10 * TICK);
+        advanceTo(8);
+        wheel.schedule(timeout, 300 * TICK);
+        assertEquals(1, wheel.size());
+        advanceTo(299);
+        assertTrue(fired.isEmpty());
+        advanceTo(300);
+        assertEquals(List.of(300L), fired);
+    }
+
+    @Test
+    void pastDeadlinesFireOnTheNextTick() {
+        advanceTo(50);
+        final List<Long> fired = new ArrayList<>();
+        wheel.schedule(new TimingWheel.Timeout(() -> fired.add(currentTick)), 10 * TICK);
+        advanceTo(51);
+        assertEquals(List.of(51L), fired);
+    }
+
+    //eine Aufgabe darf einen anderen Timeout desselben Slots noch abbrechen
+    @Test
+    void taskCanCancelAnotherTimeoutOfTheSameSlot() {
+        final boolean[] fired = new boolean[1];
+        final TimingWheel.Timeout second = new TimingWheel.Timeout(() -> fired[0] = true);
+        wheel.schedule(new TimingWheel.Timeout(() -> wheel.cancel(second)), 7 * TICK);
+        wheel.schedule(second, 7 * TICK);
+        advanceTo(7);
+        assertFalse(fired[0]);
+        assertTrue(wheel.isEmpty());
+    }
+
+    @Test
+    void emptyWheelJumpsAheadAndStillSchedulesRelativeToNow() {
+        advanceTo(1_000_000);
+        final List<Long> fired = new ArrayList<>();
+        wheel.schedule(new TimingWheel.Timeout(() -> fired.add(currentTick)), 1_000_070 * TICK);
+        advanceTo(1_000_069);
+        assertTrue(fired.isEmpty());
+        advanceTo(1_000_070);
+        assertEquals(List.of(1_000_070L), fired);
+    }
+
+    @Test
+    void millisUntilNextTick() {
+        final TimingWheel wheel = new TimingWheel(100_000_000L, 0);
+        assertEquals(0, wheel.millisUntilNextTick(0), "no timeouts: wait without limit");
+        wheel.schedule(new TimingWheel.Timeout(() -> { }), 1_000_000_000L);
+        assertEquals(100, wheel.millisUntilNextTick(0));
+        assertEquals(41, wheel.millisUntilNextTick(59_500_000L));
+        //nie 0, das hieße für select "ohne Zeitlimit"
+        assertEquals(1, wheel.millisUntilNextTick(99_999_999L));
+    }
+
+    @Test
+    void rejectsNonPositiveTicks() {
+        assertThrows(IllegalArgumentException.class, () -> new TimingWheel(0, 0));
+    }
+
+    private void advanceTo(long tick) {
+        currentTick = tick;
+        wheel.advance(tick * TICK);
+    }
+}